@@ -0,0 +1,88 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.datenwerke.sandbox.util.PrefixTrie;
+
+/**
+ * Compiled form of the class or package access rules of a {@link SandboxContext}, held by its {@link SandboxPolicy}.
+ * Prefix rules are held in {@link PrefixTrie}s and exact rules in hash sets, so that
+ * a lookup costs time linear to the length of the name rather than to the number of rules.
+ *
+ * @see SandboxContext#checkClassAccess(String, Class[])
+ * @see SandboxContext#checkPackageAccess(String, Class[])
+ */
+final class AccessRuleIndex {
+
+    private final PrefixTrie<String> prefixWhitelist;
+    private final Set<String> whitelist;
+    private final PrefixTrie<StackRule> stackWhitelist;
+
+    private final PrefixTrie<String> prefixBlacklist;
+    private final Set<String> blacklist;
+
+    AccessRuleIndex(Collection<String> prefixWhitelist, Collection<String> whitelist,
+                    PrefixTrie<StackRule> stackWhitelist,
+                    Collection<String> prefixBlacklist, Collection<String> blacklist) {
+        this.prefixWhitelist = PrefixTrie.of(prefixWhitelist);
+        this.whitelist = Collections.unmodifiableSet(new HashSet<>(whitelist));
+        this.stackWhitelist = stackWhitelist;
+        this.prefixBlacklist = PrefixTrie.of(prefixBlacklist);
+        this.blacklist = Collections.unmodifiableSet(new HashSet<>(blacklist));
+    }
+
+    /**
+     * Returns true if name is whitelisted by a rule that does not depend on the stack.
+     *
+     * @param name
+     * @return
+     */
+    boolean isWhitelisted(String name) {
+        return whitelist.contains(name) || prefixWhitelist.containsPrefixOf(name);
+    }
+
+    /**
+     * Returns all stack dependent whitelist rules that match name.
+     *
+     * @param name
+     * @return
+     */
+    List<StackRule> getStackRules(String name) {
+        return stackWhitelist.valuesForPrefixesOf(name);
+    }
+
+    boolean hasStackRules() {
+        return !stackWhitelist.isEmpty();
+    }
+
+    boolean isBlacklisted(String name) {
+        return blacklist.contains(name) || prefixBlacklist.containsPrefixOf(name);
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * A read-only archive of class files that is memory mapped and indexed by class name.
+ * Archives are built from the whitelisted jars of a {@link SandboxContext} (see {@link #build(Collection, File, boolean)})
+ * and can hold classes with their finalizers already removed. {@link SandboxClassLoader}s read classes
+ * from an archive without copying them, and all JVMs mapping the same archive share its pages.
+ * <p>
+ * Layout: a header (magic, version, flags, the jars the archive was built from with their size and
+ * modification time), a hash table with
+ * a (hash, offset) pair per slot and the entries, each consisting of the class name (as chars) and
+ * the class bytes.
+ *
+ * @see SandboxContext#setClassArchive(File)
+ */
+public final class ClassArchive {
+
+    private static final int MAGIC = 0x53424341;
+    private static final int VERSION = 2;
+
+    private static final int FLAG_FINALIZERS_REMOVED = 1;
+
+    private static final ConcurrentMap<String, ClassArchive> ARCHIVES = new ConcurrentHashMap<>();
+
+    private final File file;
+    private final long lastModified;
+    private final MappedByteBuffer buffer;
+    private final boolean finalizersRemoved;
+    private final List<String> jars;
+    private final long[] jarLengths;
+    private final long[] jarLastModified;
+    private final int tableOffset;
+    private final int tableMask;
+
+    private ClassArchive(File file) throws IOException {
+        this.file = file;
+        this.lastModified = file.lastModified();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a class archive: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported class archive version " + buffer.getInt(4) + ", rebuild " + file);
+        }
+        this.finalizersRemoved = (buffer.getInt(8) & FLAG_FINALIZERS_REMOVED) != 0;
+
+        int pos = 12;
+        int jarCount = buffer.getInt(pos);
+        pos += 4;
+        List<String> jars = new ArrayList<>(jarCount);
+        this.jarLengths = new long[jarCount];
+        this.jarLastModified = new long[jarCount];
+        for (int i = 0; i < jarCount; i++) {
+            int length = buffer.getInt(pos);
+            pos += 4;
+            jars.add(readString(pos, length));
+            pos += 2 * length;
+            jarLengths[i] = buffer.getLong(pos);
+            jarLastModified[i] = buffer.getLong(pos + 8);
+            pos += 16;
+        }
+        this.jars = Collections.unmodifiableList(jars);
+
+        int tableSize = buffer.getInt(pos);
+        this.tableOffset = pos + 4;
+        this.tableMask = tableSize - 1;
+    }
+
+    /**
+     * Opens an archive. Archives are mapped once per process and file, unless the file was modified.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public static ClassArchive open(File file) throws IOException {
+        String key = file.getCanonicalPath();
+
+        ClassArchive archive = ARCHIVES.get(key);
+        if (null == archive || archive.lastModified != file.lastModified()) {
+            archive = new ClassArchive(file);
+            ARCHIVES.put(key, archive);
+        }
+        return archive;
+    }
+
+    /**
+     * Builds an archive from the classes of the given jars. If a class is contained in
+     * several jars, the first one wins.
+     *
+     * @param jars             the jars, usually {@link SandboxContext#getWhitelistedJars()}
+     * @param target           the archive file to write
+     * @param removeFinalizers whether to store classes with their finalizers removed
+     * @throws IOException
+     */
+    public static void build(Collection<URL> jars, File target, boolean removeFinalizers) throws IOException {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        List<String> sources = new ArrayList<>();
+        List<File> sourceFiles = new ArrayList<>();
+        for (URL url : jars) {
+            File file = toFile(url);
+            if (null == file) {
+                throw new IOException("Not a local jar: " + url);
+            }
+            sources.add(url.toExternalForm());
+            sourceFiles.add(file);
+            try (JarFile jar = new JarFile(file)) {
+                for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                    JarEntry entry = entries.nextElement();
+                    if (!entry.getName().endsWith(".class")) {
+                        continue;
+                    }
+                    String name = entry.getName().substring(0, entry.getName().length() - 6).replace('/', '.');
+                    if (classes.containsKey(name)) {
+                        continue;
+                    }
+
+                    byte[] cBytes = IOUtils.toByteArray(jar.getInputStream(entry));
+                    if (removeFinalizers) {
+                        cBytes = SandboxClassLoader.removeFinalizer(cBytes);
+                    }
+                    classes.put(name, cBytes);
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Could not read " + url, e);
+            }
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(2, classes.size() * 2 - 1)) << 1;
+        int[] hashes = new int[tableSize];
+        int[] offsets = new int[tableSize];
+
+        /* header */
+        long offset = 16;
+        for (String source : sources) {
+            offset += 4 + 2L * source.length() + 16;
+        }
+        offset += 4 + 8L * tableSize;
+
+        /* place entries */
+        for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Class archive exceeds 2GB");
+            }
+            int hash = e.getKey().hashCode();
+            int slot = hash & (tableSize - 1);
+            while (0 != offsets[slot]) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            hashes[slot] = hash;
+            offsets[slot] = (int) offset;
+            offset += 4 + 2L * e.getKey().length() + 4 + e.getValue().length;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(removeFinalizers ? FLAG_FINALIZERS_REMOVED : 0);
+            out.writeInt(sources.size());
+            for (int i = 0; i < sources.size(); i++) {
+                out.writeInt(sources.get(i).length());
+                out.writeChars(sources.get(i));
+                out.writeLong(sourceFiles.get(i).length());
+                out.writeLong(sourceFiles.get(i).lastModified());
+            }
+
+            out.writeInt(tableSize);
+            for (int i = 0; i < tableSize; i++) {
+                out.writeInt(hashes[i]);
+                out.writeInt(offsets[i]);
+            }
+
+            for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+                out.writeInt(e.getKey().length());
+                out.writeChars(e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of the class as a read-only view into the archive, or null
+     * if the archive does not contain the class.
+     *
+     * @param name
+     * @return
+     */
+    public ByteBuffer getClassBytes(String name) {
+        int offset = find(name);
+        if (-1 == offset) {
+            return null;
+        }
+
+        int dataOffset = offset + 4 + 2 * name.length();
+        int length = buffer.getInt(dataOffset);
+
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(dataOffset + 4);
+        bytes.limit(dataOffset + 4 + length);
+        return bytes.slice().asReadOnlyBuffer();
+    }
+
+    public boolean contains(String name) {
+        return -1 != find(name);
+    }
+
+    private int find(String name) {
+        int hash = name.hashCode();
+        int slot = hash & tableMask;
+        while (true) {
+            int pos = tableOffset + 8 * slot;
+            int offset = buffer.getInt(pos + 4);
+            if (0 == offset) {
+                return -1;
+            }
+            if (buffer.getInt(pos) == hash && nameEquals(offset, name)) {
+                return offset;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+    }
+
+    private boolean nameEquals(int offset, String name) {
+        if (buffer.getInt(offset) != name.length()) {
+            return false;
+        }
+        int pos = offset + 4;
+        for (int i = 0; i < name.length(); i++) {
+            if (buffer.getChar(pos + 2 * i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString(int pos, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(pos + 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return true if classes are stored with their finalizers removed
+     */
+    public boolean isFinalizersRemoved() {
+        return finalizersRemoved;
+    }
+
+    /**
+     * @return the external forms of the jars the archive was built from
+     */
+    public List<String> getJars() {
+        return jars;
+    }
+
+    /**
+     * Returns true if the archive was built from exactly the given jars and none of
+     * the jars changed its size or modification time since.
+     *
+     * @param jars
+     * @return
+     */
+    public boolean isBuiltFrom(Collection<URL> jars) {
+        if (jars.size() != this.jars.size()) {
+            return false;
+        }
+        for (URL jar : jars) {
+            int i = this.jars.indexOf(jar.toExternalForm());
+            if (-1 == i) {
+                return false;
+            }
+
+            File file = toFile(jar);
+            if (null == file || file.length() != jarLengths[i] || file.lastModified() != jarLastModified[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static File toFile(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads class files directly to answer simple questions about them without
+ * parsing them into a javassist {@link javassist.CtClass}. The scanner works on the raw
+ * bytes and, apart from collecting class references, does not allocate.
+ */
+final class ClassFileScanner {
+
+    private static final byte[] FINALIZE = {'f', 'i', 'n', 'a', 'l', 'i', 'z', 'e'};
+    private static final byte[] VOID_DESCRIPTOR = {'(', ')', 'V'};
+    private static final byte[] CODE = {'C', 'o', 'd', 'e'};
+
+    private static final int ACC_INTERFACE = 0x0200;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final int RETURN = 0xb1;
+
+    private ClassFileScanner() {
+    }
+
+    /**
+     * Returns true if the class declares a <code>finalize()V</code> method that does more
+     * than return. Interfaces never do. Class files that cannot be read are reported as
+     * declaring a finalizer, so that they are passed on to javassist.
+     *
+     * @param b the class file
+     * @return
+     */
+    static boolean declaresFinalizer(byte[] b) {
+        try {
+            return doDeclaresFinalizer(b);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private static boolean doDeclaresFinalizer(byte[] b) {
+        if (u4(b, 0) != 0xCAFEBABE) {
+            return true;
+        }
+
+        /* constant pool: find the utf8 entries of interest */
+        int finalizeIdx = -1, descriptorIdx = -1, codeIdx = -1;
+
+        int count = u2(b, 8);
+        int pos = 10;
+        for (int i = 1; i < count; i++) {
+            int tag = b[pos] & 0xFF;
+            if (1 == tag) {
+                int utf8Length = u2(b, pos + 1);
+                if (equals(b, pos + 3, utf8Length, FINALIZE)) {
+                    finalizeIdx = i;
+                } else if (equals(b, pos + 3, utf8Length, VOID_DESCRIPTOR)) {
+                    descriptorIdx = i;
+                } else if (equals(b, pos + 3, utf8Length, CODE)) {
+                    codeIdx = i;
+                }
+            }
+
+            int length = entryLength(b, pos);
+            if (-1 == length) {
+                return true;
+            }
+            pos += length;
+            if (5 == tag || 6 == tag) {
+                i++;
+            }
+        }
+
+        if (-1 == finalizeIdx || -1 == descriptorIdx) {
+            return false;
+        }
+
+        if ((u2(b, pos) & ACC_INTERFACE) != 0) {
+            return false;
+        }
+
+        /* skip access flags, this, super and interfaces */
+        pos += 6;
+        pos += 2 + 2 * u2(b, pos);
+
+        /* skip fields */
+        int fields = u2(b, pos);
+        pos += 2;
+        for (int i = 0; i < fields; i++) {
+            pos = skipAttributes(b, pos + 6);
+        }
+
+        /* methods */
+        int methods = u2(b, pos);
+        pos += 2;
+        for (int i = 0; i < methods; i++) {
+            int access = u2(b, pos);
+            if (u2(b, pos + 2) == finalizeIdx && u2(b, pos + 4) == descriptorIdx) {
+                return !isEmpty(b, pos + 6, access, codeIdx);
+            }
+            pos = skipAttributes(b, pos + 6);
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the names (in binary form, e.g., java.lang.String) of all classes referenced by
+     * <code>CONSTANT_Class</code> entries of the class file, including the class itself. For array types
+     * the element type is returned, primitive arrays are skipped.
+     *
+     * @param b the class file
+     * @return
+     * @throws IOException if the class file cannot be read
+     */
+    static Set<String> getReferencedClasses(byte[] b) throws IOException {
+        try {
+            if (u4(b, 0) != 0xCAFEBABE) {
+                throw new IOException("Not a class file");
+            }
+
+            int count = u2(b, 8);
+            int[] offsets = new int[count];
+            int pos = 10;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = pos;
+                int tag = b[pos] & 0xFF;
+                int length = entryLength(b, pos);
+                if (-1 == length) {
+                    throw new IOException("Unknown constant pool tag " + tag);
+                }
+                pos += length;
+                if (5 == tag || 6 == tag) {
+                    i++;
+                }
+            }
+
+            Set<String> classes = new HashSet<>();
+            for (int i = 1; i < count; i++) {
+                if (0 != offsets[i] && 7 == b[offsets[i]]) {
+                    int utf8 = offsets[u2(b, offsets[i] + 1)];
+                    String name = new DataInputStream(new ByteArrayInputStream(b, utf8 + 1, u2(b, utf8 + 1) + 2)).readUTF();
+
+                    /* arrays */
+                    int dims = 0;
+                    while (dims < name.length() && '[' == name.charAt(dims)) {
+                        dims++;
+                    }
+                    if (dims > 0) {
+                        if (name.length() <= dims + 2 || 'L' != name.charAt(dims)) {
+                            continue;
+                        }
+                        name = name.substring(dims + 1, name.length() - 1);
+                    }
+
+                    classes.add(name.replace('/', '.'));
+                }
+            }
+            return classes;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed class file", e);
+        }
+    }
+
+    /**
+     * Returns the length of the constant pool entry at pos or -1 for unknown tags.
+     */
+    private static int entryLength(byte[] b, int pos) {
+        switch (b[pos] & 0xFF) {
+            case 1: /* Utf8 */
+                return 3 + u2(b, pos + 1);
+            case 7: /* Class */
+            case 8: /* String */
+            case 16: /* MethodType */
+            case 19: /* Module */
+            case 20: /* Package */
+                return 3;
+            case 15: /* MethodHandle */
+                return 4;
+            case 3: /* Integer */
+            case 4: /* Float */
+            case 9: /* Fieldref */
+            case 10: /* Methodref */
+            case 11: /* InterfaceMethodref */
+            case 12: /* NameAndType */
+            case 17: /* Dynamic */
+            case 18: /* InvokeDynamic */
+                return 5;
+            case 5: /* Long */
+            case 6: /* Double */
+                return 9;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Mirrors {@link javassist.CtMethod#isEmpty()}: a method is empty if its code consists
+     * of a single return, or if it is abstract.
+     */
+    private static boolean isEmpty(byte[] b, int pos, int access, int codeIdx) {
+        int attributes = u2(b, pos);
+        pos += 2;
+        for (int i = 0; i < attributes; i++) {
+            if (u2(b, pos) == codeIdx) {
+                int codeLength = u4(b, pos + 10);
+                return 1 == codeLength && RETURN == (b[pos + 14] & 0xFF);
+            }
+            pos += 6 + u4(b, pos + 2);
+        }
+        return (access & ACC_ABSTRACT) != 0;
+    }
+
+    private static int skipAttributes(byte[] b, int pos) {
+        int attributes = u2(b, pos);
+        pos += 2;
+        for (int i = 0; i < attributes; i++) {
+            pos += 6 + u4(b, pos + 2);
+        }
+        return pos;
+    }
+
+    private static boolean equals(byte[] b, int pos, int length, byte[] value) {
+        if (length != value.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (b[pos + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u2(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static int u4(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+}
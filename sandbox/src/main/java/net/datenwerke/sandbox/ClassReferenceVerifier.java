@@ -0,0 +1,152 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.io.IOException;
+import java.security.AccessControlException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.datenwerke.sandbox.exception.SandboxException;
+
+/**
+ * A {@link SandboxClassLoaderEnhancer} that checks the classes referenced by the constant
+ * pool of every sandboxed class when the class is defined, rather than waiting for each
+ * reference to be resolved at runtime.
+ * <p>
+ * A class that references a class or package denied by the context is rejected when it is loaded.
+ * A class all of whose references are granted by rules that do not depend on the stack is marked
+ * as verified. When a thread that is restricted by the context alone later resolves one of these
+ * references, the class access check is skipped. Classes from whitelisted jars are trusted and not verified.
+ * <p>
+ * Note that references are checked even if they are never resolved at runtime.
+ *
+ * <pre>
+ * {@code
+ * context.setLoaderEnhancer(new ClassReferenceVerifier(context));
+ * }
+ * </pre>
+ */
+public class ClassReferenceVerifier extends SandboxClassLoaderEnhancerImpl {
+
+    private final SandboxContext context;
+    private final boolean rejectDenied;
+
+    private volatile Verification verification = new Verification(null);
+
+    /**
+     * @param context the context this enhancer is attached to
+     */
+    public ClassReferenceVerifier(SandboxContext context) {
+        this(context, true);
+    }
+
+    /**
+     * @param context      the context this enhancer is attached to
+     * @param rejectDenied false to only mark classes as verified, but not to reject any
+     */
+    public ClassReferenceVerifier(SandboxContext context, boolean rejectDenied) {
+        this.context = context;
+        this.rejectDenied = rejectDenied;
+    }
+
+    @Override
+    public byte[] enhance(SandboxClassLoader sandboxLoader, String name, byte[] cBytes) {
+        if (sandboxLoader.isTrustedSource(name)) {
+            return cBytes;
+        }
+
+        Set<String> references;
+        try {
+            references = ClassFileScanner.getReferencedClasses(cBytes);
+        } catch (IOException e) {
+            throw new SandboxException("Could not verify " + name, e);
+        }
+        references.remove(name);
+
+        SandboxPolicy policy = context.compile();
+        boolean verified = true;
+        for (String reference : references) {
+            if (sandboxLoader.isTrustedSource(reference)) {
+                continue;
+            }
+
+            Boolean granted = policy.checkClassAccessWithoutStack(reference);
+            if (null == granted) {
+                verified = false;
+            } else if (!granted) {
+                if (rejectDenied) {
+                    throw new AccessControlException("Class " + name + " references denied class " + reference);
+                }
+                verified = false;
+            }
+        }
+
+        if (verified) {
+            getVerification(policy).classes.addAll(references);
+        }
+
+        return cBytes;
+    }
+
+    private Verification getVerification(SandboxPolicy policy) {
+        Verification current = verification;
+        if (current.policy != policy) {
+            synchronized (this) {
+                current = verification;
+                if (current.policy != policy) {
+                    current = new Verification(policy);
+                    verification = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public boolean isClassAccessVerified(SandboxClassLoader sandboxLoader, String name) {
+        Verification current = verification;
+        if (null == current.policy || !current.classes.contains(name)) {
+            return false;
+        }
+
+        SecurityManager securityManager = System.getSecurityManager();
+        return securityManager instanceof SandboxSecurityManager
+                && ((SandboxSecurityManager) securityManager).isRestrictedTo(current.policy);
+    }
+
+    /**
+     * The classes whose access was verified under a policy.
+     */
+    private static final class Verification {
+
+        private final SandboxPolicy policy;
+        private final Set<String> classes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        Verification(SandboxPolicy policy) {
+            this.policy = policy;
+        }
+    }
+}
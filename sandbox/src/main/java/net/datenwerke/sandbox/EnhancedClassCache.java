@@ -0,0 +1,203 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of enhanced class bytes that is shared between all {@link SandboxClassLoader}s.
+ * Classes are keyed by name, a digest of their original bytes, whether finalizers are removed
+ * and the identity of the {@link SandboxClassLoaderEnhancer} involved, so that a new loader
+ * does not need to enhance a class that another loader already enhanced the same way.
+ * Classes that are only stripped of their finalizers and classes that an enhancer
+ * returns unchanged are not cached.
+ * <p>
+ * The cache is bounded by the total number of cached bytes, least recently used
+ * classes are evicted first.
+ *
+ * @see SandboxClassLoaderEnhancer#getEnhancementIdentity()
+ */
+final class EnhancedClassCache {
+
+    /**
+     * upper bound of the bytes held by the shared cache
+     */
+    static final long MAXIMUM_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * identity used for classes that are not touched by an enhancer
+     */
+    static final Object NO_ENHANCER = new Object();
+
+    private static final EnhancedClassCache INSTANCE = new EnhancedClassCache(MAXIMUM_BYTES);
+
+    private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final long maximumBytes;
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    EnhancedClassCache(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    static EnhancedClassCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the key for a class.
+     *
+     * @param name             the name of the class
+     * @param source           the bytes of the class before enhancement
+     * @param removeFinalizers whether finalizers are removed
+     * @param enhancerIdentity the enhancer identity or {@link #NO_ENHANCER}
+     * @return
+     */
+    static Key key(String name, byte[] source, boolean removeFinalizers, Object enhancerIdentity) {
+        return new Key(name, digest(source), removeFinalizers, enhancerIdentity);
+    }
+
+    private static byte[] digest(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Returns the enhanced bytes stored for key or null. The returned array must not be modified.
+     *
+     * @param key
+     * @return
+     */
+    synchronized byte[] get(Key key) {
+        byte[] enhanced = entries.get(key);
+        if (null == enhanced) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return enhanced;
+    }
+
+    /**
+     * Stores the enhanced bytes unless they equal the source bytes.
+     *
+     * @param key
+     * @param source   the bytes of the class before enhancement
+     * @param enhanced the enhanced bytes
+     */
+    void put(Key key, byte[] source, byte[] enhanced) {
+        if (enhanced.length > maximumBytes || Arrays.equals(source, enhanced)) {
+            return;
+        }
+        doPut(key, enhanced);
+    }
+
+    private synchronized void doPut(Key key, byte[] enhanced) {
+        byte[] previous = entries.put(key, enhanced);
+        if (null != previous) {
+            bytes -= previous.length;
+        }
+        bytes += enhanced.length;
+
+        Iterator<byte[]> it = entries.values().iterator();
+        while (bytes > maximumBytes && it.hasNext()) {
+            bytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    static final class Key {
+
+        private final String name;
+        private final byte[] digest;
+        private final boolean removeFinalizers;
+        private final Object enhancerIdentity;
+        private final int hash;
+
+        private Key(String name, byte[] digest, boolean removeFinalizers, Object enhancerIdentity) {
+            this.name = name;
+            this.digest = digest;
+            this.removeFinalizers = removeFinalizers;
+            this.enhancerIdentity = enhancerIdentity;
+
+            int result = name.hashCode();
+            result = 31 * result + Arrays.hashCode(digest);
+            result = 31 * result + (removeFinalizers ? 1 : 0);
+            result = 31 * result + enhancerIdentity.hashCode();
+            this.hash = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash
+                    && removeFinalizers == other.removeFinalizers
+                    && name.equals(other.name)
+                    && Arrays.equals(digest, other.digest)
+                    && enhancerIdentity.equals(other.enhancerIdentity);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.datenwerke.sandbox.SandboxService.TypedArgument;
+import net.datenwerke.sandbox.exception.SandboxConfigurationException;
+
+/**
+ * Instantiates and executes a {@link SandboxedEnvironment} class using method handles. The handles are
+ * resolved once per loaded class (and thus per {@link SandboxClassLoader}) and kept along with the class.
+ * Constructors are kept per signature of the arguments as passed by the caller.
+ * <p>
+ * Exceptions are reported as by reflection, i.e., anything thrown by the environment is wrapped in an
+ * {@link InvocationTargetException}.
+ */
+final class EnvironmentInvoker {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType EXECUTE_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private static final ClassValue<EnvironmentInvoker> INVOKERS = new ClassValue<EnvironmentInvoker>() {
+        @Override
+        protected EnvironmentInvoker computeValue(Class<?> type) {
+            return new EnvironmentInvoker(type);
+        }
+    };
+
+    private final Class<?> type;
+
+    private volatile MethodHandle execute;
+
+    /**
+     * per argument signature, as given by the caller, the matching constructor
+     */
+    private final ConcurrentMap<List<Class<?>>, ConstructorHandle> constructors = new ConcurrentHashMap<>();
+
+    private EnvironmentInvoker(Class<?> type) {
+        this.type = type;
+    }
+
+    /**
+     * Returns the invoker for the given {@link SandboxedEnvironment} class. The execute method is
+     * resolved right away, that is, by the caller rather than within the sandbox.
+     *
+     * @param type
+     * @return
+     * @throws NoSuchMethodException
+     * @throws IllegalAccessException
+     */
+    static EnvironmentInvoker of(Class<?> type) throws NoSuchMethodException, IllegalAccessException {
+        EnvironmentInvoker invoker = INVOKERS.get(type);
+        if (null == invoker.execute) {
+            Method method = type.getMethod("execute");
+            method.setAccessible(true);
+            invoker.execute = LOOKUP.unreflect(method).asType(EXECUTE_TYPE);
+        }
+        return invoker;
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    /**
+     * Calls execute on the given instance.
+     *
+     * @param instance
+     * @return
+     * @throws InvocationTargetException if execute threw
+     */
+    Object execute(Object instance) throws InvocationTargetException {
+        try {
+            return execute.invokeExact(instance);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Creates an instance passing the given arguments to the constructor. Argument types are
+     * looked up in the given loader, as {@link TypedArgument}s are bridged.
+     *
+     * @param service
+     * @param loader
+     * @param args
+     * @return
+     * @throws ClassNotFoundException
+     * @throws IllegalAccessException
+     * @throws InvocationTargetException if the constructor threw
+     */
+    Object newInstance(SandboxService service, ClassLoader loader, Object... args) throws ClassNotFoundException, IllegalAccessException, InvocationTargetException {
+        int length = null == args ? 0 : args.length;
+
+        Class<?>[] signature = new Class<?>[length];
+        Object[] values = new Object[length];
+        for (int i = 0; i < length; i++) {
+            Object o = args[i];
+            if (o instanceof TypedArgument) {
+                signature[i] = ((TypedArgument) o).getType();
+                if (((TypedArgument) o).isBridge()) {
+                    values[i] = service.bridge(((TypedArgument) o).getValue(), loader);
+                } else {
+                    values[i] = ((TypedArgument) o).getValue();
+                }
+            } else {
+                signature[i] = o.getClass();
+                values[i] = o;
+            }
+        }
+
+        /* argument types resolve the same as long as the class is defined by the loader they are resolved in */
+        List<Class<?>> key = Arrays.asList(signature);
+        ConstructorHandle constructor = constructors.get(key);
+        if (null == constructor) {
+            constructor = resolveConstructor(signature, loader);
+            if (type.getClassLoader() == loader) {
+                constructors.putIfAbsent(key, constructor);
+            }
+        }
+
+        return constructor.newInstance(values);
+    }
+
+    private ConstructorHandle resolveConstructor(Class<?>[] signature, ClassLoader loader) throws ClassNotFoundException, IllegalAccessException {
+        Class<?>[] typeArray = new Class<?>[signature.length];
+        for (int i = 0; i < signature.length; i++) {
+            typeArray[i] = Class.forName(signature[i].getName(), true, loader);
+        }
+
+        Constructor<?> constructor;
+        try {
+            constructor = type.getDeclaredConstructor(typeArray);
+        } catch (NoSuchMethodException e) {
+            throw new SandboxConfigurationException(e.getMessage() + ": Could not load constructor for the SandboxedEnvironment object. I tried to find a constructor " +
+                    "with the following types: " + Arrays.toString(typeArray) +
+                    " Is there a classloader problem?", e);
+        }
+
+        constructor.setAccessible(true);
+        MethodHandle handle = LOOKUP.unreflectConstructor(constructor)
+                .asType(MethodType.genericMethodType(typeArray.length))
+                .asSpreader(Object[].class, typeArray.length);
+
+        return new ConstructorHandle(constructor, handle);
+    }
+
+    private static final class ConstructorHandle {
+
+        private final Constructor<?> constructor;
+        private final Class<?>[] parameterTypes;
+        private final MethodHandle handle;
+
+        ConstructorHandle(Constructor<?> constructor, MethodHandle handle) {
+            this.constructor = constructor;
+            this.parameterTypes = constructor.getParameterTypes();
+            this.handle = handle;
+        }
+
+        Object newInstance(Object[] values) throws InvocationTargetException {
+            for (int i = 0; i < values.length; i++) {
+                if (null != values[i] && !parameterTypes[i].isInstance(values[i])) {
+                    StringBuffer buf = new StringBuffer("[");
+                    for (Object o : values) {
+                        buf.append(o).append(", ");
+                    }
+                    buf.append("]");
+                    throw new SandboxConfigurationException("argument type mismatch: Could not instantiate the SandboxedEnvironment object. " +
+                            "Is there a classloader problem? The SandboxedEnvironment's constructor expects " +
+                            constructor + " but I got: " + buf);
+                }
+            }
+
+            try {
+                return (Object) handle.invokeExact(values);
+            } catch (Throwable e) {
+                throw new InvocationTargetException(e);
+            }
+        }
+    }
+}
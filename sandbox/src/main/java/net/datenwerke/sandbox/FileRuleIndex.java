@@ -0,0 +1,163 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import net.datenwerke.sandbox.permissions.FileEqualsPermission;
+import net.datenwerke.sandbox.permissions.FilePermission;
+import net.datenwerke.sandbox.permissions.FilePrefixPermission;
+import net.datenwerke.sandbox.permissions.FileRegexPermission;
+import net.datenwerke.sandbox.permissions.FileSuffixPermission;
+import net.datenwerke.sandbox.util.PrefixTrie;
+
+/**
+ * Compiled form of the grants and denials of a {@link SandboxContext} for one
+ * {@link SandboxContext.FileAccess} type.
+ * <p>
+ * Equals rules are held in a hash set, prefix rules in a {@link PrefixTrie} and suffix
+ * rules in a trie over the reversed suffixes. Regular expressions are compiled once.
+ * Negated rules and unknown {@link FilePermission} implementations are tested one by one.
+ *
+ * @see SandboxPolicy#checkFileAction(String, SandboxContext.FileAccess)
+ */
+final class FileRuleIndex {
+
+    private final Rules grants;
+    private final Rules denials;
+
+    FileRuleIndex(Collection<FilePermission> permissions, Collection<FilePermission> prohibitions) {
+        this.grants = new Rules(permissions);
+        this.denials = new Rules(prohibitions);
+    }
+
+    /**
+     * Returns true if access to the file is granted and not denied.
+     *
+     * @param file
+     * @return
+     */
+    boolean isPermitted(String file) {
+        return !denials.matches(file) && grants.matches(file);
+    }
+
+    private static final class Rules {
+
+        private final Set<String> equals;
+        private final PrefixTrie<String> prefixes;
+        private final PrefixTrie<String> reversedSuffixes;
+        private final Pattern[] patterns;
+        private final FilePermission[] others;
+
+        Rules(Collection<FilePermission> rules) {
+            Set<String> equals = new HashSet<>();
+            List<String> prefixes = new ArrayList<>();
+            List<String> reversedSuffixes = new ArrayList<>();
+            List<Pattern> patterns = new ArrayList<>();
+            List<FilePermission> others = new ArrayList<>();
+
+            for (FilePermission rule : rules) {
+                /* subclasses may redefine the semantics of a rule, only index the known types */
+                if (rule.getClass() == FileEqualsPermission.class && !((FileEqualsPermission) rule).isNegate()) {
+                    equals.add(((FileEqualsPermission) rule).getMask());
+                } else if (rule.getClass() == FilePrefixPermission.class && !((FilePrefixPermission) rule).isNegate()) {
+                    prefixes.add(((FilePrefixPermission) rule).getPrefix());
+                } else if (rule.getClass() == FileSuffixPermission.class && !((FileSuffixPermission) rule).isNegate()) {
+                    reversedSuffixes.add(new StringBuilder(((FileSuffixPermission) rule).getSuffix()).reverse().toString());
+                } else if (rule.getClass() == FileRegexPermission.class && !((FileRegexPermission) rule).isNegate()) {
+                    patterns.add(((FileRegexPermission) rule).getPattern());
+                } else {
+                    others.add(rule);
+                }
+            }
+
+            this.equals = equals.isEmpty() ? Collections.<String>emptySet() : equals;
+            this.prefixes = PrefixTrie.of(prefixes);
+            this.reversedSuffixes = PrefixTrie.of(reversedSuffixes);
+            this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+            this.others = others.toArray(new FilePermission[others.size()]);
+        }
+
+        boolean matches(String file) {
+            if (equals.contains(file)) {
+                return true;
+            }
+            if (prefixes.containsPrefixOf(file)) {
+                return true;
+            }
+            if (!reversedSuffixes.isEmpty() && reversedSuffixes.containsPrefixOf(new Reversed(file))) {
+                return true;
+            }
+            for (Pattern pattern : patterns) {
+                if (pattern.matcher(file).matches()) {
+                    return true;
+                }
+            }
+            for (FilePermission rule : others) {
+                if (rule.testPermission(file)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reversed view of a string that avoids copying it.
+     */
+    private static final class Reversed implements CharSequence {
+
+        private final String value;
+
+        Reversed(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return value.charAt(value.length() - 1 - index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new StringBuilder(value.substring(value.length() - end, value.length() - start)).reverse();
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder(value).reverse().toString();
+        }
+    }
+}
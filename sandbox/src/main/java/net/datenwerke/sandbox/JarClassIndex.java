@@ -0,0 +1,111 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lists the classes contained in a jar. Listings are cached per jar and reused as long as
+ * the jar's size and modification time do not change, so that {@link SandboxClassLoader}s
+ * indexing the same sub loader jars do not read them again.
+ *
+ * @see SandboxContext#addSubloaderContext(URL, SandboxContext)
+ */
+final class JarClassIndex {
+
+    private static final Logger logger = Logger.getLogger(JarClassIndex.class.getName());
+
+    private static final ConcurrentMap<String, JarClassIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final long length;
+    private final long lastModified;
+    private final String[] classNames;
+
+    private JarClassIndex(long length, long lastModified, String[] classNames) {
+        this.length = length;
+        this.lastModified = lastModified;
+        this.classNames = classNames;
+    }
+
+    /**
+     * Returns the names of the classes in the jar. Only local jars can be listed.
+     *
+     * @param url
+     * @return the class names or null if the jar cannot be listed
+     */
+    static String[] getClassNames(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+
+        File file;
+        try {
+            file = new File(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+
+        String key = url.toExternalForm();
+        long length = file.length();
+        long lastModified = file.lastModified();
+
+        JarClassIndex index = INDEXES.get(key);
+        if (null != index && index.length == length && index.lastModified == lastModified) {
+            return index.classNames;
+        }
+
+        List<String> classNames = new ArrayList<>();
+        try (JarFile jar = new JarFile(file)) {
+            for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+                String entry = entries.nextElement().getName();
+                if (entry.endsWith(".class")) {
+                    classNames.add(entry.substring(0, entry.length() - 6).replace('/', '.'));
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not index jar " + url + ", falling back to resource lookups", e);
+            return null;
+        }
+
+        index = new JarClassIndex(length, lastModified, classNames.toArray(new String[classNames.size()]));
+        INDEXES.put(key, index);
+        return index.classNames;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+/**
+ * The execution stack (as returned by {@link SecurityManager#getClassContext()}) of a
+ * security check that is only captured once a rule actually needs to look at it.
+ * <p>
+ * Most rules of a {@link SandboxContext} do not carry {@link net.datenwerke.sandbox.permissions.StackEntry}s
+ * and thus most checks can be answered without walking the stack at all.
+ */
+public abstract class LazyClassContext {
+
+    private Class[] stack;
+
+    /**
+     * Wraps an already captured stack.
+     *
+     * @param stack
+     * @return
+     */
+    public static LazyClassContext of(final Class[] stack) {
+        return new LazyClassContext() {
+            @Override
+            protected Class[] capture() {
+                return null == stack ? new Class[0] : stack;
+            }
+        };
+    }
+
+    /**
+     * Returns the stack, capturing it on first access.
+     *
+     * @return
+     */
+    public final Class[] get() {
+        if (null == stack) {
+            stack = capture();
+        }
+        return stack;
+    }
+
+    /**
+     * Returns true if the stack has already been captured.
+     *
+     * @return
+     */
+    public final boolean isCaptured() {
+        return null != stack;
+    }
+
+    /**
+     * Captures the stack. The element at position 0 must be the class
+     * that performs the security check.
+     *
+     * @return
+     */
+    protected abstract Class[] capture();
+}
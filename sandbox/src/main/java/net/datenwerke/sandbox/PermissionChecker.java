@@ -0,0 +1,270 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+
+/**
+ * Base class of permission checkers that are generated for a frozen {@link SandboxContext}.
+ * <p>
+ * The generated class turns the stack independent {@link SecurityPermission} rules into
+ * straight-line code that switches on the hash of the permission's type and name. Types with
+ * stack dependent rules and file permissions are left undecided and are handled
+ * by the interpreted checks of the {@link SandboxPolicy}.
+ * <p>
+ * Each checker is defined by its own class loader, so it can be unloaded together with its policy.
+ *
+ * @see SandboxContext#setGeneratedPermissionChecks(boolean)
+ */
+public abstract class PermissionChecker {
+
+    static final int DENY = 0;
+    static final int GRANT = 1;
+    static final int UNDECIDED = -1;
+
+    private static final String GENERATED_NAME = PermissionChecker.class.getName() + "$Generated";
+
+    private static final Logger logger = Logger.getLogger(PermissionChecker.class.getName());
+
+    /**
+     * @param perm
+     * @return {@link #GRANT}, {@link #DENY} or {@link #UNDECIDED} if the interpreted checks have to decide
+     */
+    protected abstract int check(Permission perm);
+
+    /**
+     * Generates a checker for the given rules. Returns null if the checker could not be
+     * generated, in which case all checks are to be interpreted.
+     *
+     * @param whitelist
+     * @param blacklist
+     * @param stackDependentTypes types for which at least one rule depends on the stack
+     * @return
+     */
+    static PermissionChecker generate(Map<String, Collection<SecurityPermission>> whitelist,
+                                      Map<String, Collection<SecurityPermission>> blacklist,
+                                      Set<String> stackDependentTypes) {
+        try {
+            ClassPool pool = new ClassPool(true);
+            pool.appendClassPath(new ClassClassPath(PermissionChecker.class));
+
+            CtClass clazz = pool.makeClass(GENERATED_NAME);
+            clazz.setSuperclass(pool.get(PermissionChecker.class.getName()));
+            clazz.addConstructor(CtNewConstructor.defaultConstructor(clazz));
+
+            Set<String> types = new TreeSet<>();
+            types.addAll(whitelist.keySet());
+            types.addAll(blacklist.keySet());
+            types.add(java.io.FilePermission.class.getName());
+
+            /* group types by hash */
+            Map<Integer, List<String>> typesByHash = new TreeMap<>();
+            int nr = 0;
+            boolean complete = true;
+            for (String type : types) {
+                if (!isLiteral(type)) {
+                    complete = false;
+                    continue;
+                }
+
+                String method = null;
+                if (!stackDependentTypes.contains(type) && !java.io.FilePermission.class.getName().equals(type)) {
+                    String body = typeCheck(whitelist.get(type), blacklist.get(type));
+                    if (null != body) {
+                        method = "check" + nr++;
+                        clazz.addMethod(CtNewMethod.make("private int " + method + "(java.security.Permission p) {" + body + "}", clazz));
+                    }
+                }
+
+                List<String> group = typesByHash.get(hash(type));
+                if (null == group) {
+                    group = new ArrayList<>();
+                    typesByHash.put(hash(type), group);
+                }
+                group.add("if (type.equals(" + literal(type) + ")) return " + (null == method ? String.valueOf(UNDECIDED) : method + "(p)") + ";");
+            }
+
+            StringBuilder dispatch = new StringBuilder();
+            dispatch.append("protected int check(java.security.Permission p) {");
+            dispatch.append("String type = p.getClass().getName();");
+            dispatch.append("switch (type.hashCode() & ").append(Integer.MAX_VALUE).append(") {");
+            for (Map.Entry<Integer, List<String>> e : typesByHash.entrySet()) {
+                dispatch.append("case ").append(e.getKey()).append(":");
+                for (String stmt : e.getValue())
+                    dispatch.append(stmt);
+                dispatch.append("break;");
+            }
+            dispatch.append("}");
+            /* types without rules are denied, unless a type could not be compiled */
+            dispatch.append("return ").append(complete ? DENY : UNDECIDED).append(";");
+            dispatch.append("}");
+            clazz.addMethod(CtNewMethod.make(dispatch.toString(), clazz));
+
+            byte[] bytes = clazz.toBytecode();
+            clazz.detach();
+
+            Class<?> checker = new CheckerLoader(PermissionChecker.class.getClassLoader()).define(bytes);
+            return (PermissionChecker) checker.newInstance();
+        } catch (Exception | LinkageError e) {
+            logger.log(Level.WARNING, "Could not generate permission checker, falling back to interpreted checks", e);
+            return null;
+        }
+    }
+
+    /**
+     * Generates the checks for a single type following the order of the interpreted
+     * checks: the blacklist is consulted first, then the whitelist. Returns null if the
+     * rules cannot be expressed as literals.
+     */
+    private static String typeCheck(Collection<SecurityPermission> whitelist, Collection<SecurityPermission> blacklist) {
+        StringBuilder body = new StringBuilder();
+        body.append("String name = p.getName();");
+        body.append("String actions = p.getActions();");
+
+        if (null != blacklist && !appendRules(body, blacklist, DENY))
+            return null;
+        if (null != whitelist && !appendRules(body, whitelist, GRANT))
+            return null;
+
+        body.append("return ").append(DENY).append(";");
+        return body.toString();
+    }
+
+    private static boolean appendRules(StringBuilder body, Collection<SecurityPermission> rules, int decision) {
+        /* rules by name hash, rules without name match any name */
+        Map<Integer, Map<String, List<String>>> byHash = new TreeMap<>();
+        List<String> anyName = new ArrayList<>();
+
+        for (SecurityPermission rule : rules) {
+            if (null != rule.getActions() && !isLiteral(rule.getActions()))
+                return false;
+            String actions = null == rule.getActions() ? "true" : "(actions != null && actions.equals(" + literal(rule.getActions()) + "))";
+
+            if (null == rule.getName()) {
+                anyName.add(actions);
+                continue;
+            }
+            if (!isLiteral(rule.getName()))
+                return false;
+
+            Map<String, List<String>> names = byHash.get(hash(rule.getName()));
+            if (null == names) {
+                names = new TreeMap<>();
+                byHash.put(hash(rule.getName()), names);
+            }
+            List<String> conditions = names.get(rule.getName());
+            if (null == conditions) {
+                conditions = new ArrayList<>();
+                names.put(rule.getName(), conditions);
+            }
+            conditions.add(actions);
+        }
+
+        if (!byHash.isEmpty()) {
+            body.append("if (name != null) {");
+            body.append("switch (name.hashCode() & ").append(Integer.MAX_VALUE).append(") {");
+            for (Map.Entry<Integer, Map<String, List<String>>> e : byHash.entrySet()) {
+                body.append("case ").append(e.getKey()).append(":");
+                for (Map.Entry<String, List<String>> n : e.getValue().entrySet()) {
+                    body.append("if (name.equals(").append(literal(n.getKey())).append(") && (")
+                            .append(or(n.getValue())).append(")) return ").append(decision).append(";");
+                }
+                body.append("break;");
+            }
+            body.append("}");
+            body.append("}");
+        }
+
+        if (!anyName.isEmpty())
+            body.append("if (").append(or(anyName)).append(") return ").append(decision).append(";");
+
+        return true;
+    }
+
+    private static String or(List<String> conditions) {
+        if (conditions.contains("true"))
+            return "true";
+
+        StringBuilder b = new StringBuilder();
+        for (String condition : conditions) {
+            if (b.length() > 0)
+                b.append(" || ");
+            b.append(condition);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Case labels are kept positive to keep the generated source simple.
+     */
+    private static int hash(String value) {
+        return value.hashCode() & Integer.MAX_VALUE;
+    }
+
+    /**
+     * Only printable ascii is embedded into generated source.
+     */
+    private static boolean isLiteral(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c > 0x7e)
+                return false;
+        }
+        return true;
+    }
+
+    private static String literal(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Defines exactly one generated checker.
+     */
+    private static final class CheckerLoader extends ClassLoader {
+
+        CheckerLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(GENERATED_NAME, bytes, 0, bytes.length, PermissionChecker.class.getProtectionDomain());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.security.Permission;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoizes permission decisions of a {@link SandboxPolicy} that do not depend
+ * on the execution stack. Decisions are keyed by permission class, name and actions.
+ *
+ * @see SandboxPolicy#getCachedPermissionDecision(Permission)
+ */
+class PermissionDecisionCache {
+
+    /**
+     * upper bound of cached decisions, the cache is flushed once it is reached
+     */
+    static final int MAXIMUM_SIZE = 4096;
+
+    private final ConcurrentHashMap<Key, Boolean> decisions = new ConcurrentHashMap<>();
+
+    private final Set<String> stackDependentTypes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * @param stackDependentTypes permission types for which at least one rule carries {@link net.datenwerke.sandbox.permissions.StackEntry}s
+     * @param predecessor         the invalidated cache whose counters are to be continued, or null
+     */
+    PermissionDecisionCache(Set<String> stackDependentTypes, PermissionDecisionCache predecessor) {
+        this.stackDependentTypes = stackDependentTypes;
+        this.hits = null == predecessor ? new AtomicLong() : predecessor.hits;
+        this.misses = null == predecessor ? new AtomicLong() : predecessor.misses;
+    }
+
+    /**
+     * Returns true if decisions for the given permission can be memoized, that is,
+     * if no rule for its type depends on the execution stack.
+     *
+     * @param perm
+     * @return
+     */
+    boolean isCacheable(Permission perm) {
+        return !stackDependentTypes.contains(perm.getClass().getName());
+    }
+
+    Boolean get(Permission perm) {
+        if (!isCacheable(perm)) {
+            return null;
+        }
+
+        Boolean decision = decisions.get(new Key(perm));
+        if (null == decision) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return decision;
+    }
+
+    void put(Permission perm, boolean decision) {
+        if (decisions.size() >= MAXIMUM_SIZE) {
+            decisions.clear();
+        }
+        decisions.put(new Key(perm), decision);
+    }
+
+    int size() {
+        return decisions.size();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private static final class Key {
+
+        private final Class<?> type;
+        private final String name;
+        private final String actions;
+        private final int hash;
+
+        Key(Permission perm) {
+            this.type = perm.getClass();
+            this.name = perm.getName();
+            this.actions = perm.getActions();
+
+            int result = type.hashCode();
+            result = 31 * result + (null == name ? 0 : name.hashCode());
+            result = 31 * result + (null == actions ? 0 : actions.hashCode());
+            this.hash = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return type == other.type
+                    && (null == name ? null == other.name : name.equals(other.name))
+                    && (null == actions ? null == other.actions : actions.equals(other.actions));
+        }
+    }
+}
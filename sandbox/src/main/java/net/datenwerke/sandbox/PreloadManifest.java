@@ -0,0 +1,299 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.datenwerke.sandbox.SandboxContext.PreloadMode;
+
+/**
+ * A list of the classes loaded by the sandboxed calls of a context, stored per context name.
+ * Manifests are recorded by loaders of contexts in {@link PreloadMode#RECORD} and replayed into
+ * new loaders of contexts in {@link PreloadMode#REPLAY}, so that the first call on a fresh loader
+ * or in a freshly spawned JVM does not have to load its classes one by one.
+ * <p>
+ * A manifest is a text file with one class name per line, lines starting with # are ignored.
+ *
+ * @see SandboxContext#setPreloadMode(PreloadMode)
+ */
+public final class PreloadManifest {
+
+    private static final Logger logger = Logger.getLogger(PreloadManifest.class.getName());
+
+    private static final String SUFFIX = ".preload";
+
+    /**
+     * below this many classes a preload task is not split any further
+     */
+    private static final int SPLIT_THRESHOLD = 32;
+
+    /**
+     * per manifest file, the classes recorded by this JVM merged with the file's content
+     */
+    private static final ConcurrentMap<File, Set<String>> RECORDED = new ConcurrentHashMap<>();
+
+    /**
+     * loads the classes of all preloads, one thread per processor
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private PreloadManifest() {
+    }
+
+    /**
+     * Returns the manifest file of the given context or null if the context has no manifest directory.
+     *
+     * @param context
+     * @return
+     */
+    public static File getManifestFile(SandboxContext context) {
+        File directory = context.getPreloadManifestDirectory();
+        if (null == directory) {
+            return null;
+        }
+
+        String name = context.getName();
+        if (null == name || "".equals(name)) {
+            name = "default";
+        }
+        return new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_").concat(SUFFIX));
+    }
+
+    /**
+     * Reads the class names of a manifest. A missing manifest is empty.
+     *
+     * @param manifest
+     * @return
+     * @throws IOException
+     */
+    public static List<String> read(File manifest) throws IOException {
+        List<String> classes = new ArrayList<>();
+        if (!manifest.isFile()) {
+            return classes;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    classes.add(line);
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Writes the class names to the manifest. The manifest is replaced atomically, so that concurrent
+     * readers, e.g., other JVMs of a pool, never see a partially written manifest.
+     *
+     * @param manifest
+     * @param classes
+     * @throws IOException
+     */
+    public static void write(File manifest, Collection<String> classes) throws IOException {
+        File directory = manifest.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Could not create directory: " + directory);
+        }
+
+        File tmp = File.createTempFile(manifest.getName(), ".tmp", directory);
+        try {
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                writer.write("# java-sandbox preload manifest");
+                writer.newLine();
+                for (String clazz : classes) {
+                    writer.write(clazz);
+                    writer.newLine();
+                }
+            }
+
+            try {
+                Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Adds the classes recorded by the loader to the manifest of its context. The manifest is only
+     * rewritten if the loader loaded classes that are not yet part of it.
+     *
+     * @param loader
+     */
+    static void record(SandboxClassLoader loader) {
+        Set<String> loaded = loader.getRecordedClasses();
+        if (null == loaded || loaded.isEmpty()) {
+            return;
+        }
+
+        File manifest = getManifestFile(loader.getContext());
+        if (null == manifest) {
+            return;
+        }
+
+        Set<String> recorded = RECORDED.get(manifest);
+        if (null == recorded) {
+            RECORDED.putIfAbsent(manifest, new LinkedHashSet<String>());
+            recorded = RECORDED.get(manifest);
+        }
+
+        synchronized (recorded) {
+            try {
+                if (recorded.isEmpty()) {
+                    recorded.addAll(read(manifest));
+                }
+
+                int size = recorded.size();
+                recorded.addAll(loaded);
+                if (size != recorded.size()) {
+                    write(manifest, recorded);
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not record preload manifest " + manifest, e);
+            }
+        }
+    }
+
+    /**
+     * Preloads the manifest of the loader's context, if the context is in {@link PreloadMode#REPLAY}.
+     *
+     * @param loader
+     * @return the number of classes loaded
+     * @see #preload(SandboxClassLoader, Collection)
+     */
+    public static int preload(SandboxClassLoader loader) {
+        SandboxContext context = loader.getContext();
+        if (PreloadMode.REPLAY != context.getPreloadMode()) {
+            return 0;
+        }
+
+        File manifest = getManifestFile(context);
+        if (null == manifest) {
+            return 0;
+        }
+
+        try {
+            return preload(loader, read(manifest));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not read preload manifest " + manifest, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Loads the given classes into the loader using a shared fork/join pool with one thread per processor.
+     * Classes are loaded but not initialized, classes that cannot be loaded are skipped.
+     * <p>
+     * Preloaded classes are not checked again when sandboxed code uses them, as the JVM remembers
+     * the loader as their initiating loader. Hence only classes defined by the loader itself and
+     * granted by the context's class access rules regardless of the stack are preloaded.
+     *
+     * @param loader
+     * @param classes
+     * @return the number of classes loaded
+     */
+    public static int preload(SandboxClassLoader loader, Collection<String> classes) {
+        SandboxPolicy policy = loader.getContext().compile();
+
+        List<String> permitted = new ArrayList<>();
+        for (String name : classes) {
+            if (loader.isDefinedByThisLoader(name) && Boolean.TRUE.equals(policy.checkClassAccessWithoutStack(name))) {
+                permitted.add(name);
+            }
+        }
+        if (permitted.isEmpty()) {
+            return 0;
+        }
+
+        String[] names = permitted.toArray(new String[permitted.size()]);
+        return POOL.invoke(new PreloadTask(loader, names, 0, names.length));
+    }
+
+    private static final class PreloadTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SandboxClassLoader loader;
+        private final String[] names;
+        private final int from;
+        private final int to;
+
+        PreloadTask(SandboxClassLoader loader, String[] names, int from, int to) {
+            this.loader = loader;
+            this.names = names;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                PreloadTask left = new PreloadTask(loader, names, from, mid);
+                left.fork();
+                int loaded = new PreloadTask(loader, names, mid, to).compute();
+                return loaded + left.join();
+            }
+
+            int loaded = 0;
+            for (int i = from; i < to; i++) {
+                try {
+                    Class.forName(names[i], false, loader);
+                    loaded++;
+                } catch (ClassNotFoundException | LinkageError | SecurityException e) {
+                    logger.log(Level.FINE, "Could not preload " + names[i], e);
+                }
+            }
+            return loaded;
+        }
+    }
+}
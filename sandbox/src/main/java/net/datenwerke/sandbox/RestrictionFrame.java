@@ -0,0 +1,152 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.lang.ref.Reference;
+import java.util.Arrays;
+
+/**
+ * Holds the complete sandbox state of a thread: the stack of active restrictions
+ * and whether a security check is currently running. Threads that are not restricted
+ * do not carry a frame at all.
+ * <p>
+ * Restrictions can be nested. Each {@link Restriction} links to the restriction it
+ * was nested in, a check has to be granted by all of them.
+ *
+ * @see SandboxSecurityManager
+ */
+final class RestrictionFrame {
+
+    private Restriction top;
+    private boolean inCheck;
+    private Reference<RestrictionFrame> reference;
+
+    RestrictionFrame(Restriction top) {
+        this.top = top;
+    }
+
+    /**
+     * Creates the frame that a thread started from within a restricted thread inherits.
+     * The child shares the restrictions, but not the check state, of its parent.
+     *
+     * @return
+     */
+    RestrictionFrame inherit() {
+        return new RestrictionFrame(top);
+    }
+
+    /**
+     * @return the innermost restriction
+     */
+    Restriction getTop() {
+        return top;
+    }
+
+    /**
+     * @return the reference by which the {@link SandboxSecurityManager} tracks this frame
+     */
+    Reference<RestrictionFrame> getReference() {
+        return reference;
+    }
+
+    void setReference(Reference<RestrictionFrame> reference) {
+        this.reference = reference;
+    }
+
+    boolean isInCheck() {
+        return inCheck;
+    }
+
+    void setInCheck(boolean inCheck) {
+        this.inCheck = inCheck;
+    }
+
+    void push(byte[] password, SandboxPolicy policy) {
+        top = new Restriction(password, policy, top);
+    }
+
+    /**
+     * Removes the innermost restriction if the password matches.
+     *
+     * @param password
+     * @return false if the password is wrong
+     */
+    boolean pop(byte[] password) {
+        if (null == top || !Arrays.equals(password, top.password)) {
+            return false;
+        }
+        top = top.outer;
+        return true;
+    }
+
+    boolean isEmpty() {
+        return null == top;
+    }
+
+    /**
+     * A single (possibly nested) restriction.
+     */
+    static final class Restriction {
+
+        private final byte[] password;
+        private final SandboxPolicy policy;
+        private final boolean debug;
+        private final boolean classAccessReusable;
+        private final Restriction outer;
+
+        Restriction(byte[] password, SandboxPolicy policy, Restriction outer) {
+            this.password = password;
+            this.policy = policy;
+            this.debug = policy.isDebug();
+            this.classAccessReusable = !debug && !policy.isClassAccessStackDependent()
+                    && (null == outer || outer.classAccessReusable);
+            this.outer = outer;
+        }
+
+        SandboxPolicy getPolicy() {
+            return policy;
+        }
+
+        boolean isDebug() {
+            return debug;
+        }
+
+        /**
+         * Returns true if neither this nor any outer restriction decides class access
+         * depending on the stack or wants to debug class access checks.
+         *
+         * @return
+         */
+        boolean isClassAccessReusable() {
+            return classAccessReusable;
+        }
+
+        /**
+         * @return the restriction this one is nested in or null
+         */
+        Restriction getOuter() {
+            return outer;
+        }
+    }
+}
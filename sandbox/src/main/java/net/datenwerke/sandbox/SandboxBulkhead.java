@@ -0,0 +1,427 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import net.datenwerke.sandbox.SandboxContext.AdmissionPolicy;
+import net.datenwerke.sandbox.exception.SandboxRejectedException;
+
+/**
+ * Limits the number of sandboxed executions that run at the same time for one context name,
+ * or for one instance of an unnamed context, so that a burst of calls on one context does not take all threads and remote agents.
+ * The limits are taken from the context of every execution, see
+ * {@link SandboxContext#setMaximumConcurrentExecutions(int)}.
+ * <p>
+ * Executions that have to wait are queued in order of arrival. A finishing execution hands
+ * its permit to the head of the queue: waiting callers are woken up, queued asynchronous
+ * executions are dispatched, so that no pool thread waits for admission.
+ * <p>
+ * Bulkheads are created by the {@link SandboxService} and give access to the number of
+ * running and queued executions as well as to the number of rejections.
+ *
+ * @see SandboxService#getBulkhead(String)
+ */
+public class SandboxBulkhead {
+
+    private final String name;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+
+    private int running;
+
+    private long admitted;
+    private long rejected;
+    private long callerRuns;
+
+    /**
+     * An execution waiting for admission. Synchronous waiters have no callbacks.
+     */
+    static final class Waiter {
+        private final SandboxContext context;
+        private final Runnable onAdmitted;
+        private final Consumer<SandboxRejectedException> onRejected;
+
+        private boolean admitted;
+        private ScheduledFuture<?> timeout;
+
+        private Waiter(SandboxContext context, Runnable onAdmitted, Consumer<SandboxRejectedException> onRejected) {
+            this.context = context;
+            this.onAdmitted = onAdmitted;
+            this.onRejected = onRejected;
+        }
+    }
+
+    SandboxBulkhead(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Admits an execution of the given context, waits if the policy says so.
+     * <p>
+     * Once the limit is reached, executions with {@link AdmissionPolicy#CALLER_RUNS} are run
+     * by the calling thread beyond the limit. They are not counted as running and do not take
+     * a permit from executions waiting for admission, thus are not to be released.
+     *
+     * @param context
+     * @return true if the execution took a permit and must be released, false if it runs beyond the limit
+     * @throws SandboxRejectedException if the execution is not admitted
+     */
+    boolean acquire(SandboxContext context) {
+        List<Runnable> dispatched = null;
+
+        lock.lock();
+        try {
+            if (isAdmissible(context)) {
+                running++;
+                admitted++;
+                return true;
+            }
+
+            switch (context.getAdmissionPolicy()) {
+                case CALLER_RUNS:
+                    callerRuns++;
+                    return false;
+                case WAIT:
+                    dispatched = new ArrayList<>();
+                    await(context, dispatched);
+                    return true;
+                default:
+                    throw reject("rejected execution as " + running + " executions are running for context " + name);
+            }
+        } finally {
+            lock.unlock();
+
+            if (null != dispatched) {
+                for (Runnable onAdmitted : dispatched) {
+                    onAdmitted.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for admission holding the lock.
+     *
+     * @param dispatched receives the asynchronous executions admitted by handing on the permit of an interrupted waiter
+     */
+    private void await(SandboxContext context, List<Runnable> dispatched) {
+        Waiter waiter = enqueue(context, null, null);
+
+        long timeout = context.getAdmissionTimeout();
+        long nanos = 0 > timeout ? -1 : context.getAdmissionTimeoutUnit().toNanos(timeout);
+        try {
+            while (!waiter.admitted) {
+                if (0 > nanos) {
+                    available.await();
+                } else if (0 == nanos) {
+                    waiters.remove(waiter);
+                    throw reject("rejected execution as it was not admitted within " + timeout + " "
+                            + context.getAdmissionTimeoutUnit() + " for context " + name);
+                } else {
+                    nanos = Math.max(0, available.awaitNanos(nanos));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (waiter.admitted) {
+                /* hand the permit on */
+                running--;
+                dispatched.addAll(dispatch());
+            } else {
+                waiters.remove(waiter);
+            }
+            throw reject("interrupted while waiting for admission for context " + name);
+        }
+    }
+
+    /**
+     * Admits an execution of the given context if this is possible without waiting.
+     *
+     * @param context
+     * @return true if the execution was admitted
+     */
+    boolean tryAcquire(SandboxContext context) {
+        lock.lock();
+        try {
+            if (isAdmissible(context)) {
+                running++;
+                admitted++;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits an asynchronous execution without blocking. If the execution is admitted, right away or
+     * once a running execution is released, onAdmitted is run, the execution must then be released
+     * by {@link #release()}. With {@link AdmissionPolicy#WAIT} the execution is queued, it is rejected
+     * if the queue is full or the admission timeout passes.
+     *
+     * @param context
+     * @param onAdmitted  dispatches the execution, called without holding any lock
+     * @param onRejected
+     * @return the queued waiter, to be passed to {@link #cancel(Waiter)}, null if it was not queued
+     */
+    Waiter acquireAsync(SandboxContext context, Runnable onAdmitted, Consumer<SandboxRejectedException> onRejected) {
+        Waiter waiter = null;
+        SandboxRejectedException rejection = null;
+        boolean admit = false;
+
+        lock.lock();
+        try {
+            if (isAdmissible(context)) {
+                running++;
+                admitted++;
+                admit = true;
+            } else if (context.getAdmissionPolicy() != AdmissionPolicy.WAIT) {
+                rejection = reject("rejected execution as " + running + " executions are running for context " + name);
+            } else {
+                try {
+                    waiter = enqueue(context, onAdmitted, onRejected);
+                } catch (SandboxRejectedException e) {
+                    rejection = e;
+                }
+
+                long timeout = context.getAdmissionTimeout();
+                if (null != waiter && 0 <= timeout) {
+                    Waiter queued = waiter;
+                    waiter.timeout = SandboxedFuture.getTimer().schedule(() -> timeout(queued), timeout, context.getAdmissionTimeoutUnit());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (admit) {
+            onAdmitted.run();
+        } else if (null != rejection) {
+            onRejected.accept(rejection);
+        }
+        return waiter;
+    }
+
+    private void timeout(Waiter waiter) {
+        lock.lock();
+        try {
+            if (waiter.admitted || !waiters.remove(waiter)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        waiter.onRejected.accept(reject("rejected execution as it was not admitted within "
+                + waiter.context.getAdmissionTimeout() + " " + waiter.context.getAdmissionTimeoutUnit() + " for context " + name));
+    }
+
+    /**
+     * Removes a queued asynchronous execution.
+     *
+     * @param waiter
+     * @return false if the execution had already been admitted or rejected
+     */
+    boolean cancel(Waiter waiter) {
+        lock.lock();
+        try {
+            if (waiter.admitted || !waiters.remove(waiter)) {
+                return false;
+            }
+            if (null != waiter.timeout) {
+                waiter.timeout.cancel(false);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends an execution admitted by {@link #acquire(SandboxContext)}, {@link #tryAcquire(SandboxContext)}
+     * or {@link #acquireAsync(SandboxContext, Runnable, Consumer)} and admits the next queued executions.
+     */
+    void release() {
+        List<Runnable> dispatched;
+
+        lock.lock();
+        try {
+            running--;
+            dispatched = dispatch();
+        } finally {
+            lock.unlock();
+        }
+
+        for (Runnable onAdmitted : dispatched) {
+            onAdmitted.run();
+        }
+    }
+
+    /**
+     * Admits queued executions while permits are available. Must be called holding the lock, the
+     * returned asynchronous executions are to be dispatched after the lock was released.
+     */
+    private List<Runnable> dispatch() {
+        List<Runnable> dispatched = new ArrayList<>();
+        boolean wakeUp = false;
+
+        while (!waiters.isEmpty()) {
+            Waiter waiter = waiters.peek();
+            int limit = waiter.context.getMaximumConcurrentExecutions();
+            if (0 <= limit && running >= limit) {
+                break;
+            }
+
+            waiters.poll();
+            waiter.admitted = true;
+            running++;
+            admitted++;
+
+            if (null == waiter.onAdmitted) {
+                wakeUp = true;
+            } else {
+                if (null != waiter.timeout) {
+                    waiter.timeout.cancel(false);
+                }
+                dispatched.add(waiter.onAdmitted);
+            }
+        }
+
+        if (wakeUp) {
+            available.signalAll();
+        }
+        return dispatched;
+    }
+
+    private boolean isAdmissible(SandboxContext context) {
+        int limit = context.getMaximumConcurrentExecutions();
+        return waiters.isEmpty() && (0 > limit || running < limit);
+    }
+
+    private Waiter enqueue(SandboxContext context, Runnable onAdmitted, Consumer<SandboxRejectedException> onRejected) {
+        int maxQueued = context.getMaximumQueuedExecutions();
+        if (0 <= maxQueued && waiters.size() >= maxQueued) {
+            throw reject("rejected execution as " + waiters.size() + " executions are queued for context " + name);
+        }
+
+        Waiter waiter = new Waiter(context, onAdmitted, onRejected);
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    private SandboxRejectedException reject(String msg) {
+        rejected++;
+        return new SandboxRejectedException(msg);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of executions currently running within the limit
+     */
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of executions currently waiting for admission
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of executions admitted within the limit
+     */
+    public long getAdmitted() {
+        lock.lock();
+        try {
+            return admitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of executions that were rejected, right away or after waiting
+     */
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of executions beyond the limit that were run by the calling thread,
+     * these are not included in {@link #getRunning()}
+     */
+    public long getCallerRuns() {
+        lock.lock();
+        try {
+            return callerRuns;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "SandboxBulkhead[" + name + ": running=" + running + ", queued=" + waiters.size() + ", admitted=" + admitted
+                    + ", rejected=" + rejected + ", callerRuns=" + callerRuns + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -28,15 +28,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.CodeSource;
 import java.security.Permissions;
 import java.security.ProtectionDomain;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,7 +52,9 @@ import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtMethod;
 import javassist.NotFoundException;
+import net.datenwerke.sandbox.SandboxContext.PreloadMode;
 import net.datenwerke.sandbox.securitypermissions.SandboxRuntimePermission;
+import net.datenwerke.sandbox.util.PrefixTrie;
 
 import org.apache.commons.io.IOUtils;
 
@@ -58,6 +67,8 @@ import sun.misc.URLClassPath;
  * This classloader takes care of loading classes with the correct class loaders
  * and much more. This can be seen to some extend as the heart of the
  * java-sandbox library.
+ * <p>
+ * The loader is parallel capable, classes are loaded and defined under a lock per class name.
  *
  * @author Arno Mittelbach
  */
@@ -73,6 +84,8 @@ final public class SandboxClassLoader extends ClassLoader {
     private static final HashSet<String> BYPASS_CLASSES = new HashSet<>();
 
     static {
+        registerAsParallelCapable();
+
         BYPASS_CLASSES.add("net.datenwerke.sandbox.SandboxClassLoader");
         BYPASS_CLASSES.add("net.datenwerke.sandbox.SandboxServiceImpl");
 
@@ -100,9 +113,16 @@ final public class SandboxClassLoader extends ClassLoader {
 
     private final SandboxSecurityManager securityManager;
 
-    private Map<String, SandboxClassLoader> subLoaderCache = new HashMap<>();
-    private Map<String, SandboxClassLoader> subLoaderPrefixCache = new HashMap<>();
-    private Map<URLClassPath, SandboxClassLoader> subLoaderByJar = new HashMap<>();
+    private Map<String, SandboxClassLoader> subLoaderCache = new ConcurrentHashMap<>();
+    private Map<String, SandboxClassLoader> subLoaderPrefixCache = new ConcurrentHashMap<>();
+    private Map<URLClassPath, SandboxClassLoader> subLoaderByJar = new ConcurrentHashMap<>();
+
+    /**
+     * routing index built from {@link #subLoaderCache}, {@link #subLoaderPrefixCache} and {@link #subLoaderByJar}
+     */
+    private Map<String, SandboxClassLoader> subLoaderByJarClass = Collections.emptyMap();
+    private Map<URLClassPath, SandboxClassLoader> unindexedSubLoaderByJar = Collections.emptyMap();
+    private PrefixTrie<SandboxClassLoader> subLoaderPrefixTrie = PrefixTrie.empty();
 
     private boolean debug = false;
 
@@ -127,8 +147,46 @@ final public class SandboxClassLoader extends ClassLoader {
 
     private SandboxClassLoaderEnhancer enhancer;
 
+    private SandboxLibraryLoader libraryLoader;
+
+    private ClassArchive archive;
+
     private ClassLoader parent;
 
+    /**
+     * per class name, whether the class is available from the whitelisted jars
+     */
+    private final ConcurrentMap<String, Boolean> trustedSources = new ConcurrentHashMap<>();
+
+    /**
+     * per class name, the restriction under which access to the class was last granted
+     *
+     * @see SandboxSecurityManager#getClassAccessToken()
+     */
+    private final ConcurrentMap<String, Object> authorizedClasses = new ConcurrentHashMap<>();
+
+    /**
+     * packages defined by this loader
+     */
+    private final Set<String> definedPackages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * per package, the protection domain of its classes if domains are shared per package
+     */
+    private final ConcurrentMap<String, ProtectionDomain> packageDomains = new ConcurrentHashMap<>();
+
+    private boolean sharePackageDomains;
+
+    /**
+     * protection domain for classes defined by {@link #defineClass(String, byte[], boolean)}
+     */
+    private volatile ProtectionDomain codesourceDomain;
+
+    /**
+     * names of the classes loaded, null unless the context records a {@link PreloadManifest}
+     */
+    private volatile Set<String> recordedClasses;
+
     /**
      * Instantiates a new SandboxClassLoader with the current ClassLoader as parent.
      */
@@ -203,6 +261,8 @@ final public class SandboxClassLoader extends ClassLoader {
             for (Entry<URL, SandboxContext> e : context.getSubLoaderContextByJar().entrySet()) {
                 subLoaderByJar.put(new URLClassPath(new URL[]{e.getKey()}), initSubLoader(loaderMap, e.getValue()));
             }
+
+            indexSubLoaders(context, loaderMap);
         }
 
         /* debug */
@@ -213,13 +273,142 @@ final public class SandboxClassLoader extends ClassLoader {
             this.codesource = DEFAULT_CODESOURCE_PREFIX.concat("/").concat(null == name || "".equals(name) ? "default" : name).concat("/");
         }
         this.removeFinalizers = context.isRemoveFinalizers();
+        this.sharePackageDomains = context.isSharePackageProtectionDomains();
 
         this.enhancer = context.getLoaderEnhancer();
 
+        /* archive of the whitelisted jars */
+        this.archive = null;
+        if (null != context.getClassArchive() && null != whitelistedUcp) {
+            this.archive = openArchive(context);
+        }
+
+        /* whitelisted jars shared with other loaders */
+        if (context.isShareWhitelistedJars() && null != whitelistedUcp) {
+            this.libraryLoader = initLibraryLoader(context);
+        } else {
+            this.libraryLoader = null;
+        }
+
+        trustedSources.clear();
+        authorizedClasses.clear();
+        packageDomains.clear();
+        codesourceDomain = null;
+
+        /* preload manifest */
+        if (PreloadMode.RECORD == context.getPreloadMode() && null != context.getPreloadManifestDirectory()) {
+            this.recordedClasses = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        } else {
+            this.recordedClasses = null;
+        }
+
         /* store context */
         this.context = context;
     }
 
+    /**
+     * Returns the library loader for those whitelisted jars that are registered as stateless libraries.
+     *
+     * @param context
+     * @return the library loader or null if no jar can be shared
+     */
+    private SandboxLibraryLoader initLibraryLoader(SandboxContext context) {
+        Object enhancerIdentity = null == enhancer ? EnhancedClassCache.NO_ENHANCER : enhancer.getEnhancementIdentity();
+        if (null == enhancerIdentity) {
+            logger.log(Level.WARNING, "Not sharing whitelisted jars of context " + name + " as its enhancer does not provide an enhancement identity");
+            return null;
+        }
+
+        SandboxPolicy policy = context.compile();
+        if (policy.isClassAccessStackDependent() || policy.isPackageAccessStackDependent()) {
+            logger.log(Level.WARNING, "Not sharing whitelisted jars of context " + name + " as its class access depends on the stack");
+            return null;
+        }
+
+        List<URL> sharedJars = new ArrayList<>();
+        for (URL jar : context.getWhitelistedJars()) {
+            if (SandboxLibraryLoader.isStatelessLibrary(jar)) {
+                sharedJars.add(jar);
+            } else if (debug) {
+                logger.log(Level.INFO, "Not sharing " + jar + " as it is not registered as stateless library");
+            }
+        }
+        if (sharedJars.isEmpty()) {
+            return null;
+        }
+
+        SandboxLibraryLoader loader = SandboxLibraryLoader.getInstance(sharedJars, parent, removeFinalizers, enhancerIdentity,
+                context.getClassAccessRules(), securityManager);
+        loader.attach(this);
+        return loader;
+    }
+
+    /**
+     * Opens the archive configured for the context, provided it matches the context's
+     * whitelisted jars and finalizer settings.
+     *
+     * @param context
+     * @return the archive or null
+     */
+    private ClassArchive openArchive(SandboxContext context) {
+        try {
+            ClassArchive archive = ClassArchive.open(context.getClassArchive());
+            if (!archive.isBuiltFrom(context.getWhitelistedJars())) {
+                logger.log(Level.WARNING, "Ignoring class archive " + context.getClassArchive() + " as it was not built from the current versions of the whitelisted jars");
+                return null;
+            }
+            if (archive.isFinalizersRemoved() && !removeFinalizers) {
+                logger.log(Level.WARNING, "Ignoring class archive " + context.getClassArchive() + " as finalizers were removed");
+                return null;
+            }
+            return archive;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not open class archive " + context.getClassArchive(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Builds the index used to route classes to sub loaders. Classes of jars that can be listed
+     * are mapped to their sub loader directly, all other jars are probed on every lookup.
+     *
+     * @param context
+     * @param loaderMap
+     */
+    private void indexSubLoaders(SandboxContext context, IdentityHashMap<SandboxContext, SandboxClassLoader> loaderMap) {
+        Map<String, SandboxClassLoader> byJarClass = new HashMap<>();
+        Map<URLClassPath, SandboxClassLoader> unindexed = new HashMap<>();
+        for (Entry<URL, SandboxContext> e : context.getSubLoaderContextByJar().entrySet()) {
+            SandboxClassLoader subLoader = loaderMap.get(e.getValue());
+            if (!indexJar(e.getKey(), subLoader, byJarClass)) {
+                unindexed.put(new URLClassPath(new URL[]{e.getKey()}), subLoader);
+            }
+        }
+
+        PrefixTrie.Builder<SandboxClassLoader> prefixes = new PrefixTrie.Builder<>();
+        for (Entry<String, SandboxClassLoader> e : subLoaderPrefixCache.entrySet()) {
+            prefixes.add(e.getKey(), e.getValue());
+        }
+
+        this.subLoaderByJarClass = byJarClass;
+        this.unindexedSubLoaderByJar = unindexed;
+        this.subLoaderPrefixTrie = prefixes.build();
+    }
+
+    private boolean indexJar(URL url, SandboxClassLoader subLoader, Map<String, SandboxClassLoader> index) {
+        String[] classNames = JarClassIndex.getClassNames(url);
+        if (null == classNames) {
+            return false;
+        }
+
+        for (String className : classNames) {
+            if (!index.containsKey(className)) {
+                index.put(className, subLoader);
+            }
+        }
+        return true;
+    }
+
     private SandboxClassLoader initSubLoader(IdentityHashMap<SandboxContext, SandboxClassLoader> loaderMap, SandboxContext context) {
         if (loaderMap.containsKey(context)) {
             return loaderMap.get(context);
@@ -244,6 +433,10 @@ final public class SandboxClassLoader extends ClassLoader {
         return context;
     }
 
+    SandboxClassLoaderEnhancer getEnhancer() {
+        return enhancer;
+    }
+
     @Override
     protected Class<?> loadClass(final String name, boolean resolve) throws ClassNotFoundException {
         Class clazz = null;
@@ -260,13 +453,8 @@ final public class SandboxClassLoader extends ClassLoader {
             clazz = super.loadClass(name, resolve);
 
             /* check if it comes from an available jar */
-            if (!name.startsWith("java.") && null != whitelistedUcp) {
-                String path = name.replace('.', '/').concat(".class");
-
-                Resource res = whitelistedUcp.getResource(path, false);
-                if (res != null) {
-                    trustedSource = true;
-                }
+            if (!name.startsWith("java.")) {
+                trustedSource = isTrustedSource(name);
             }
 
         } else {
@@ -274,127 +462,297 @@ final public class SandboxClassLoader extends ClassLoader {
             if (hasSubLoaders) {
                 SandboxClassLoader subLoader = doGetSubLoaderByClassContext(name);
                 if (null != subLoader) {
-                    return subLoader.loadClass(name, resolve);
+                    return record(name, subLoader.loadClass(name, resolve));
                 }
             }
 
+            /* classes from shared jars are defined once by the library loader, they are trusted */
+            if (null != libraryLoader && isTrustedSource(name)) {
+                clazz = libraryLoader.loadLibraryClass(this, name, resolve);
+            }
+
             /* check if we have already handeled this class */
-            clazz = findLoadedClass(name);
-            if (clazz != null) {
-                if (null != whitelistedUcp) {
-                    String path = name.replace('.', '/').concat(".class");
-                    Resource res = whitelistedUcp.getResource(path, false);
-                    if (res != null) {
-                        trustedSource = true;
+            if (clazz == null) {
+                clazz = findLoadedClass(name);
+            }
+            if (clazz == null) {
+                synchronized (getClassLoadingLock(name)) {
+                    clazz = findLoadedClass(name);
+                    if (clazz == null) {
+                        clazz = defineSandboxedClass(name, resolve);
                     }
                 }
-            } else {
-                try {
-                    String basePath = name.replace('.', '/');
-                    String path = basePath.concat(".class");
-
-                    ProtectionDomain domain = null;
-                    try {
-                        CodeSource codeSource = new CodeSource(new URL("file", "", codesource.concat(basePath)), (java.security.cert.Certificate[]) null);
-                        domain = new ProtectionDomain(codeSource, new Permissions(), this, null);
-                    } catch (MalformedURLException e) {
-                        throw new RuntimeException("Could not create protection domain.");
-                    }
+            }
+            trustedSource = isTrustedSource(name);
+        }
 
-                    /* define package */
-                    int i = name.lastIndexOf('.');
-                    if (i != -1) {
-                        String pkgName = name.substring(0, i);
-                        java.lang.Package pkg = getPackage(pkgName);
-                        if (pkg == null) {
-                            definePackage(pkgName, null, null, null, null, null, null, null);
-                        }
+        if (!trustedSource && null != clazz && null != securityManager)
+            checkClassAccess(name);
+
+        if (null != enhancer)
+            enhancer.classLoaded(this, name, clazz);
+
+        return record(name, clazz);
+    }
+
+    private Class<?> record(String name, Class<?> clazz) {
+        Set<String> recorded = recordedClasses;
+        if (null != recorded && null != clazz) {
+            recorded.add(name);
+        }
+        return clazz;
+    }
+
+    /**
+     * @return the names of the classes loaded so far, or null if the loader does not record them
+     * @see PreloadManifest
+     */
+    Set<String> getRecordedClasses() {
+        return recordedClasses;
+    }
+
+    /**
+     * Loads and defines a class within this loader. Callers need to hold the class loading lock.
+     *
+     * @param name
+     * @param resolve
+     * @return
+     * @throws ClassNotFoundException
+     */
+    private Class<?> defineSandboxedClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> clazz = null;
+        boolean trustedSource = false;
+
+        try {
+            String path = name.replace('.', '/').concat(".class");
+
+            /* define package */
+            int i = name.lastIndexOf('.');
+            String pkgName = i == -1 ? "" : name.substring(0, i);
+            definePackage(pkgName);
+
+            ProtectionDomain domain = sharePackageDomains ? getPackageDomain(pkgName) : createDomain(codesource.concat(name.replace('.', '/')));
+
+            /* first strategy .. check archive and jars */
+            if (null != archive) {
+                ByteBuffer archived = archive.getClassBytes(name);
+                if (null != archived) {
+                    if (null == enhancer && removeFinalizers == archive.isFinalizersRemoved()) {
+                        clazz = defineClass(name, archived, domain);
+                    } else {
+                        byte[] cBytes = new byte[archived.remaining()];
+                        archived.get(cBytes);
+                        cBytes = enhance(name, cBytes);
+                        clazz = defineClass(name, cBytes, 0, cBytes.length, domain);
                     }
+                    trustedSource = true;
+                }
+            } else if (null != whitelistedUcp) {
+                Resource res = whitelistedUcp.getResource(path, false);
+                if (res != null) {
+                    byte[] cBytes = enhance(name, res.getBytes());
+                    clazz = defineClass(name, cBytes, 0, cBytes.length, domain);
+                    trustedSource = true;
+                }
+            }
 
+            /* load class */
+            if (clazz == null) {
+                InputStream in = null;
+                try {
+                    /* we only load from local sources */
+                    in = parent.getResourceAsStream(path);
+                    byte[] cBytes = null;
+                    if (in != null) {
+                        cBytes = IOUtils.toByteArray(in);
+                    }
 
-                    /* first strategy .. check jars */
-                    if (null != whitelistedUcp) {
-                        Resource res = whitelistedUcp.getResource(path, false);
-                        if (res != null) {
-                            byte[] cBytes = enhance(name, res.getBytes());
-                            clazz = defineClass(name, cBytes, 0, cBytes.length, domain);
-                            trustedSource = true;
-                        }
+                    if (null == cBytes && null != enhancer) {
+                        cBytes = enhancer.loadClass(this, name);
                     }
 
-                    /* load class */
-                    if (clazz == null) {
-                        InputStream in = null;
+                    if (null == cBytes) {
+                        throw new ClassNotFoundException("Could not find " + name);
+                    }
+                    /* load and define class */
+                    cBytes = enhance(name, cBytes);
+                    clazz = defineClass(name, cBytes, 0, cBytes.length, domain);
+                } finally {
+                    if (null != in) {
                         try {
-                            /* we only load from local sources */
-                            in = parent.getResourceAsStream(path);
-                            byte[] cBytes = null;
-                            if (in != null) {
-                                cBytes = IOUtils.toByteArray(in);
-                            }
-
-                            if (null == cBytes && null != enhancer) {
-                                cBytes = enhancer.loadClass(this, name);
-                            }
-
-                            if (null == cBytes) {
-                                throw new ClassNotFoundException("Could not find " + name);
-                            }
-                            /* load and define class */
-                            cBytes = enhance(name, cBytes);
-                            clazz = defineClass(name, cBytes, 0, cBytes.length, domain);
-                        } finally {
-                            if (null != in) {
-                                try {
-                                    in.close();
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            }
+                            in.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
                     }
+                }
+            }
 
-                    /* do we need to resolve */
-                    if (resolve) {
-                        resolveClass(clazz);
-                    }
-                } catch (IOException e) {
-                    throw new ClassNotFoundException("Could not load " + name, e);
-                } catch (Exception e) {
-                    throw new ClassNotFoundException("Could not load " + name, e);
+            if (null != whitelistedUcp) {
+                trustedSources.put(name, trustedSource);
+            }
+
+            /* do we need to resolve */
+            if (resolve) {
+                resolveClass(clazz);
+            }
+
+            return clazz;
+        } catch (IOException e) {
+            throw new ClassNotFoundException("Could not load " + name, e);
+        } catch (Exception e) {
+            throw new ClassNotFoundException("Could not load " + name, e);
+        }
+    }
+
+    /**
+     * Makes sure that the package is defined.
+     *
+     * @param pkgName the package or the empty string for the default package
+     */
+    private void definePackage(String pkgName) {
+        if (pkgName.isEmpty() || definedPackages.contains(pkgName)) {
+            return;
+        }
+
+        if (null == getPackage(pkgName)) {
+            try {
+                definePackage(pkgName, null, null, null, null, null, null, null);
+            } catch (IllegalArgumentException e) {
+                /* the package was defined by a thread loading another class */
+                if (null == getPackage(pkgName)) {
+                    throw e;
                 }
             }
         }
+        definedPackages.add(pkgName);
+    }
 
-        if (!trustedSource && null != clazz && null != securityManager)
-            securityManager.checkClassAccess(name);
+    /**
+     * Returns the protection domain for classes of the given package. Domains are created once
+     * per package, their codesource is the package's path below the loader's codesource.
+     *
+     * @param pkgName the package or the empty string for the default package
+     * @return
+     * @see SandboxContext#setSharePackageProtectionDomains(boolean)
+     */
+    private ProtectionDomain getPackageDomain(String pkgName) {
+        ProtectionDomain domain = packageDomains.get(pkgName);
+        if (null != domain) {
+            return domain;
+        }
 
-        if (null != enhancer)
-            enhancer.classLoaded(this, name, clazz);
+        domain = createDomain(pkgName.isEmpty() ? codesource : codesource.concat(pkgName.replace('.', '/')).concat("/"));
+        ProtectionDomain existing = packageDomains.putIfAbsent(pkgName, domain);
+        return null == existing ? domain : existing;
+    }
 
-        return clazz;
+    private ProtectionDomain createDomain(String location) {
+        try {
+            CodeSource codeSource = new CodeSource(new URL("file", "", location), (java.security.cert.Certificate[]) null);
+            return new ProtectionDomain(codeSource, new Permissions(), this, null);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException("Could not create protection domain.");
+        }
     }
 
+    /**
+     * Returns true if the class is available from the whitelisted jars. The answer is
+     * remembered, so that repeated loads of the same class do not search the jars again.
+     *
+     * @param name
+     * @return
+     */
+    boolean isTrustedSource(String name) {
+        if (null == whitelistedUcp) {
+            return false;
+        }
+        if (null != archive) {
+            return archive.contains(name);
+        }
+
+        Boolean trusted = trustedSources.get(name);
+        if (null == trusted) {
+            String path = name.replace('.', '/').concat(".class");
+            trusted = null != whitelistedUcp.getResource(path, false);
+            trustedSources.put(name, trusted);
+        }
+        return trusted;
+    }
+
+    /**
+     * Checks access to the class unless it has already been granted under the
+     * current restriction.
+     *
+     * @param name
+     */
+    private void checkClassAccess(String name) {
+        if (null != enhancer && enhancer.isClassAccessVerified(this, name)) {
+            return;
+        }
+
+        Object token = securityManager.getClassAccessToken();
+        if (null != token && token == authorizedClasses.get(name)) {
+            return;
+        }
+
+        securityManager.checkClassAccess(name);
+
+        if (null != token) {
+            authorizedClasses.put(name, token);
+        }
+    }
 
     private byte[] enhance(String name, byte[] cBytes) throws IOException, RuntimeException, CannotCompileException, NotFoundException {
-        if (removeFinalizers) {
-            CtClass clazz = new ClassPool().makeClass(new ByteArrayInputStream(cBytes));
-            if (!clazz.isInterface()) {
-                try {
-                    CtMethod method = clazz.getMethod("finalize", "()V");
-                    if (null != method && !method.isEmpty()) {
-                        clazz.removeMethod(method);
-                        cBytes = clazz.toBytecode();
-                    }
-                } catch (NotFoundException ignore) {
-                }
+        /* removing finalizers is cheap enough to not need the cache */
+        if (null == enhancer) {
+            return removeFinalizers ? removeFinalizer(cBytes) : cBytes;
+        }
+
+        /* enhanced classes are shared between loaders that enhance them the same way */
+        EnhancedClassCache.Key key = null;
+        Object enhancerIdentity = enhancer.getEnhancementIdentity();
+        if (null != enhancerIdentity) {
+            key = EnhancedClassCache.key(name, cBytes, removeFinalizers, enhancerIdentity);
+            byte[] enhanced = EnhancedClassCache.getInstance().get(key);
+            if (null != enhanced) {
+                return enhanced;
             }
         }
-        if (null != enhancer) {
-            cBytes = enhancer.enhance(this, name, cBytes);
+
+        byte[] enhanced = removeFinalizers ? removeFinalizer(cBytes) : cBytes;
+        enhanced = enhancer.enhance(this, name, enhanced);
+        if (null != key && null != enhanced) {
+            EnhancedClassCache.getInstance().put(key, cBytes, enhanced);
         }
-        return cBytes;
+        return enhanced;
+    }
 
+    /**
+     * Removes a non empty <code>finalize()</code> method from the class.
+     *
+     * @param cBytes
+     * @return
+     * @throws IOException
+     * @throws CannotCompileException
+     */
+    static byte[] removeFinalizer(byte[] cBytes) throws IOException, CannotCompileException {
+        if (!ClassFileScanner.declaresFinalizer(cBytes)) {
+            return cBytes;
+        }
+
+        CtClass clazz = new ClassPool().makeClass(new ByteArrayInputStream(cBytes));
+        if (!clazz.isInterface()) {
+            try {
+                CtMethod method = clazz.getMethod("finalize", "()V");
+                if (null != method && !method.isEmpty()) {
+                    clazz.removeMethod(method);
+                    cBytes = clazz.toBytecode();
+                }
+            } catch (NotFoundException ignore) {
+            }
+        }
+        return cBytes;
     }
 
     public SandboxClassLoader getSubLoaderByClassContext(String clazz) {
@@ -403,26 +761,44 @@ final public class SandboxClassLoader extends ClassLoader {
     }
 
     private SandboxClassLoader doGetSubLoaderByClassContext(String clazz) {
-        String path = clazz.replace('.', '/').concat(".class");
-        for (Entry<URLClassPath, SandboxClassLoader> e : subLoaderByJar.entrySet()) {
-            Resource res = e.getKey().getResource(path, false);
-            if (res != null) {
-                return e.getValue();
+        SandboxClassLoader subLoader = subLoaderByJarClass.get(clazz);
+        if (null != subLoader) {
+            return subLoader;
+        }
+
+        if (!unindexedSubLoaderByJar.isEmpty()) {
+            String path = clazz.replace('.', '/').concat(".class");
+            for (Entry<URLClassPath, SandboxClassLoader> e : unindexedSubLoaderByJar.entrySet()) {
+                Resource res = e.getKey().getResource(path, false);
+                if (res != null) {
+                    return e.getValue();
+                }
             }
         }
 
-        SandboxClassLoader subLoader = subLoaderCache.get(clazz);
+        subLoader = subLoaderCache.get(clazz);
         if (null != subLoader) {
             return subLoader;
         }
 
-        for (String prefix : subLoaderPrefixCache.keySet()) {
-            if (clazz.startsWith(prefix)) {
-                return subLoaderPrefixCache.get(prefix);
-            }
-        }
+        return subLoaderPrefixTrie.firstValueForLongestPrefixOf(clazz);
+    }
 
-        return null;
+    /**
+     * Returns true if the class would be defined by this loader, rather than by the parent,
+     * a subloader or the library loader.
+     *
+     * @param name
+     * @return
+     */
+    boolean isDefinedByThisLoader(String name) {
+        if (name.startsWith("java.") || bypassClazz(name)) {
+            return false;
+        }
+        if (hasSubLoaders && null != doGetSubLoaderByClassContext(name)) {
+            return false;
+        }
+        return null == libraryLoader || !isTrustedSource(name);
     }
 
     private boolean bypassClazz(String name) {
@@ -542,28 +918,28 @@ final public class SandboxClassLoader extends ClassLoader {
     public Class<?> defineClass(String name, byte[] classBytes, boolean enhanceClass) {
         securityManager.checkPermission(new SandboxRuntimePermission("defineClass"));
 
-        Class<?> clazz = findLoadedClass(name);
-        if (null != clazz) {
-            return clazz;
-        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            if (null != clazz) {
+                return clazz;
+            }
 
-        if (enhanceClass) {
-            try {
-                classBytes = enhance(name, classBytes);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
+            if (enhanceClass) {
+                try {
+                    classBytes = enhance(name, classBytes);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
             }
-        }
 
-        ProtectionDomain domain = null;
-        try {
-            CodeSource codeSource = new CodeSource(new URL("file", "", codesource), (java.security.cert.Certificate[]) null);
-            domain = new ProtectionDomain(codeSource, new Permissions(), this, null);
-        } catch (MalformedURLException e) {
-            throw new RuntimeException("Could not create protection domain.");
-        }
+            ProtectionDomain domain = codesourceDomain;
+            if (null == domain) {
+                domain = createDomain(codesource);
+                codesourceDomain = domain;
+            }
 
-        return defineClass(name, classBytes, 0, classBytes.length, domain);
+            return defineClass(name, classBytes, 0, classBytes.length, domain);
+        }
     }
 
 }
\ No newline at end of file
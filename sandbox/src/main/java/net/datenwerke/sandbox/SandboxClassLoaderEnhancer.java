@@ -80,4 +80,32 @@ public interface SandboxClassLoaderEnhancer {
      */
     boolean isLoadClassWithApplicationLoader(String name);
 
+    /**
+     * Allows the enhancer to vouch for access to a class that the loader would otherwise
+     * check using {@link SandboxSecurityManager#checkClassAccess(String)}.
+     * <p>
+     * Defaults to false.
+     *
+     * @param sandboxLoader
+     * @param name
+     * @return true if access to the class is known to be granted for the current thread
+     */
+    default boolean isClassAccessVerified(SandboxClassLoader sandboxLoader, String name) {
+        return false;
+    }
+
+    /**
+     * Returns an identity for the transformation performed by {@link #enhance(SandboxClassLoader, String, byte[])}
+     * if its result only depends on the class name and bytes. Loaders whose enhancers share the same
+     * identity (according to equals) share enhanced classes instead of enhancing them again.
+     * Identities should be small values, such as a name and version, since they are kept by a process wide cache.
+     * <p>
+     * Defaults to null, i.e., every class is enhanced by every loader.
+     *
+     * @return
+     */
+    default Object getEnhancementIdentity() {
+        return null;
+    }
+
 }
@@ -0,0 +1,236 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps {@link SandboxClassLoader}s of finished sandboxed calls so that following calls
+ * with the same {@link SandboxContext} can run on classes that are already loaded and compiled.
+ * <p>
+ * Loaders are pooled per context instance and only for frozen contexts (see {@link SandboxContext#freeze()}),
+ * as the configuration of a loader cannot follow changes to its context. A loader is used by one
+ * call at a time. Note that sandboxed code sees static state left behind by earlier calls on the same loader.
+ * <p>
+ * The pool is disabled by default, see {@link SandboxService#setClassLoaderPool(SandboxClassLoaderPool)}.
+ */
+public class SandboxClassLoaderPool {
+
+    private final int maxIdlePerContext;
+    private final long maxIdleMillis;
+    private final int maxUses;
+    private final boolean retireKilled;
+
+    private final Map<SandboxContext, Deque<PooledLoader>> idle = new IdentityHashMap<>();
+    private final Map<SandboxClassLoader, PooledLoader> leased = new IdentityHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong retired = new AtomicLong();
+
+    /**
+     * Pools up to four idle loaders per context for five minutes, loaders are
+     * reused any number of times but retired once a call was killed.
+     */
+    public SandboxClassLoaderPool() {
+        this(4, 5, TimeUnit.MINUTES, 0, true);
+    }
+
+    /**
+     * @param maxIdlePerContext the number of idle loaders kept per context
+     * @param maxIdle           the time after which an idle loader is discarded
+     * @param unit              the unit of maxIdle
+     * @param maxUses           the number of calls after which a loader is retired, 0 for no limit
+     * @param retireKilled      whether to retire loaders on which a call was killed
+     */
+    public SandboxClassLoaderPool(int maxIdlePerContext, long maxIdle, TimeUnit unit, int maxUses, boolean retireKilled) {
+        this.maxIdlePerContext = maxIdlePerContext;
+        this.maxIdleMillis = unit.toMillis(maxIdle);
+        this.maxUses = maxUses;
+        this.retireKilled = retireKilled;
+    }
+
+    /**
+     * Returns true if loaders for the given context can be pooled.
+     *
+     * @param context
+     * @return
+     */
+    public boolean isPoolable(SandboxContext context) {
+        return null != context && context.isFrozen() && maxIdlePerContext > 0;
+    }
+
+    /**
+     * Hands out an idle loader for the context or creates a new one using the given service.
+     * Loaders have to be returned using {@link #release(SandboxContext, SandboxClassLoader, boolean)}.
+     *
+     * @param context
+     * @param service
+     * @return
+     */
+    public SandboxClassLoader acquire(SandboxContext context, SandboxService service) {
+        PooledLoader pooled = null;
+
+        synchronized (this) {
+            evictIdle(System.currentTimeMillis());
+
+            Deque<PooledLoader> loaders = idle.get(context);
+            if (null != loaders) {
+                pooled = loaders.pollFirst();
+                if (loaders.isEmpty()) {
+                    idle.remove(context);
+                }
+            }
+            if (null != pooled) {
+                leased.put(pooled.loader, pooled);
+            }
+        }
+
+        if (null != pooled) {
+            hits.incrementAndGet();
+            return pooled.loader;
+        }
+
+        misses.incrementAndGet();
+        SandboxClassLoader loader = service.initClassLoader(context);
+        synchronized (this) {
+            leased.put(loader, new PooledLoader(loader));
+        }
+        return loader;
+    }
+
+    /**
+     * Returns a loader to the pool.
+     *
+     * @param context the context the loader was acquired for
+     * @param loader
+     * @param killed  true if the call on this loader was killed
+     */
+    public synchronized void release(SandboxContext context, SandboxClassLoader loader, boolean killed) {
+        PooledLoader pooled = leased.remove(loader);
+        if (null == pooled) {
+            return;
+        }
+
+        pooled.uses++;
+        pooled.lastUsed = System.currentTimeMillis();
+        evictIdle(pooled.lastUsed);
+
+        if ((killed && retireKilled) || (maxUses > 0 && pooled.uses >= maxUses)) {
+            retired.incrementAndGet();
+            return;
+        }
+
+        Deque<PooledLoader> loaders = idle.get(context);
+        if (null == loaders) {
+            loaders = new ArrayDeque<>();
+            idle.put(context, loaders);
+        }
+        if (loaders.size() >= maxIdlePerContext) {
+            return;
+        }
+
+        /* most recently used first, so that rarely needed loaders become idle for long */
+        loaders.addFirst(pooled);
+    }
+
+    /**
+     * Discards all idle loaders.
+     */
+    public synchronized void clear() {
+        idle.clear();
+    }
+
+    /**
+     * Discards the idle loaders of the given context.
+     *
+     * @param context
+     */
+    public synchronized void clear(SandboxContext context) {
+        idle.remove(context);
+    }
+
+    private void evictIdle(long now) {
+        if (maxIdleMillis <= 0) {
+            return;
+        }
+
+        Iterator<Deque<PooledLoader>> it = idle.values().iterator();
+        while (it.hasNext()) {
+            Deque<PooledLoader> loaders = it.next();
+            while (!loaders.isEmpty() && now - loaders.peekLast().lastUsed > maxIdleMillis) {
+                loaders.pollLast();
+            }
+            if (loaders.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (Deque<PooledLoader> loaders : idle.values()) {
+            count += loaders.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of calls that ran on a pooled loader
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of calls for which a new loader was created
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of loaders retired after too many uses or a killed call
+     */
+    public long getRetired() {
+        return retired.get();
+    }
+
+    private static final class PooledLoader {
+
+        private final SandboxClassLoader loader;
+        private int uses;
+        private long lastUsed;
+
+        PooledLoader(SandboxClassLoader loader) {
+            this.loader = loader;
+        }
+    }
+}
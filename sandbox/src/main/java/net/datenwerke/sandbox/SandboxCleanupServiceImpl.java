@@ -54,7 +54,7 @@ public class SandboxCleanupServiceImpl implements SandboxCleanupService {
         BadKillInfo killInfo = null;
 
         SandboxedThread monitoredThread = monitor.getMonitoredThread();
-        if (monitoredThread.isAlive()) {
+        if (monitor.isAlive()) {
             monitoredThread.suspend();
 
             boolean safe;
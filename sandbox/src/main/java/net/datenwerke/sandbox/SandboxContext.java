@@ -23,13 +23,17 @@
 
 package net.datenwerke.sandbox;
 
+import java.io.File;
 import java.io.Serializable;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.AllPermission;
 import java.security.Permission;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
@@ -45,7 +49,7 @@ import net.datenwerke.sandbox.permissions.FilePrefixPermission;
 import net.datenwerke.sandbox.permissions.PackagePermission;
 import net.datenwerke.sandbox.permissions.SecurityPermission;
 import net.datenwerke.sandbox.permissions.StackEntry;
-import sun.security.util.SecurityConstants;
+import net.datenwerke.sandbox.util.PrefixTrie;
 
 /**
  * Object that describes the configuration of a sandbox. This includes
@@ -83,6 +87,16 @@ public class SandboxContext implements Serializable {
      */
     public enum Mode {NORMAL, PREFIX}
 
+    /**
+     * @see SandboxContext#setPreloadMode(PreloadMode)
+     */
+    public enum PreloadMode {NONE, RECORD, REPLAY}
+
+    /**
+     * @see SandboxContext#setAdmissionPolicy(AdmissionPolicy)
+     */
+    public enum AdmissionPolicy {FAIL_FAST, WAIT, CALLER_RUNS}
+
     private String name = "";
 
     private boolean debug = false;
@@ -97,6 +111,14 @@ public class SandboxContext implements Serializable {
     private TimeUnit maximumRunTimeUnit = TimeUnit.MILLISECONDS;
     private RuntimeMode maximumRuntimeMode = RuntimeMode.ABSOLUTE_TIME;
 
+    /**
+     * admission
+     **/
+    private int maximumConcurrentExecutions = -1;
+    private int maximumQueuedExecutions = -1;
+    private long admissionTimeout = -1;
+    private TimeUnit admissionTimeoutUnit = TimeUnit.MILLISECONDS;
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.WAIT;
 
     /**
      * sandbox loader
@@ -118,6 +140,15 @@ public class SandboxContext implements Serializable {
 
     private boolean removeFinalizers = true;
 
+    private boolean shareWhitelistedJars = false;
+
+    private boolean sharePackageProtectionDomains = false;
+
+    private File classArchive;
+
+    private File preloadManifestDirectory;
+    private PreloadMode preloadMode = PreloadMode.NONE;
+
     /**
      * permissions
      */
@@ -152,6 +183,21 @@ public class SandboxContext implements Serializable {
     private boolean bypassPermissionAccessChecks = false;
     private boolean bypassPackageAccessChecks = true;
 
+    private boolean generatedPermissionChecks = false;
+
+    private boolean frozen = false;
+
+    /**
+     * compiled rules, rebuilt after modifications
+     */
+    private transient volatile boolean compiled;
+    private transient volatile SandboxPolicy policy;
+
+    /**
+     * bulkhead of an unnamed context, these are limited per instance
+     */
+    private transient volatile SandboxBulkhead bulkhead;
+
     /**
      * Initializes a new context.
      */
@@ -181,6 +227,7 @@ public class SandboxContext implements Serializable {
      * @param url URL pointing to a jar.
      */
     public void addJarToWhitelist(URL url) {
+        checkNotFrozen();
         whitelistedJars.add(url);
     }
 
@@ -210,6 +257,7 @@ public class SandboxContext implements Serializable {
      * @see SandboxSecurityManager#checkPackageAccess(String)
      */
     public void addPackagePermission(AccessType type, Mode mode, String pkg) {
+        checkNotFrozen();
         switch (type) {
             case PERMIT:
                 if (mode == Mode.PREFIX || pkg.endsWith(".")) {
@@ -226,6 +274,7 @@ public class SandboxContext implements Serializable {
                 }
                 break;
         }
+        invalidateCompiledRules();
     }
 
     /**
@@ -234,8 +283,10 @@ public class SandboxContext implements Serializable {
      * @see SandboxSecurityManager#checkPackageAccess(String)
      */
     public void addPackagePermission(PackagePermission wpkg) {
+        checkNotFrozen();
         setBypassPackageAccessChecks(false);
         complexPackageWhitelist.add(wpkg);
+        invalidateCompiledRules();
     }
 
     /**
@@ -267,6 +318,7 @@ public class SandboxContext implements Serializable {
      * @see SandboxSecurityManager#checkClassAccess(String)
      */
     public void addClassPermission(AccessType type, Mode mode, String clazz) {
+        checkNotFrozen();
         switch (type) {
             case PERMIT:
                 if (mode == Mode.PREFIX || clazz.endsWith("."))
@@ -281,6 +333,7 @@ public class SandboxContext implements Serializable {
                     classBlacklist.add(clazz);
                 break;
         }
+        invalidateCompiledRules();
     }
 
     /**
@@ -289,7 +342,9 @@ public class SandboxContext implements Serializable {
      * @see SandboxSecurityManager#checkClassAccess(String)
      */
     public void addClassPermission(ClassPermission wclass) {
+        checkNotFrozen();
         complexClassWhitelist.add(wclass);
+        invalidateCompiledRules();
     }
 
     /**
@@ -309,6 +364,7 @@ public class SandboxContext implements Serializable {
      * @see SandboxClassLoader#getSubloaderByName(String)
      */
     public void addSubloaderContext(URL url, SandboxContext context) {
+        checkNotFrozen();
         subLoaderContextByJar.put(url, context);
     }
 
@@ -320,6 +376,7 @@ public class SandboxContext implements Serializable {
      * @see SandboxClassLoader#getSubloaderByName(String)
      */
     public void addSubloaderContext(String clazz, Mode mode, SandboxContext context) {
+        checkNotFrozen();
         if (mode == Mode.PREFIX || clazz.endsWith("."))
             subLoaderContextByClassPrefix.put(clazz, context);
         else
@@ -351,6 +408,7 @@ public class SandboxContext implements Serializable {
      * @param loaderEnhancer
      */
     public void setLoaderEnhancer(SandboxClassLoaderEnhancer loaderEnhancer) {
+        checkNotFrozen();
         this.loaderEnhancer = loaderEnhancer;
     }
 
@@ -381,6 +439,7 @@ public class SandboxContext implements Serializable {
      * @param mode
      */
     public void addClassForApplicationLoader(String clazz, Mode mode) {
+        checkNotFrozen();
         if (mode == Mode.PREFIX || clazz.endsWith("."))
             classPrefixesForApplicationLoader.add(clazz);
         else
@@ -391,6 +450,7 @@ public class SandboxContext implements Serializable {
      * @param url
      */
     public void addJarForApplicationLoader(URL url) {
+        checkNotFrozen();
         jarsForApplicationLoader.add(url);
     }
 
@@ -435,6 +495,7 @@ public class SandboxContext implements Serializable {
      * @param mode
      */
     public void addClassForSandboxLoader(String clazz, Mode mode) {
+        checkNotFrozen();
         if (mode == Mode.PREFIX || clazz.endsWith("."))
             classPrefixesForSandboxLoader.add(clazz);
         else
@@ -471,7 +532,9 @@ public class SandboxContext implements Serializable {
      * @param debug
      */
     public void setDebug(boolean debug) {
+        checkNotFrozen();
         this.debug = debug;
+        invalidateCompiledRules();
     }
 
     /**
@@ -490,6 +553,7 @@ public class SandboxContext implements Serializable {
      * @param runRemote
      */
     public void setRunRemote(boolean runRemote) {
+        checkNotFrozen();
         this.runRemote = runRemote;
     }
 
@@ -509,6 +573,7 @@ public class SandboxContext implements Serializable {
      * @param runInThread
      */
     public void setRunInThread(boolean runInThread) {
+        checkNotFrozen();
         this.runInThread = runInThread;
     }
 
@@ -538,6 +603,7 @@ public class SandboxContext implements Serializable {
      * @see SandboxService#setMonitorDaemonCheckInterval(long)
      */
     public void setMaximumStackDepth(int maximumStackDepth) {
+        checkNotFrozen();
         this.maximumStackDepth = maximumStackDepth;
     }
 
@@ -561,6 +627,7 @@ public class SandboxContext implements Serializable {
      * @see #setMaximumRunTimeUnit(TimeUnit)
      */
     public void setMaximumRunTime(long maximumRunTime) {
+        checkNotFrozen();
         this.maximumRunTime = maximumRunTime;
     }
 
@@ -574,6 +641,7 @@ public class SandboxContext implements Serializable {
      * @see #setMaximumRunTimeUnit(TimeUnit)
      */
     public void setMaximumRunTime(long maximumRunTime, TimeUnit unit, RuntimeMode mode) {
+        checkNotFrozen();
         this.maximumRunTime = maximumRunTime;
         this.maximumRunTimeUnit = unit;
         this.maximumRuntimeMode = mode;
@@ -597,6 +665,7 @@ public class SandboxContext implements Serializable {
      * @see #setMaximumRunTime(long)
      */
     public void setMaximumRunTimeUnit(TimeUnit maximumRunTimeUnit) {
+        checkNotFrozen();
         this.maximumRunTimeUnit = maximumRunTimeUnit;
     }
 
@@ -621,9 +690,111 @@ public class SandboxContext implements Serializable {
      * @param maximumRuntimeMode
      */
     public void setMaximumRuntimeMode(RuntimeMode maximumRuntimeMode) {
+        checkNotFrozen();
         this.maximumRuntimeMode = maximumRuntimeMode;
     }
 
+    /**
+     * @return
+     * @see #setMaximumConcurrentExecutions(int)
+     */
+    public int getMaximumConcurrentExecutions() {
+        return maximumConcurrentExecutions;
+    }
+
+    /**
+     * Limits the number of sandboxed executions that run at the same time for contexts of this
+     * context's name, unnamed contexts are limited per instance. Executions beyond the limit are handled
+     * according to the {@link AdmissionPolicy}.
+     * Negative values, the default, do not limit executions.
+     *
+     * @param maximumConcurrentExecutions
+     * @see #setAdmissionPolicy(AdmissionPolicy)
+     * @see SandboxBulkhead
+     */
+    public void setMaximumConcurrentExecutions(int maximumConcurrentExecutions) {
+        checkNotFrozen();
+        this.maximumConcurrentExecutions = maximumConcurrentExecutions;
+    }
+
+    /**
+     * @return
+     * @see #setMaximumQueuedExecutions(int)
+     */
+    public int getMaximumQueuedExecutions() {
+        return maximumQueuedExecutions;
+    }
+
+    /**
+     * Limits the number of executions waiting for admission with {@link AdmissionPolicy#WAIT}. Executions
+     * beyond the limit are rejected right away. Negative values, the default, do not limit the queue.
+     *
+     * @param maximumQueuedExecutions
+     */
+    public void setMaximumQueuedExecutions(int maximumQueuedExecutions) {
+        checkNotFrozen();
+        this.maximumQueuedExecutions = maximumQueuedExecutions;
+    }
+
+    /**
+     * @return
+     * @see #setAdmissionTimeout(long, TimeUnit)
+     */
+    public long getAdmissionTimeout() {
+        return admissionTimeout;
+    }
+
+    /**
+     * @return
+     * @see #setAdmissionTimeout(long, TimeUnit)
+     */
+    public TimeUnit getAdmissionTimeoutUnit() {
+        return admissionTimeoutUnit;
+    }
+
+    /**
+     * Sets how long an execution waits for admission with {@link AdmissionPolicy#WAIT} before it is
+     * rejected. Negative values, the default, wait indefinitely.
+     *
+     * @param admissionTimeout
+     * @param unit
+     */
+    public void setAdmissionTimeout(long admissionTimeout, TimeUnit unit) {
+        checkNotFrozen();
+        this.admissionTimeout = admissionTimeout;
+        this.admissionTimeoutUnit = null == unit ? TimeUnit.MILLISECONDS : unit;
+    }
+
+    /**
+     * @return
+     * @see #setAdmissionPolicy(AdmissionPolicy)
+     */
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    /**
+     * Defines what happens to executions once the maximum number of concurrent executions is reached.
+     * {@link AdmissionPolicy#FAIL_FAST} rejects them, {@link AdmissionPolicy#WAIT} queues them until
+     * an execution finishes or the admission timeout passes. Queued asynchronous calls do not occupy
+     * a thread of the async executor.
+     * <p>
+     * With {@link AdmissionPolicy#CALLER_RUNS} executions beyond the limit are run by the calling thread
+     * right away: asynchronous calls are not handed to the executor but run before
+     * runSandboxedAsync returns. Synchronous calls are run by their caller anyway, for these the limit
+     * is not enforced at all. Executions beyond the limit are not counted as running, so they do not
+     * delay executions that are admitted within the limit, see {@link SandboxBulkhead#getCallerRuns()}.
+     * <p>
+     * Defaults to {@link AdmissionPolicy#WAIT}.
+     *
+     * @param admissionPolicy
+     * @see #setMaximumConcurrentExecutions(int)
+     */
+    public void setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+        checkNotFrozen();
+        this.admissionPolicy = null == admissionPolicy ? AdmissionPolicy.WAIT : admissionPolicy;
+    }
+
     /**
      * @return True if all access is permitted.
      * @see #setPassAll(boolean)
@@ -640,7 +811,9 @@ public class SandboxContext implements Serializable {
      * @param passAll true to allow any request
      */
     public void setPassAll(boolean passAll) {
+        checkNotFrozen();
         this.passAll = passAll;
+        invalidateCompiledRules();
     }
 
     /**
@@ -661,9 +834,37 @@ public class SandboxContext implements Serializable {
      * @param name
      */
     public void setName(String name) {
+        checkNotFrozen();
         this.name = name;
     }
 
+    /**
+     * @return true if no name is set
+     * @see #setName(String)
+     */
+    boolean isUnnamed() {
+        return null == name || name.isEmpty();
+    }
+
+    /**
+     * Returns the bulkhead limiting the executions of this context instance. Only used for unnamed
+     * contexts, named contexts share a bulkhead per name.
+     *
+     * @return
+     */
+    SandboxBulkhead getInstanceBulkhead() {
+        SandboxBulkhead bulkhead = this.bulkhead;
+        if (null == bulkhead) {
+            synchronized (this) {
+                if (null == this.bulkhead) {
+                    this.bulkhead = new SandboxBulkhead("unnamed@" + Integer.toHexString(System.identityHashCode(this)));
+                }
+                bulkhead = this.bulkhead;
+            }
+        }
+        return bulkhead;
+    }
+
     /**
      * @return The codesource used by {@link SandboxClassLoader} when loading classes in this context.
      * @see #setCodesource(String)
@@ -678,6 +879,7 @@ public class SandboxContext implements Serializable {
      * @param codesource
      */
     public void setCodesource(String codesource) {
+        checkNotFrozen();
         this.codesource = codesource;
     }
 
@@ -699,14 +901,148 @@ public class SandboxContext implements Serializable {
      * @param removeFinalizers
      */
     public void setRemoveFinalizers(boolean removeFinalizers) {
+        checkNotFrozen();
         this.removeFinalizers = removeFinalizers;
     }
 
+    /**
+     * @return
+     * @see #setClassArchive(File)
+     */
+    public File getClassArchive() {
+        return classArchive;
+    }
+
+    /**
+     * Sets a {@link ClassArchive} built from the whitelisted jars of this context. The {@link SandboxClassLoader}
+     * then reads whitelisted classes from the memory mapped archive instead of the jars. The archive is
+     * ignored if it was built from different jars or from jars that changed since, or with finalizers removed
+     * while this context keeps them.
+     *
+     * @param classArchive the archive file or null
+     * @see ClassArchive#build(Collection, File, boolean)
+     */
+    public void setClassArchive(File classArchive) {
+        checkNotFrozen();
+        this.classArchive = classArchive;
+    }
+
+    /**
+     * @return
+     * @see #setShareWhitelistedJars(boolean)
+     */
+    public boolean isShareWhitelistedJars() {
+        return shareWhitelistedJars;
+    }
+
+    /**
+     * Enable/Disable whether classes from whitelisted jars are defined once and shared between all
+     * {@link SandboxClassLoader}s using the same jars, rather than being defined by each loader. This
+     * saves time and memory for large libraries. Only jars registered with {@link SandboxService#registerStatelessLibrary(URL)}
+     * are shared, as sandboxed calls share the static state of these classes.
+     * Classes from the shared jars can only see other shared classes and the classes of the application loader.
+     * <p>
+     * Shared classes are enhanced by the context's {@link SandboxClassLoaderEnhancer}. Contexts with an enhancer
+     * that does not provide an {@link SandboxClassLoaderEnhancer#getEnhancementIdentity()} do not share classes.
+     * As the references of a class are resolved only once, classes are only shared between contexts with
+     * the same class and package access rules. Contexts whose class or package access depends on the
+     * stack do not share classes.
+     * <p>
+     * Defaults to false
+     *
+     * @param shareWhitelistedJars
+     */
+    public void setShareWhitelistedJars(boolean shareWhitelistedJars) {
+        checkNotFrozen();
+        this.shareWhitelistedJars = shareWhitelistedJars;
+    }
+
+    /**
+     * Returns a value that is equal for contexts with the same class and package access rules.
+     *
+     * @return
+     * @see #setShareWhitelistedJars(boolean)
+     */
+    synchronized Object getClassAccessRules() {
+        return Arrays.asList(passAll, bypassClassAccessChecks, bypassPackageAccessChecks,
+                new HashSet<>(classPrefixWhitelist), new HashSet<>(classWhitelist), new HashSet<>(complexClassWhitelist),
+                new HashSet<>(classPrefixBlacklist), new HashSet<>(classBlacklist),
+                new HashSet<>(packagePrefixWhitelist), new HashSet<>(packageWhitelist), new HashSet<>(complexPackageWhitelist),
+                new HashSet<>(packagePrefixBlacklist), new HashSet<>(packageBlacklist));
+    }
+
+    /**
+     * @return
+     * @see #setSharePackageProtectionDomains(boolean)
+     */
+    public boolean isSharePackageProtectionDomains() {
+        return sharePackageProtectionDomains;
+    }
+
+    /**
+     * Enable/Disable whether the {@link SandboxClassLoader} creates one {@link java.security.ProtectionDomain}
+     * per package rather than one per class. This saves creating a domain for every class. The codesource
+     * of a class is then its package path below the codesource of the loader, hence codesource grants
+     * naming the location of a single class no longer match.
+     * <p>
+     * Defaults to false
+     *
+     * @param sharePackageProtectionDomains
+     * @see #setCodesource(String)
+     */
+    public void setSharePackageProtectionDomains(boolean sharePackageProtectionDomains) {
+        checkNotFrozen();
+        this.sharePackageProtectionDomains = sharePackageProtectionDomains;
+    }
+
+    /**
+     * @return
+     * @see #setPreloadManifestDirectory(File)
+     */
+    public File getPreloadManifestDirectory() {
+        return preloadManifestDirectory;
+    }
+
+    /**
+     * Sets the directory holding the {@link PreloadManifest}s. There is one manifest per context name.
+     *
+     * @param preloadManifestDirectory
+     * @see #setPreloadMode(PreloadMode)
+     */
+    public void setPreloadManifestDirectory(File preloadManifestDirectory) {
+        checkNotFrozen();
+        this.preloadManifestDirectory = preloadManifestDirectory;
+    }
+
+    /**
+     * @return
+     * @see #setPreloadMode(PreloadMode)
+     */
+    public PreloadMode getPreloadMode() {
+        return preloadMode;
+    }
+
+    /**
+     * Defines how the {@link PreloadManifest} of this context is used. With {@link PreloadMode#RECORD} the
+     * classes loaded by sandboxed calls are added to the manifest. With {@link PreloadMode#REPLAY} the classes
+     * of the manifest are loaded in parallel into every new {@link SandboxClassLoader} before it is handed out.
+     * <p>
+     * Has no effect unless a manifest directory is set. Defaults to {@link PreloadMode#NONE}
+     *
+     * @param preloadMode
+     * @see #setPreloadManifestDirectory(File)
+     */
+    public void setPreloadMode(PreloadMode preloadMode) {
+        checkNotFrozen();
+        this.preloadMode = null == preloadMode ? PreloadMode.NONE : preloadMode;
+    }
+
     /**
      * @param type
      * @param perm
      */
     public void addSecurityPermission(AccessType type, SecurityPermission perm) {
+        checkNotFrozen();
         switch (type) {
             case PERMIT:
                 if (!permissionWhitelist.containsKey(perm.getType()))
@@ -720,6 +1056,7 @@ public class SandboxContext implements Serializable {
                 permissionBlacklist.get(perm.getType()).add(perm);
                 break;
         }
+        invalidateCompiledRules();
     }
 
     /**
@@ -728,6 +1065,7 @@ public class SandboxContext implements Serializable {
      * @param permission
      */
     public void addFilePermission(FileAccess fileAccess, AccessType type, FilePermission permission) {
+        checkNotFrozen();
         switch (fileAccess) {
             case READ:
                 if (AccessType.PERMIT == type)
@@ -748,6 +1086,7 @@ public class SandboxContext implements Serializable {
                     fileDeleteDenials.add(permission);
                 break;
         }
+        invalidateCompiledRules();
     }
 
     /**
@@ -769,36 +1108,19 @@ public class SandboxContext implements Serializable {
      * @return
      */
     public boolean checkClassAccess(String name, Class[] stack) {
-        if (passAll)
-            return true;
-
-        boolean found = false;
-        for (String wlClass : classPrefixWhitelist) {
-            if (name.startsWith(wlClass)) {
-                found = true;
-                break;
-            }
-        }
-        found |= classWhitelist.contains(name);
-
-        if (!found) {
-            for (ClassPermission wclass : complexClassWhitelist) {
-                if (name.startsWith(wclass.getName()) && checkEntriesAgainstStack(wclass.getEntries(), stack)) {
-                    found = true;
-                    break;
-                }
-            }
-        }
-
-        if (found) {
-            for (String blClass : classPrefixBlacklist)
-                if (name.startsWith(blClass))
-                    return false;
-            if (classBlacklist.contains(name))
-                return false;
-        }
+        return checkClassAccess(name, LazyClassContext.of(stack));
+    }
 
-        return found;
+    /**
+     * Returns true if class access is permitted with this configuration.
+     * The stack is only captured if a stack dependent rule matches the class.
+     *
+     * @param name
+     * @param stack
+     * @return
+     */
+    public boolean checkClassAccess(String name, LazyClassContext stack) {
+        return compile().checkClassAccess(name, stack);
     }
 
     /**
@@ -827,151 +1149,258 @@ public class SandboxContext implements Serializable {
      * @see #bypassClassAccessChecks
      */
     public boolean checkPackageAccess(String name, Class[] stack) {
-        if (passAll)
-            return true;
-
-        boolean found = false;
-        for (String wlPkg : packagePrefixWhitelist) {
-            if (name.startsWith(wlPkg)) {
-                found = true;
-                break;
-            }
-        }
-        found |= packageWhitelist.contains(name);
-
-        if (!found) {
-            for (PackagePermission wpkg : complexPackageWhitelist) {
-                if (name.startsWith(wpkg.getName()) && checkEntriesAgainstStack(wpkg.getEntries(), stack)) {
-                    found = true;
-                    break;
-                }
-            }
-        }
+        return checkPackageAccess(name, LazyClassContext.of(stack));
+    }
 
-        if (found) {
-            for (String blPkg : packagePrefixBlacklist)
-                if (name.startsWith(blPkg))
-                    return false;
-            if (packageBlacklist.contains(name))
-                return false;
-        }
+    /**
+     * Returns true if pacakge access is permitted with this configuration.
+     * The stack is only captured if a stack dependent rule matches the package.
+     *
+     * @param name
+     * @param stack
+     * @return
+     * @see #checkPackageAccess(String, Class[])
+     */
+    public boolean checkPackageAccess(String name, LazyClassContext stack) {
+        return compile().checkPackageAccess(name, stack);
+    }
 
-        return found;
+    /**
+     * Returns the memoized decision for the given permission or null if no decision
+     * is known. Only decisions that do not depend on the execution stack are memoized.
+     *
+     * @param perm
+     * @return
+     * @see #checkPermission(Permission, Class[])
+     * @see #getPermissionCacheHits()
+     */
+    public Boolean getCachedPermissionDecision(Permission perm) {
+        return compile().getCachedPermissionDecision(perm);
     }
 
     /**
      * Returns true if the permission is granted by this configuration.
+     * <p>
+     * Decisions that do not depend on the execution stack are memoized.
      *
      * @param perm
      * @param stack
      * @return
+     * @see #getCachedPermissionDecision(Permission)
      */
     public boolean checkPermission(Permission perm, Class[] stack) {
-        /* check blacklist */
-        Collection<SecurityPermission> blacklistedPermissions = permissionBlacklist.get(perm.getClass().getName());
-        if (null != blacklistedPermissions) {
-            for (SecurityPermission blacklistedPermission : blacklistedPermissions) {
-                if (permissionMatches(blacklistedPermission, perm, stack)) {
-                    return false;
-                }
-            }
+        return checkPermission(perm, LazyClassContext.of(stack));
+    }
+
+    /**
+     * Returns true if the permission is granted by this configuration.
+     * The stack is only captured if a rule with {@link StackEntry}s needs to be evaluated.
+     *
+     * @param perm
+     * @param stack
+     * @return
+     * @see #checkPermission(Permission, Class[])
+     */
+    public boolean checkPermission(Permission perm, LazyClassContext stack) {
+        return compile().checkPermission(perm, stack);
+    }
+
+    /**
+     * Returns the number of permission checks answered from the decision cache.
+     *
+     * @return
+     * @see #getCachedPermissionDecision(Permission)
+     */
+    public long getPermissionCacheHits() {
+        return compile().getPermissionCacheHits();
+    }
+
+    /**
+     * Returns the number of cacheable permission checks that were not answered from the decision cache.
+     *
+     * @return
+     * @see #getCachedPermissionDecision(Permission)
+     */
+    public long getPermissionCacheMisses() {
+        return compile().getPermissionCacheMisses();
+    }
+
+    /**
+     * Compiles the class, package, file and permission rules of this context into an
+     * immutable {@link SandboxPolicy} (prefix tries, hash indexes and a permission decision cache).
+     * <p>
+     * The policy is cached until the context is modified. Policies that were handed out
+     * earlier are not affected by modifications.
+     *
+     * @return the compiled policy
+     * @see #freeze()
+     */
+    public SandboxPolicy compile() {
+        /* policy is published before the flag */
+        if (compiled) {
+            return policy;
         }
 
-        /* specialized checks */
-        if (java.io.FilePermission.class.equals(perm.getClass())) {
-            if (SecurityConstants.FILE_READ_ACTION.equals(perm.getActions()) && null != perm.getName()) {
-                return checkFileReadAction(perm.getName());
-            } else if (SecurityConstants.FILE_WRITE_ACTION.equals(perm.getActions()) && null != perm.getName()) {
-                return checkFileWriteAction(perm.getName());
-            } else if (SecurityConstants.FILE_DELETE_ACTION.equals(perm.getActions()) && null != perm.getName()) {
-                return checkFileDeleteAction(perm.getName());
+        synchronized (this) {
+            if (compiled) {
+                return policy;
             }
+
+            PrefixTrie.Builder<StackRule> complexClasses = new PrefixTrie.Builder<>();
+            for (ClassPermission wclass : complexClassWhitelist)
+                complexClasses.add(wclass.getName(), StackRule.of(wclass.getEntries()));
+            AccessRuleIndex classAccess = new AccessRuleIndex(classPrefixWhitelist, classWhitelist, complexClasses.build(),
+                    classPrefixBlacklist, classBlacklist);
+
+            PrefixTrie.Builder<StackRule> complexPackages = new PrefixTrie.Builder<>();
+            for (PackagePermission wpkg : complexPackageWhitelist)
+                complexPackages.add(wpkg.getName(), StackRule.of(wpkg.getEntries()));
+            AccessRuleIndex packageAccess = new AccessRuleIndex(packagePrefixWhitelist, packageWhitelist, complexPackages.build(),
+                    packagePrefixBlacklist, packageBlacklist);
+
+            Map<FileAccess, FileRuleIndex> fileAccess = new EnumMap<>(FileAccess.class);
+            fileAccess.put(FileAccess.READ, new FileRuleIndex(fileReadPermissions, fileReadDenials));
+            fileAccess.put(FileAccess.WRITE, new FileRuleIndex(fileWritePermissions, fileWriteDenials));
+            fileAccess.put(FileAccess.DELETE, new FileRuleIndex(fileDeletePermissions, fileDeleteDenials));
+
+            policy = new SandboxPolicy(this, debug, passAll,
+                    bypassClassAccessChecks, bypassPermissionAccessChecks, bypassPackageAccessChecks,
+                    permissionWhitelist, permissionBlacklist, classAccess, packageAccess, fileAccess,
+                    frozen && generatedPermissionChecks, policy);
+            compiled = true;
+
+            return policy;
         }
+    }
 
-        /* general checks */
-        Collection<SecurityPermission> whitelistedPermissions = permissionWhitelist.get(perm.getClass().getName());
-        if (null != whitelistedPermissions) {
-            for (SecurityPermission whitelistedPermission : whitelistedPermissions) {
-                if (permissionMatches(whitelistedPermission, perm, stack))
-                    return true;
+    /**
+     * Freezes this context. Any further attempt to modify a frozen context results in an
+     * {@link IllegalStateException} and the collections returned by its getters become
+     * unmodifiable. Subloader contexts are frozen as well.
+     * <p>
+     * Frozen contexts can safely be shared between threads. Use {@link #clone()} to obtain
+     * a modifiable copy.
+     *
+     * @return the compiled policy
+     * @see SandboxService#registerContext(String, SandboxContext)
+     */
+    public SandboxPolicy freeze() {
+        synchronized (this) {
+            if (!frozen) {
+                frozen = true;
+
+                jarsForApplicationLoader = Collections.unmodifiableCollection(jarsForApplicationLoader);
+                classPrefixesForApplicationLoader = Collections.unmodifiableCollection(classPrefixesForApplicationLoader);
+                classesForApplicationLoader = Collections.unmodifiableCollection(classesForApplicationLoader);
+                classPrefixesForSandboxLoader = Collections.unmodifiableCollection(classPrefixesForSandboxLoader);
+                classesForSandboxLoader = Collections.unmodifiableCollection(classesForSandboxLoader);
+                whitelistedJars = Collections.unmodifiableCollection(whitelistedJars);
+
+                subLoaderContextByJar = Collections.unmodifiableMap(subLoaderContextByJar);
+                subLoaderContextByClass = Collections.unmodifiableMap(subLoaderContextByClass);
+                subLoaderContextByClassPrefix = Collections.unmodifiableMap(subLoaderContextByClassPrefix);
+
+                for (SandboxContext subcontext : subLoaderContextByJar.values())
+                    subcontext.freeze();
+                for (SandboxContext subcontext : subLoaderContextByClass.values())
+                    subcontext.freeze();
+                for (SandboxContext subcontext : subLoaderContextByClassPrefix.values())
+                    subcontext.freeze();
+
+                /* the policy of a frozen context may contain generated code */
+                invalidateCompiledRules();
             }
         }
 
-        return false;
+        return compile();
     }
 
-    protected boolean permissionMatches(SecurityPermission permission,
-                                        Permission toBeMatched, Class[] stack) {
-        if (null != permission.getName() && null == toBeMatched.getName())
-            return false;
-        if (null != permission.getName() && !permission.getName().equals(toBeMatched.getName()))
-            return false;
-        if (null != permission.getActions() && !permission.getActions().equals(toBeMatched.getActions()))
-            return false;
-        Collection<StackEntry> entries = permission.getEntries();
-        if (null != entries && !checkEntriesAgainstStack(entries, stack))
-            return false;
-
-        return true;
+    /**
+     * @return true if this context can no longer be modified
+     * @see #freeze()
+     */
+    public boolean isFrozen() {
+        return frozen;
     }
 
-    protected boolean checkFileReadAction(String name) {
-        return checkFileAction(name, fileReadPermissions, fileReadDenials);
+    /**
+     * @throws IllegalStateException if the context is frozen
+     */
+    protected void checkNotFrozen() {
+        if (frozen)
+            throw new IllegalStateException("The context " + name + " is frozen and cannot be modified.");
     }
 
-    protected boolean checkFileWriteAction(String name) {
-        return checkFileAction(name, fileWritePermissions, fileWriteDenials);
+    /**
+     * Discards the compiled rules. Is called whenever the rules of this context change.
+     * Holds the lock of {@link #compile()}, so that a compilation that raced with the
+     * modification is discarded rather than published as current.
+     *
+     * @see #compile()
+     */
+    protected void invalidateCompiledRules() {
+        synchronized (this) {
+            compiled = false;
+        }
     }
 
-    protected boolean checkFileDeleteAction(String name) {
-        return checkFileAction(name, fileDeletePermissions, fileDeleteDenials);
+    /**
+     * @deprecated see {@link #checkFileAction(String, FileAccess)}
+     */
+    @Deprecated
+    protected final boolean permissionMatches(SecurityPermission permission,
+                                              Permission toBeMatched, Class[] stack) {
+        return permissionMatches(permission, toBeMatched, LazyClassContext.of(stack));
     }
 
-    protected boolean checkFileAction(String name, Collection<FilePermission> permissions, Collection<FilePermission> prohibition) {
-        if (passAll) {
-            return true;
-        }
+    /**
+     * @deprecated see {@link #checkFileAction(String, FileAccess)}
+     */
+    @Deprecated
+    protected final boolean permissionMatches(SecurityPermission permission,
+                                              Permission toBeMatched, LazyClassContext stack) {
+        return SandboxPolicy.permissionMatches(permission, toBeMatched, stack);
+    }
 
-        for (FilePermission perm : prohibition) {
-            if (perm.testPermission(name)) {
-                return false;
-            }
-        }
+    /**
+     * @deprecated see {@link #checkFileAction(String, FileAccess)}
+     */
+    @Deprecated
+    protected final boolean checkFileReadAction(String name) {
+        return checkFileAction(name, FileAccess.READ);
+    }
 
-        for (FilePermission perm : permissions) {
-            if (perm.testPermission(name)) {
-                return true;
-            }
-        }
+    /**
+     * @deprecated see {@link #checkFileAction(String, FileAccess)}
+     */
+    @Deprecated
+    protected final boolean checkFileWriteAction(String name) {
+        return checkFileAction(name, FileAccess.WRITE);
+    }
 
-        return false;
+    /**
+     * @deprecated see {@link #checkFileAction(String, FileAccess)}
+     */
+    @Deprecated
+    protected final boolean checkFileDeleteAction(String name) {
+        return checkFileAction(name, FileAccess.DELETE);
     }
 
-    protected boolean checkEntriesAgainstStack(Collection<StackEntry> entries, Class[] stack) {
-        for (StackEntry entry : entries) {
-            int pos = entry.getPos();
-            if (pos >= 0) {
-                if (stack.length <= pos) {
-                    return false;
-                }
-                if ((entry.isPrefix() && !stack[pos].getName().startsWith(entry.getType())) || (!entry.isPrefix() && !entry.getType().equals(stack[pos].getName()))) {
-                    return false;
-                }
-            } else {
-                boolean found = false;
-                String name = entry.getType();
-                for (Class c : stack) {
-                    if ((entry.isPrefix() && c.getName().startsWith(name)) || (!entry.isPrefix() && c.getName().equals(name))) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found)
-                    return false;
-            }
-        }
+    /**
+     * @deprecated access decisions are made by the compiled {@link SandboxPolicy}, which does
+     * not call this method. It is final so that overriding it fails to compile rather than being ignored.
+     */
+    @Deprecated
+    protected final boolean checkFileAction(String name, FileAccess access) {
+        return compile().checkFileAction(name, access);
+    }
 
-        return true;
+    /**
+     * @deprecated see {@link #checkFileAction(String, FileAccess)}
+     */
+    @Deprecated
+    protected final boolean checkEntriesAgainstStack(Collection<StackEntry> entries, Class[] stack) {
+        return SandboxPolicy.checkEntriesAgainstStack(entries, stack);
     }
 
     protected void debug(Level level, String msg) {
@@ -1133,7 +1562,9 @@ public class SandboxContext implements Serializable {
      * @param bypassPermissionAccess
      */
     public void setBypassPermissionAccessChecks(boolean bypassPermissionAccess) {
+        checkNotFrozen();
         this.bypassPermissionAccessChecks = bypassPermissionAccess;
+        invalidateCompiledRules();
     }
 
     /**
@@ -1153,7 +1584,37 @@ public class SandboxContext implements Serializable {
      * @param bypassPackageAccess
      */
     public void setBypassPackageAccessChecks(boolean bypassPackageAccess) {
+        checkNotFrozen();
         this.bypassPackageAccessChecks = bypassPackageAccess;
+        invalidateCompiledRules();
+    }
+
+    /**
+     * Returns true if permission checks are to be answered by generated code.
+     *
+     * @return
+     * @see #setGeneratedPermissionChecks(boolean)
+     */
+    public boolean isGeneratedPermissionChecks() {
+        return generatedPermissionChecks;
+    }
+
+    /**
+     * Enables/Disables the generation of a {@link PermissionChecker} for this context.
+     * The generated class turns stack independent {@link SecurityPermission} rules into
+     * straight-line code. As generating a class is costly it only happens once the context
+     * is frozen, that is, when the context is registered with the {@link SandboxService}.
+     * The checker only answers permissions that are not in the decision cache yet.
+     * <p>
+     * Defaults to false.
+     *
+     * @param generatedPermissionChecks
+     * @see #freeze()
+     */
+    public void setGeneratedPermissionChecks(boolean generatedPermissionChecks) {
+        checkNotFrozen();
+        this.generatedPermissionChecks = generatedPermissionChecks;
+        invalidateCompiledRules();
     }
 
     /**
@@ -1173,7 +1634,9 @@ public class SandboxContext implements Serializable {
      * @param bypassClassAccess
      */
     public void setBypassClassAccessChecks(boolean bypassClassAccess) {
+        checkNotFrozen();
         this.bypassClassAccessChecks = bypassClassAccess;
+        invalidateCompiledRules();
     }
 
     protected void mergeClassRestrictions(SandboxContext set) {
@@ -1184,6 +1647,8 @@ public class SandboxContext implements Serializable {
 
         for (ClassPermission wp : set.complexClassWhitelist)
             this.complexClassWhitelist.add(wp.clone());
+
+        invalidateCompiledRules();
     }
 
     protected void mergePackageRestrictions(SandboxContext set) {
@@ -1194,6 +1659,8 @@ public class SandboxContext implements Serializable {
 
         for (PackagePermission wp : set.complexPackageWhitelist)
             this.complexPackageWhitelist.add(wp.clone());
+
+        invalidateCompiledRules();
     }
 
     protected void mergePermissions(SandboxContext restrictSet) {
@@ -1212,6 +1679,8 @@ public class SandboxContext implements Serializable {
             for (SecurityPermission perm : restrictSet.permissionBlacklist.get(key))
                 permissionBlacklist.get(key).add(perm.clone());
         }
+
+        invalidateCompiledRules();
     }
 
     protected void mergeFilePermissions(SandboxContext restrictSet) {
@@ -1232,6 +1701,8 @@ public class SandboxContext implements Serializable {
 
         for (FilePermission perm : restrictSet.fileDeleteDenials)
             fileDeleteDenials.add(perm.clone());
+
+        invalidateCompiledRules();
     }
 
     /**
@@ -1285,6 +1756,7 @@ public class SandboxContext implements Serializable {
     }
 
     public void merge(SandboxContext context) {
+        checkNotFrozen();
         mergeClassRestrictions(context);
         mergePackageRestrictions(context);
         mergeFilePermissions(context);
@@ -1303,8 +1775,14 @@ public class SandboxContext implements Serializable {
         bypassClassAccessChecks = context.bypassClassAccessChecks;
         bypassPackageAccessChecks = context.bypassPackageAccessChecks;
         bypassPermissionAccessChecks = context.bypassPermissionAccessChecks;
+        generatedPermissionChecks = context.generatedPermissionChecks;
 
         removeFinalizers = context.removeFinalizers;
+        shareWhitelistedJars = context.shareWhitelistedJars;
+        sharePackageProtectionDomains = context.sharePackageProtectionDomains;
+        classArchive = context.classArchive;
+        preloadManifestDirectory = context.preloadManifestDirectory;
+        preloadMode = context.preloadMode;
         loaderEnhancer = context.loaderEnhancer;
 
         runRemote = context.runRemote;
@@ -1313,13 +1791,22 @@ public class SandboxContext implements Serializable {
         maximumRunTimeUnit = context.maximumRunTimeUnit;
         maximumRuntimeMode = context.maximumRuntimeMode;
         maximumStackDepth = context.maximumStackDepth;
+
+        maximumConcurrentExecutions = context.maximumConcurrentExecutions;
+        maximumQueuedExecutions = context.maximumQueuedExecutions;
+        admissionTimeout = context.admissionTimeout;
+        admissionTimeoutUnit = context.admissionTimeoutUnit;
+        admissionPolicy = context.admissionPolicy;
+
+        invalidateCompiledRules();
     }
 
     @Override
     public SandboxContext clone() {
-        SandboxContext clone = new SandboxContext();
+        SandboxContext clone = new SandboxContext(false);
 
         clone.merge(this);
+        clone.mergeSubloaders(this);
 
         return clone;
     }
@@ -0,0 +1,375 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.Permissions;
+import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import sun.misc.Resource;
+import sun.misc.URLClassPath;
+
+/**
+ * Defines the classes of stateless libraries once for all {@link SandboxClassLoader}s that
+ * share the same set of jars (see {@link SandboxContext#setShareWhitelistedJars(boolean)}).
+ * Only jars registered with {@link #registerStatelessLibrary(URL)} are shared, classes of other
+ * whitelisted jars are defined by every sandbox loader.
+ * <p>
+ * Classes are enhanced like the classes of the sandbox loaders, which is why loaders are only shared
+ * by sandbox loaders whose enhancers have the same {@link SandboxClassLoaderEnhancer#getEnhancementIdentity()}.
+ * The JVM resolves the references of a library class only once, under the restriction of the thread that
+ * first resolves them, so loaders are also only shared by contexts with the same class access rules.
+ * As with {@link SandboxClassLoader}, classes from the jars are trusted. All other classes
+ * are loaded by the parent and are subject to {@link SandboxSecurityManager#checkClassAccess(String)}
+ * for the thread that loads them.
+ */
+final class SandboxLibraryLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final ConcurrentMap<Key, SandboxLibraryLoader> LOADERS = new ConcurrentHashMap<>();
+
+    private static final Set<String> STATELESS_LIBRARIES = ConcurrentHashMap.newKeySet();
+
+    /* a resource that no jar contains, looking it up opens all jars */
+    private static final String OPEN_JARS = SandboxLibraryLoader.class.getName().replace('.', '/') + "/open";
+
+    private final URLClassPath ucp;
+    private final boolean removeFinalizers;
+    private final Object enhancementIdentity;
+    private final SandboxSecurityManager securityManager;
+    private final ProtectionDomain domain;
+
+    /* enhances classes that are loaded by other library classes */
+    private volatile WeakReference<SandboxClassLoader> attached = new WeakReference<>(null);
+
+    private SandboxLibraryLoader(URL[] jars, ClassLoader parent, boolean removeFinalizers, Object enhancementIdentity, SandboxSecurityManager securityManager) {
+        super(parent);
+        this.ucp = new URLClassPath(jars);
+
+        /* open the jars now, classes are looked up on restricted threads that may not read them */
+        ucp.getResource(OPEN_JARS, false);
+        this.removeFinalizers = removeFinalizers;
+        this.enhancementIdentity = enhancementIdentity;
+        this.securityManager = securityManager;
+
+        try {
+            CodeSource codeSource = new CodeSource(new URL("file", "", SandboxClassLoader.DEFAULT_CODESOURCE_PREFIX.concat("/library/")), (java.security.cert.Certificate[]) null);
+            this.domain = new ProtectionDomain(codeSource, new Permissions(), this, null);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException("Could not create protection domain.");
+        }
+    }
+
+    /**
+     * Registers a jar whose classes may be shared between sandboxed calls. A library is stateless if
+     * its classes neither keep mutable static state nor global registries, such as the meta class
+     * registry of the groovy runtime. Classes of shared jars can only see other shared classes and
+     * the classes of the application loader, hence the dependencies of a library need to be registered as well.
+     *
+     * @param jar
+     */
+    static void registerStatelessLibrary(URL jar) {
+        STATELESS_LIBRARIES.add(jar.toExternalForm());
+    }
+
+    /**
+     * @param jar
+     * @return true if the jar was registered using {@link #registerStatelessLibrary(URL)}
+     */
+    static boolean isStatelessLibrary(URL jar) {
+        return STATELESS_LIBRARIES.contains(jar.toExternalForm());
+    }
+
+    /**
+     * Returns the library loader for the given jars and parent, creating it if necessary.
+     * Needs to be called from an unrestricted thread, as the jars are opened when the loader is created.
+     *
+     * @param jars                the jars, all of which need to be registered as stateless libraries
+     * @param parent
+     * @param removeFinalizers
+     * @param enhancementIdentity the identity of the enhancer or {@link EnhancedClassCache#NO_ENHANCER}
+     * @param accessRules         the class access rules of the context, see {@link SandboxContext#getClassAccessRules()}
+     * @param securityManager
+     * @return
+     */
+    static SandboxLibraryLoader getInstance(Collection<URL> jars, ClassLoader parent, boolean removeFinalizers, Object enhancementIdentity,
+                                            Object accessRules, SandboxSecurityManager securityManager) {
+        for (URL jar : jars) {
+            if (!isStatelessLibrary(jar)) {
+                throw new IllegalArgumentException(jar + " is not registered as stateless library");
+            }
+        }
+
+        Key key = new Key(jars, parent, removeFinalizers, enhancementIdentity, accessRules);
+
+        SandboxLibraryLoader loader = LOADERS.get(key);
+        if (null == loader) {
+            URL[] urls = jars.toArray(new URL[jars.size()]);
+            SandboxLibraryLoader created = new SandboxLibraryLoader(urls, parent, removeFinalizers, enhancementIdentity, securityManager);
+            loader = LOADERS.putIfAbsent(key, created);
+            if (null == loader) {
+                loader = created;
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Discards all library loaders. Loaders that were already handed out remain in use.
+     */
+    static void clear() {
+        LOADERS.clear();
+    }
+
+    /**
+     * Attaches a sandbox loader. Classes that are loaded by other library classes, rather than
+     * through a sandbox loader, are enhanced by the most recently attached loader.
+     *
+     * @param sandboxLoader
+     */
+    void attach(SandboxClassLoader sandboxLoader) {
+        attached = new WeakReference<>(sandboxLoader);
+    }
+
+    /**
+     * Loads a class that is contained in the jars. The class is enhanced by the given sandbox
+     * loader, which is also responsible to call {@link SandboxClassLoaderEnhancer#classLoaded(SandboxClassLoader, String, Class)}.
+     *
+     * @param sandboxLoader the loader requesting the class
+     * @param name
+     * @param resolve
+     * @return the class or null if the jars do not contain it
+     * @throws ClassNotFoundException
+     */
+    Class<?> loadLibraryClass(SandboxClassLoader sandboxLoader, String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> clazz = findLoadedClass(name);
+            if (null == clazz) {
+                clazz = defineLibraryClass(sandboxLoader, name);
+                if (null == clazz) {
+                    return null;
+                }
+            }
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        Class<?> clazz;
+        synchronized (getClassLoadingLock(name)) {
+            clazz = findLoadedClass(name);
+            if (null == clazz && !name.startsWith("java.")) {
+                SandboxClassLoader sandboxLoader = attached.get();
+                clazz = defineLibraryClass(sandboxLoader, name);
+
+                SandboxClassLoaderEnhancer enhancer = null == sandboxLoader ? null : sandboxLoader.getEnhancer();
+                if (null != clazz && null != enhancer) {
+                    enhancer.classLoaded(sandboxLoader, name, clazz);
+                }
+            }
+        }
+
+        if (null != clazz && clazz.getClassLoader() == this) {
+            if (resolve) {
+                resolveClass(clazz);
+            }
+            return clazz;
+        }
+
+        clazz = getParent().loadClass(name);
+
+        if (null != securityManager) {
+            securityManager.checkClassAccess(name);
+        }
+
+        return clazz;
+    }
+
+    /**
+     * Defines the class from the jars. Callers need to hold the class loading lock.
+     *
+     * @param sandboxLoader the loader whose enhancer enhances the class, may be null if it was collected
+     * @param name
+     * @return the class or null if the jars do not contain it
+     * @throws ClassNotFoundException
+     */
+    private Class<?> defineLibraryClass(SandboxClassLoader sandboxLoader, String name) throws ClassNotFoundException {
+        Resource res = ucp.getResource(name.replace('.', '/').concat(".class"), false);
+        if (null == res) {
+            return null;
+        }
+
+        try {
+            byte[] cBytes = enhance(sandboxLoader, name, res.getBytes());
+
+            /* define package */
+            int i = name.lastIndexOf('.');
+            if (i != -1) {
+                String pkgName = name.substring(0, i);
+                if (null == getPackage(pkgName)) {
+                    try {
+                        definePackage(pkgName, null, null, null, null, null, null, null);
+                    } catch (IllegalArgumentException e) {
+                        /* the package was defined by a thread loading another class */
+                        if (null == getPackage(pkgName)) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+
+            return defineClass(name, cBytes, 0, cBytes.length, domain);
+        } catch (ClassNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new ClassNotFoundException("Could not load " + name, e);
+        } catch (Exception e) {
+            throw new ClassNotFoundException("Could not load " + name, e);
+        }
+    }
+
+    /**
+     * Removes finalizers and applies the enhancer. Enhanced classes are shared using the
+     * {@link EnhancedClassCache}, as the enhancement only depends on the class.
+     *
+     * @param sandboxLoader
+     * @param name
+     * @param cBytes
+     * @return
+     * @throws Exception
+     */
+    private byte[] enhance(SandboxClassLoader sandboxLoader, String name, byte[] cBytes) throws Exception {
+        if (EnhancedClassCache.NO_ENHANCER == enhancementIdentity) {
+            return removeFinalizers ? SandboxClassLoader.removeFinalizer(cBytes) : cBytes;
+        }
+
+        EnhancedClassCache.Key key = EnhancedClassCache.key(name, cBytes, removeFinalizers, enhancementIdentity);
+        byte[] enhanced = EnhancedClassCache.getInstance().get(key);
+        if (null != enhanced) {
+            return enhanced;
+        }
+
+        SandboxClassLoaderEnhancer enhancer = null == sandboxLoader ? null : sandboxLoader.getEnhancer();
+        if (null == enhancer) {
+            throw new ClassNotFoundException("No sandbox loader is attached to enhance " + name);
+        }
+
+        enhanced = cBytes;
+        if (removeFinalizers) {
+            enhanced = SandboxClassLoader.removeFinalizer(enhanced);
+        }
+        enhanced = enhancer.enhance(sandboxLoader, name, enhanced);
+        if (null == enhanced) {
+            throw new ClassNotFoundException("Enhancer did not return " + name);
+        }
+        EnhancedClassCache.getInstance().put(key, cBytes, enhanced);
+        return enhanced;
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        Resource res = ucp.getResource(name, false);
+        return null == res ? null : res.getURL();
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        final Enumeration<Resource> resources = ucp.getResources(name, false);
+        return new Enumeration<URL>() {
+            @Override
+            public boolean hasMoreElements() {
+                return resources.hasMoreElements();
+            }
+
+            @Override
+            public URL nextElement() {
+                if (!resources.hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                return resources.nextElement().getURL();
+            }
+        };
+    }
+
+    private static final class Key {
+
+        private final TreeSet<String> jars = new TreeSet<>();
+        private final ClassLoader parent;
+        private final boolean removeFinalizers;
+        private final Object enhancementIdentity;
+        private final Object accessRules;
+
+        Key(Collection<URL> jars, ClassLoader parent, boolean removeFinalizers, Object enhancementIdentity, Object accessRules) {
+            /* compare external forms, URL#equals resolves host names */
+            for (URL jar : jars) {
+                this.jars.add(jar.toExternalForm());
+            }
+            this.parent = parent;
+            this.removeFinalizers = removeFinalizers;
+            this.enhancementIdentity = enhancementIdentity;
+            this.accessRules = accessRules;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * (31 * jars.hashCode() + System.identityHashCode(parent)) + (removeFinalizers ? 1 : 0);
+            hash = 31 * hash + enhancementIdentity.hashCode();
+            return 31 * hash + accessRules.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return parent == other.parent
+                    && removeFinalizers == other.removeFinalizers
+                    && jars.equals(other.jars)
+                    && enhancementIdentity.equals(other.enhancementIdentity)
+                    && accessRules.equals(other.accessRules);
+        }
+    }
+}
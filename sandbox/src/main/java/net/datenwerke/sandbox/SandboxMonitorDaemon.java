@@ -50,8 +50,6 @@ public class SandboxMonitorDaemon implements Runnable {
     private final SandboxServiceImpl sandboxService;
     private final ConcurrentLinkedQueue<SandboxMonitoredThread> monitorQueue;
 
-    private long startTime;
-
     private long checkInterval;
 
     public SandboxMonitorDaemon(SandboxServiceImpl sandboxService, ConcurrentLinkedQueue<SandboxMonitoredThread> monitorQueue) {
@@ -71,10 +69,14 @@ public class SandboxMonitorDaemon implements Runnable {
                         continue;
                     }
 
-                    if (!monitor.isAlive()) {
+                    if (monitor.isFinished()) {
                         iterator.remove();
                         continue;
                     }
+                    if (!monitor.isAlive()) {
+                        /* monitors are queued before their thread is started */
+                        continue;
+                    }
 
                     testStack(monitor);
                     testRuntime(monitor);
@@ -99,12 +101,12 @@ public class SandboxMonitorDaemon implements Runnable {
         }
 
         if (context.getMaximumRuntimeMode() == SandboxContext.RuntimeMode.CPU_TIME) {
-            long cpuTime = threadBean.getThreadCpuTime(monitor.getMonitoredThread().getId());
+            long cpuTime = threadBean.getThreadCpuTime(monitor.getMonitoredThread().getId()) - monitor.getStartCpuTime();
             if (cpuTime > TimeUnit.NANOSECONDS.convert(context.getMaximumRunTime(), context.getMaximumRunTimeUnit())) {
                 suspend(monitor, new SandboxedTaskKilledException("killed task as maxmimum runtime was exceeded"));
             }
         } else {
-            if (System.currentTimeMillis() - startTime > TimeUnit.MILLISECONDS.convert(context.getMaximumRunTime(), context.getMaximumRunTimeUnit())) {
+            if (System.currentTimeMillis() - monitor.getStartTime() > TimeUnit.MILLISECONDS.convert(context.getMaximumRunTime(), context.getMaximumRunTimeUnit())) {
                 suspend(monitor, new SandboxedTaskKilledException("killed task as maxmimum runtime was exceeded"));
             }
         }
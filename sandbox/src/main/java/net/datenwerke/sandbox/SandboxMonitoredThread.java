@@ -23,6 +23,8 @@
 
 package net.datenwerke.sandbox;
 
+import java.lang.management.ManagementFactory;
+
 import lombok.Getter;
 
 /**
@@ -37,16 +39,88 @@ public class SandboxMonitoredThread {
     private final Thread callingThread;
     private final SandboxedThread monitoredThread;
     private final SandboxContext context;
-    private final long startTime;
+    private volatile long startTime;
+
+    /**
+     * the task that is monitored, threads of a {@link SandboxWorkerPool} run many tasks
+     */
+    private final long taskNumber;
+
+    /**
+     * cpu time the thread had used before the task, only taken if the context limits cpu time
+     */
+    private volatile long startCpuTime;
+
+    /**
+     * set before the task is killed and once the kill has been completed
+     */
+    private volatile boolean killing;
+    private volatile boolean killed;
 
     public SandboxMonitoredThread(Thread callingThread, SandboxedThread monitoredThread, SandboxContext context) {
         this.callingThread = callingThread;
         this.monitoredThread = monitoredThread;
         this.context = context;
+        this.taskNumber = monitoredThread.getTaskNumber();
+        startTime = System.currentTimeMillis();
+
+        if (0 <= context.getMaximumRunTime() && context.getMaximumRuntimeMode() == SandboxContext.RuntimeMode.CPU_TIME) {
+            startCpuTime = Math.max(0, ManagementFactory.getThreadMXBean().getThreadCpuTime(monitoredThread.getId()));
+        } else {
+            startCpuTime = 0;
+        }
+    }
+
+    /**
+     * Restarts the runtime measurement, used by {@link SandboxedBatchThread} to give every
+     * task of a batch its own budget. Must be called by the monitored thread while it is not restricted.
+     */
+    void restart() {
         startTime = System.currentTimeMillis();
+
+        if (0 <= context.getMaximumRunTime() && context.getMaximumRuntimeMode() == SandboxContext.RuntimeMode.CPU_TIME) {
+            startCpuTime = Math.max(0, ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime());
+        }
     }
 
     public boolean isAlive() {
-        return monitoredThread.isStarted() && monitoredThread.isAlive();
+        return monitoredThread.isRunningTask(taskNumber);
+    }
+
+    /**
+     * @return true once the task has ended, false while it runs or while its thread is yet to be started
+     */
+    public boolean isFinished() {
+        return monitoredThread.isTaskFinished(taskNumber);
+    }
+
+    /**
+     * @return true once the {@link SandboxService} started to kill the task
+     */
+    public boolean isKilling() {
+        return killing;
+    }
+
+    void setKilling() {
+        killing = true;
+    }
+
+    synchronized void setKilled() {
+        killed = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the kill of the task has been completed, including the interruption
+     * of the calling thread. Must only be called if {@link #isKilling()}.
+     */
+    synchronized void awaitKilled() {
+        while (!killed) {
+            try {
+                wait();
+            } catch (InterruptedException ignore) {
+                /* the kill interrupts the calling thread */
+            }
+        }
     }
 }
@@ -0,0 +1,429 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.security.Permission;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import net.datenwerke.sandbox.SandboxContext.FileAccess;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+import net.datenwerke.sandbox.permissions.StackEntry;
+import sun.security.util.SecurityConstants;
+
+/**
+ * The compiled and immutable form of the rules of a {@link SandboxContext}. All lookups
+ * are answered from arrays, tries and hash indexes that are built once, so a policy can be
+ * shared by any number of restricted threads without synchronization.
+ * <p>
+ * Policies are obtained via {@link SandboxContext#freeze()} or {@link SandboxContext#compile()}.
+ * Later modifications of an unfrozen context do not affect policies that were already handed out.
+ *
+ * @see SandboxSecurityManager
+ */
+public final class SandboxPolicy {
+
+    private static final PermissionRule[] NO_PERMISSIONS = new PermissionRule[0];
+
+    private final SandboxContext context;
+
+    private final boolean debug;
+    private final boolean passAll;
+    private final boolean bypassClassAccessChecks;
+    private final boolean bypassPermissionAccessChecks;
+    private final boolean bypassPackageAccessChecks;
+
+    private final Map<String, PermissionRule[]> permissionWhitelist;
+    private final Map<String, PermissionRule[]> permissionBlacklist;
+    private final PermissionDecisionCache permissionCache;
+    private final PermissionChecker checker;
+
+    private final AccessRuleIndex classAccess;
+    private final AccessRuleIndex packageAccess;
+    private final FileRuleIndex[] fileAccess;
+
+    SandboxPolicy(SandboxContext context, boolean debug, boolean passAll,
+                  boolean bypassClassAccessChecks, boolean bypassPermissionAccessChecks, boolean bypassPackageAccessChecks,
+                  Map<String, Collection<SecurityPermission>> permissionWhitelist,
+                  Map<String, Collection<SecurityPermission>> permissionBlacklist,
+                  AccessRuleIndex classAccess, AccessRuleIndex packageAccess,
+                  Map<FileAccess, FileRuleIndex> fileAccess,
+                  boolean generatePermissionChecker, SandboxPolicy predecessor) {
+        this.context = context;
+        this.debug = debug;
+        this.passAll = passAll;
+        this.bypassClassAccessChecks = bypassClassAccessChecks;
+        this.bypassPermissionAccessChecks = bypassPermissionAccessChecks;
+        this.bypassPackageAccessChecks = bypassPackageAccessChecks;
+
+        Set<String> stackDependentTypes = new HashSet<>();
+        this.permissionWhitelist = compilePermissions(permissionWhitelist, stackDependentTypes);
+        this.permissionBlacklist = compilePermissions(permissionBlacklist, stackDependentTypes);
+        this.permissionCache = new PermissionDecisionCache(stackDependentTypes,
+                null == predecessor ? null : predecessor.permissionCache);
+        this.checker = generatePermissionChecker && !passAll && !bypassPermissionAccessChecks
+                ? PermissionChecker.generate(permissionWhitelist, permissionBlacklist, stackDependentTypes)
+                : null;
+
+        this.classAccess = classAccess;
+        this.packageAccess = packageAccess;
+
+        this.fileAccess = new FileRuleIndex[FileAccess.values().length];
+        for (FileAccess access : FileAccess.values())
+            this.fileAccess[access.ordinal()] = fileAccess.get(access);
+    }
+
+    private static Map<String, PermissionRule[]> compilePermissions(Map<String, Collection<SecurityPermission>> permissions,
+                                                                   Set<String> stackDependentTypes) {
+        Map<String, PermissionRule[]> compiled = new HashMap<>();
+        for (Entry<String, Collection<SecurityPermission>> e : permissions.entrySet()) {
+            PermissionRule[] rules = new PermissionRule[e.getValue().size()];
+            int i = 0;
+            for (SecurityPermission perm : e.getValue()) {
+                rules[i] = new PermissionRule(perm);
+                if (!rules[i].stack.isEmpty())
+                    stackDependentTypes.add(e.getKey());
+                i++;
+            }
+            compiled.put(e.getKey(), rules);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the context this policy was compiled from. Only to be used for the debug hooks.
+     */
+    public SandboxContext getContext() {
+        return context;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public boolean isPassAll() {
+        return passAll;
+    }
+
+    public boolean isBypassClassAccessChecks() {
+        return bypassClassAccessChecks;
+    }
+
+    public boolean isBypassPermissionAccessChecks() {
+        return bypassPermissionAccessChecks;
+    }
+
+    public boolean isBypassPackageAccessChecks() {
+        return bypassPackageAccessChecks;
+    }
+
+    /**
+     * Returns true if class access decisions of this policy might depend on the stack
+     * of the check, that is, if a granted class access cannot be assumed to be granted again.
+     *
+     * @return
+     */
+    public boolean isClassAccessStackDependent() {
+        return !passAll && !bypassClassAccessChecks && classAccess.hasStackRules();
+    }
+
+    /**
+     * Returns true if package access decisions of this policy might depend on the stack.
+     *
+     * @return
+     * @see #isClassAccessStackDependent()
+     */
+    public boolean isPackageAccessStackDependent() {
+        return !passAll && !bypassPackageAccessChecks && packageAccess.hasStackRules();
+    }
+
+    /**
+     * Returns true if class access is permitted by this policy.
+     * The stack is only captured if a stack dependent rule matches the class.
+     *
+     * @param name
+     * @param stack
+     * @return
+     */
+    public boolean checkClassAccess(String name, LazyClassContext stack) {
+        if (passAll)
+            return true;
+
+        return checkAccess(classAccess, name, stack);
+    }
+
+    /**
+     * Returns true if package access is permitted by this policy.
+     * The stack is only captured if a stack dependent rule matches the package.
+     *
+     * @param name
+     * @param stack
+     * @return
+     */
+    public boolean checkPackageAccess(String name, LazyClassContext stack) {
+        if (passAll)
+            return true;
+
+        return checkAccess(packageAccess, name, stack);
+    }
+
+    /**
+     * Returns whether class and package access to the class are granted regardless of the
+     * stack, or null if the decision depends on the stack.
+     *
+     * @param name
+     * @return
+     */
+    Boolean checkClassAccessWithoutStack(String name) {
+        if (passAll) {
+            return true;
+        }
+
+        int i = name.lastIndexOf('.');
+        String pkg = -1 == i ? "" : name.substring(0, i);
+        if (!"java.lang".equals(pkg) && !bypassPackageAccessChecks) {
+            StaticClassContext stack = new StaticClassContext();
+            boolean granted = checkPackageAccess(pkg, stack);
+            if (stack.isCaptured()) {
+                return null;
+            }
+            if (!granted) {
+                return false;
+            }
+        }
+
+        if (!bypassClassAccessChecks) {
+            StaticClassContext stack = new StaticClassContext();
+            boolean granted = checkClassAccess(name, stack);
+            if (stack.isCaptured()) {
+                return null;
+            }
+            return granted;
+        }
+
+        return true;
+    }
+
+    private boolean checkAccess(AccessRuleIndex index, String name, LazyClassContext stack) {
+        boolean found = index.isWhitelisted(name);
+
+        if (!found) {
+            for (StackRule rule : index.getStackRules(name)) {
+                if (rule.isEmpty() || rule.matches(stack.get())) {
+                    found = true;
+                    break;
+                }
+            }
+        }
+
+        if (found && index.isBlacklisted(name))
+            return false;
+
+        return found;
+    }
+
+    /**
+     * Returns the memoized decision for the given permission or null if no decision
+     * is known. Only decisions that do not depend on the execution stack are memoized.
+     *
+     * @param perm
+     * @return
+     */
+    public Boolean getCachedPermissionDecision(Permission perm) {
+        return permissionCache.get(perm);
+    }
+
+    /**
+     * @return true if permission checks are answered by a generated {@link PermissionChecker}
+     */
+    public boolean hasGeneratedPermissionChecker() {
+        return null != checker;
+    }
+
+    /**
+     * Returns true if the permission is granted by this policy.
+     * The stack is only captured if a rule with {@link StackEntry}s needs to be evaluated.
+     * <p>
+     * Checks are answered by the decision cache if possible, then by the generated checker
+     * if there is one and only then by evaluating the rules. The checker is slower than a
+     * cache hit, so it is only used for permissions that have not been decided before.
+     *
+     * @param perm
+     * @param stack
+     * @return
+     * @see #getCachedPermissionDecision(Permission)
+     */
+    public boolean checkPermission(Permission perm, LazyClassContext stack) {
+        Boolean cached = permissionCache.get(perm);
+        if (null != cached)
+            return cached;
+
+        if (null != checker) {
+            int generated = checker.check(perm);
+            if (PermissionChecker.UNDECIDED != generated) {
+                boolean decision = PermissionChecker.GRANT == generated;
+                if (permissionCache.isCacheable(perm)) {
+                    permissionCache.put(perm, decision);
+                }
+                return decision;
+            }
+        }
+
+        return evaluatePermission(perm, stack);
+    }
+
+    /**
+     * Evaluates the rules bypassing the generated checker and the decision cache.
+     * The decision is memoized if it does not depend on the stack.
+     *
+     * @param perm
+     * @param stack
+     * @return
+     */
+    boolean evaluatePermission(Permission perm, LazyClassContext stack) {
+        boolean decision = doCheckPermission(perm, stack);
+        if (permissionCache.isCacheable(perm)) {
+            permissionCache.put(perm, decision);
+        }
+
+        return decision;
+    }
+
+    private boolean doCheckPermission(Permission perm, LazyClassContext stack) {
+        String type = perm.getClass().getName();
+
+        /* check blacklist */
+        for (PermissionRule blacklistedPermission : getPermissions(permissionBlacklist, type)) {
+            if (blacklistedPermission.matches(perm, stack)) {
+                return false;
+            }
+        }
+
+        /* specialized checks */
+        if (java.io.FilePermission.class.equals(perm.getClass())) {
+            if (SecurityConstants.FILE_READ_ACTION.equals(perm.getActions()) && null != perm.getName()) {
+                return checkFileAction(perm.getName(), FileAccess.READ);
+            } else if (SecurityConstants.FILE_WRITE_ACTION.equals(perm.getActions()) && null != perm.getName()) {
+                return checkFileAction(perm.getName(), FileAccess.WRITE);
+            } else if (SecurityConstants.FILE_DELETE_ACTION.equals(perm.getActions()) && null != perm.getName()) {
+                return checkFileAction(perm.getName(), FileAccess.DELETE);
+            }
+        }
+
+        /* general checks */
+        for (PermissionRule whitelistedPermission : getPermissions(permissionWhitelist, type)) {
+            if (whitelistedPermission.matches(perm, stack))
+                return true;
+        }
+
+        return false;
+    }
+
+    private PermissionRule[] getPermissions(Map<String, PermissionRule[]> permissions, String type) {
+        PermissionRule[] rules = permissions.get(type);
+        return null == rules ? NO_PERMISSIONS : rules;
+    }
+
+    static boolean permissionMatches(SecurityPermission permission, Permission toBeMatched, LazyClassContext stack) {
+        return new PermissionRule(permission).matches(toBeMatched, stack);
+    }
+
+    /**
+     * Checks the file against the compiled rules for the given access type.
+     *
+     * @param name
+     * @param access
+     * @return
+     */
+    public boolean checkFileAction(String name, FileAccess access) {
+        if (passAll) {
+            return true;
+        }
+
+        return fileAccess[access.ordinal()].isPermitted(name);
+    }
+
+    static boolean checkEntriesAgainstStack(Collection<StackEntry> entries, Class[] stack) {
+        return StackRule.of(entries).matches(stack);
+    }
+
+    /**
+     * Returns the number of permission checks answered from the decision cache.
+     *
+     * @return
+     */
+    public long getPermissionCacheHits() {
+        return permissionCache.getHits();
+    }
+
+    /**
+     * Returns the number of cacheable permission checks that were not answered from the decision cache.
+     *
+     * @return
+     */
+    public long getPermissionCacheMisses() {
+        return permissionCache.getMisses();
+    }
+
+    /**
+     * Compiled form of a {@link SecurityPermission}.
+     */
+    private static final class PermissionRule {
+
+        private final String name;
+        private final String actions;
+        private final StackRule stack;
+
+        PermissionRule(SecurityPermission permission) {
+            this.name = permission.getName();
+            this.actions = permission.getActions();
+            this.stack = StackRule.of(permission.getEntries());
+        }
+
+        boolean matches(Permission toBeMatched, LazyClassContext stack) {
+            if (null != name && !name.equals(toBeMatched.getName()))
+                return false;
+            if (null != actions && !actions.equals(toBeMatched.getActions()))
+                return false;
+            if (!this.stack.isEmpty() && !this.stack.matches(stack.get()))
+                return false;
+
+            return true;
+        }
+    }
+
+    /**
+     * Decisions without a stack. Rules that need it make the decision undecidable.
+     */
+    private static final class StaticClassContext extends LazyClassContext {
+        @Override
+        protected Class[] capture() {
+            return new Class[0];
+        }
+    }
+}
@@ -23,9 +23,19 @@
 
 package net.datenwerke.sandbox;
 
+import java.io.FilePermission;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.SocketPermission;
 import java.security.AccessControlException;
 import java.security.Permission;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.PropertyPermission;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.datenwerke.sandbox.securitypermissions.SandboxRuntimePermission;
 
@@ -37,13 +47,36 @@ import net.datenwerke.sandbox.securitypermissions.SandboxRuntimePermission;
  */
 final public class SandboxSecurityManager extends SecurityManager {
 
-    private final InheritableThreadLocal<byte[]> restrict = new InheritableThreadLocal<>();
-    private final InheritableThreadLocal<SandboxContext> contextHolder = new InheritableThreadLocal<>();
+    /**
+     * the restrictions of a thread, null for unrestricted threads
+     */
+    private final InheritableThreadLocal<RestrictionFrame> frames = new InheritableThreadLocal<RestrictionFrame>() {
+        @Override
+        protected RestrictionFrame childValue(RestrictionFrame parentValue) {
+            if (null == parentValue) {
+                return null;
+            }
+            return track(parentValue.inherit());
+        }
+    };
+
+    /**
+     * Number of frames that have been handed out to threads and not yet been released.
+     * As long as this is 0 no thread is restricted and checks can return without touching
+     * {@link #frames}.
+     */
+    private final AtomicInteger restrictedFrames = new AtomicInteger();
+
+    /**
+     * The frames counted by {@link #restrictedFrames}. Frames of threads that terminate
+     * while still being restricted, e.g., threads that inherited a restriction, are released
+     * once they have been garbage collected.
+     */
+    private final Set<Reference<RestrictionFrame>> trackedFrames = Collections.newSetFromMap(new ConcurrentHashMap<Reference<RestrictionFrame>, Boolean>());
+    private final ReferenceQueue<RestrictionFrame> collectedFrames = new ReferenceQueue<>();
 
-    private final ThreadLocal<Boolean> isInCheck = new ThreadLocal<>();
-    private final ThreadLocal<Boolean> debug = new ThreadLocal<>();
     private final SandboxService sandboxingService;
-    private boolean codesourceSecurityChecks;
+    private volatile boolean codesourceSecurityChecks;
 
     private static SandboxSecurityManager INSTANCE;
 
@@ -64,91 +97,164 @@ final public class SandboxSecurityManager extends SecurityManager {
         return sandboxingService;
     }
 
-    void restrictAccess(String pw, SandboxContext context) {
-        if (null != restrict.get()) {
-            throw new IllegalStateException();
+    void restrictAccess(String pw, SandboxPolicy policy) {
+        byte[] password = pw.getBytes();
+
+        RestrictionFrame frame = frames.get();
+        if (null == frame) {
+            frames.set(track(new RestrictionFrame(new RestrictionFrame.Restriction(password, policy, null))));
+        } else {
+            if (frame.isInCheck()) {
+                throw new AccessControlException("cannot restrict during security checks");
+            }
+            frame.push(password, policy);
         }
+    }
 
-        byte[] password = pw.getBytes();
-        this.contextHolder.set(context);
-        restrict.set(password);
-        if (context.isDebug()) {
-            debug.set(true);
+    private RestrictionFrame track(RestrictionFrame frame) {
+        expungeCollectedFrames();
+
+        Reference<RestrictionFrame> reference = new WeakReference<>(frame, collectedFrames);
+        frame.setReference(reference);
+        trackedFrames.add(reference);
+        restrictedFrames.incrementAndGet();
+        return frame;
+    }
+
+    private void release(RestrictionFrame frame) {
+        if (trackedFrames.remove(frame.getReference())) {
+            restrictedFrames.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases the frames of terminated threads.
+     */
+    private void expungeCollectedFrames() {
+        Reference<? extends RestrictionFrame> reference;
+        while (null != (reference = collectedFrames.poll())) {
+            if (trackedFrames.remove(reference)) {
+                restrictedFrames.decrementAndGet();
+            }
         }
     }
 
     public boolean isRestricted() {
-        return null != restrict.get();
+        return null != getFrame();
+    }
+
+    /**
+     * Returns the frame of the current thread. Unless some thread is restricted
+     * this does not access the thread local at all.
+     *
+     * @return
+     */
+    private RestrictionFrame getFrame() {
+        if (0 == restrictedFrames.get()) {
+            return null;
+        }
+        expungeCollectedFrames();
+        return frames.get();
+    }
+
+    /**
+     * Returns true if checks of the current thread can be skipped entirely, that is
+     * if no thread is restricted and codesource checks are disabled.
+     *
+     * @return
+     */
+    private boolean isUnrestricted() {
+        return !codesourceSecurityChecks && 0 == restrictedFrames.get();
     }
 
     void releaseRestriction(String pw) {
-        if (isInCheck()) {
+        RestrictionFrame frame = getFrame();
+        if (null != frame && frame.isInCheck()) {
             throw new AccessControlException("cannot release restriction during security checks");
         }
 
         byte[] password = pw.getBytes();
-        if (Arrays.equals(password, restrict.get())) {
-            restrict.set(null);
-            contextHolder.set(null);
-            isInCheck.set(null);
-            debug.set(null);
-        } else {
+        if (null == frame || !frame.pop(password)) {
             throw new AccessControlException("Wrong password");
         }
-    }
 
-    private boolean isInCheck() {
-        return null != isInCheck.get();
-    }
-
-    private boolean isDebug() {
-        return null != debug.get();
-    }
-
-    private void setInCheck(boolean check) {
-        if (check) {
-            isInCheck.set(true);
-        } else {
-            isInCheck.set(null);
+        if (frame.isEmpty()) {
+            frames.remove();
+            release(frame);
         }
     }
 
     @Override
     public void checkPermission(Permission perm) {
+        if (isUnrestricted()) {
+            return;
+        }
+
         if (codesourceSecurityChecks) {
             super.checkPermission(perm);
         }
 
-        if (isRestricted() && !isInCheck()) {
-            setInCheck(true);
+        RestrictionFrame frame = getFrame();
+        if (null != frame && !frame.isInCheck()) {
+            frame.setInCheck(true);
 
             try {
-                SandboxContext context = contextHolder.get();
-                boolean debug = isDebug();
-                if (debug) {
-                    context.debugPermissionCheck(perm);
+                LazyClassContext stack = new CheckClassContext(false);
+                for (RestrictionFrame.Restriction r = frame.getTop(); null != r; r = r.getOuter()) {
+                    checkPermission(perm, r.getPolicy(), r.isDebug(), stack);
                 }
+            } finally {
+                frame.setInCheck(false);
+            }
+        }
+    }
 
-                if (context.isBypassPermissionAccessChecks() || context.isPassAll()) {
-                    return;
-                }
+    /**
+     * Checks a permission on behalf of one of the convenience checks below. The stack
+     * is captured as if the check had been issued by the implementation in {@link SecurityManager}.
+     *
+     * @param perm
+     */
+    private void checkConveniencePermission(Permission perm) {
+        if (codesourceSecurityChecks) {
+            super.checkPermission(perm);
+        }
 
-                Class[] stack = getClassContext();
-                if (context.checkPermission(perm, stack)) {
-                    return;
-                }
+        RestrictionFrame frame = getFrame();
+        if (null != frame && !frame.isInCheck()) {
+            frame.setInCheck(true);
 
-                if (debug) {
-                    context.debugDeniedPermission(perm, getClassContext());
+            try {
+                LazyClassContext stack = new CheckClassContext(true);
+                for (RestrictionFrame.Restriction r = frame.getTop(); null != r; r = r.getOuter()) {
+                    checkPermission(perm, r.getPolicy(), r.isDebug(), stack);
                 }
-
-                throw new AccessControlException("Permission not granted: " + perm, perm);
             } finally {
-                setInCheck(false);
+                frame.setInCheck(false);
             }
         }
     }
 
+    private void checkPermission(Permission perm, SandboxPolicy policy, boolean debug, LazyClassContext stack) {
+        if (debug) {
+            policy.getContext().debugPermissionCheck(perm);
+        }
+
+        if (policy.isBypassPermissionAccessChecks() || policy.isPassAll()) {
+            return;
+        }
+
+        if (policy.checkPermission(perm, stack)) {
+            return;
+        }
+
+        if (debug) {
+            policy.getContext().debugDeniedPermission(perm, stack.get());
+        }
+
+        throw new AccessControlException("Permission not granted: " + perm, perm);
+    }
+
     @Override
     public void checkPermission(Permission perm, Object context) {
         if (codesourceSecurityChecks) {
@@ -161,73 +267,229 @@ final public class SandboxSecurityManager extends SecurityManager {
     }
 
     public void checkClassAccess(String clazz) {
-        if (isRestricted() && !isInCheck()) {
-            setInCheck(true);
+        RestrictionFrame frame = getFrame();
+        if (null != frame && !frame.isInCheck()) {
+            frame.setInCheck(true);
 
             try {
-                SandboxContext rs = contextHolder.get();
-                boolean debug = isDebug();
-                if (debug) {
-                    rs.debugCheckClassAccess(clazz);
+                LazyClassContext stack = new CheckClassContext(false);
+                for (RestrictionFrame.Restriction r = frame.getTop(); null != r; r = r.getOuter()) {
+                    checkClassAccess(clazz, r.getPolicy(), r.isDebug(), stack);
                 }
+            } finally {
+                frame.setInCheck(false);
+            }
+        }
+    }
 
-                if (rs.isBypassClassAccessChecks() || rs.isPassAll()) {
-                    return;
-                }
+    private void checkClassAccess(String clazz, SandboxPolicy rs, boolean debug, LazyClassContext stack) {
+        if (debug) {
+            rs.getContext().debugCheckClassAccess(clazz);
+        }
 
-                Class[] stack = getClassContext();
+        if (rs.isBypassClassAccessChecks() || rs.isPassAll()) {
+            return;
+        }
 
-                if (!rs.checkClassAccess(clazz, stack)) {
-                    if (debug) {
-                        rs.debugDeniedClassAccess(clazz, stack);
-                    }
-                    throw new AccessControlException("No class access allowed for class: " + clazz);
-                }
-            } finally {
-                setInCheck(false);
+        if (!rs.checkClassAccess(clazz, stack)) {
+            if (debug) {
+                rs.getContext().debugDeniedClassAccess(clazz, stack.get());
             }
+            throw new AccessControlException("No class access allowed for class: " + clazz);
         }
     }
 
+    /**
+     * Returns a token identifying the restrictions of the current thread as far as class
+     * access is concerned. While the token stays the same, a granted {@link #checkClassAccess(String)}
+     * is granted again. Returns null if decisions must not be reused, since the thread is not
+     * restricted, a check is running, or the decision depends on the stack or is to be debugged.
+     *
+     * @return
+     */
+    Object getClassAccessToken() {
+        RestrictionFrame frame = getFrame();
+        if (null == frame || frame.isInCheck()) {
+            return null;
+        }
+
+        RestrictionFrame.Restriction top = frame.getTop();
+        return top.isClassAccessReusable() ? top : null;
+    }
+
+    /**
+     * Returns true if the current thread is restricted by the given policy alone, without
+     * debugging and outside of a running check, i.e., if the policy's decisions are final.
+     *
+     * @param policy
+     * @return
+     */
+    boolean isRestrictedTo(SandboxPolicy policy) {
+        RestrictionFrame frame = getFrame();
+        if (null == frame || frame.isInCheck()) {
+            return false;
+        }
+
+        RestrictionFrame.Restriction top = frame.getTop();
+        return top.getPolicy() == policy && null == top.getOuter() && !top.isDebug();
+    }
+
     @Override
     public void checkPackageAccess(String pkg) {
+        if (isUnrestricted()) {
+            return;
+        }
+
         if (codesourceSecurityChecks) {
             super.checkPackageAccess(pkg);
         }
 
-        if (isRestricted() && !isInCheck()) {
+        RestrictionFrame frame = getFrame();
+        if (null != frame && !frame.isInCheck()) {
             /* have to allow java.lang for basic datatype */
             if ("java.lang".equals(pkg)) {
                 return;
             }
 
-            setInCheck(true);
+            frame.setInCheck(true);
 
             try {
-                SandboxContext rs = contextHolder.get();
-                boolean debug = isDebug();
-                if (debug) {
-                    contextHolder.get().debugCheckPackageAccess(pkg);
+                LazyClassContext stack = new CheckClassContext(false);
+                for (RestrictionFrame.Restriction r = frame.getTop(); null != r; r = r.getOuter()) {
+                    checkPackageAccess(pkg, r.getPolicy(), r.isDebug(), stack);
                 }
+            } finally {
+                frame.setInCheck(false);
+            }
+        }
+    }
 
-                if (rs.isBypassPackageAccessChecks() || rs.isPassAll()) {
-                    return;
-                }
+    private void checkPackageAccess(String pkg, SandboxPolicy rs, boolean debug, LazyClassContext stack) {
+        if (debug) {
+            rs.getContext().debugCheckPackageAccess(pkg);
+        }
 
-                Class[] stack = getClassContext();
+        if (rs.isBypassPackageAccessChecks() || rs.isPassAll()) {
+            return;
+        }
 
-                if (!rs.checkPackageAccess(pkg, stack)) {
-                    if (debug) {
-                        rs.debugDeniedPackageAccess(pkg, stack);
-                    }
-                    throw new AccessControlException("No package access allowed for package: " + pkg);
+        if (!rs.checkPackageAccess(pkg, stack)) {
+            if (debug) {
+                rs.getContext().debugDeniedPackageAccess(pkg, stack.get());
+            }
+            throw new AccessControlException("No package access allowed for package: " + pkg);
+        }
+    }
+
+    /**
+     * Captures the class context as seen by the security check that is currently
+     * running, that is, the frames between this method and the check are stripped.
+     * Position 0 thus refers to this security manager as if {@link #getClassContext()}
+     * had been called within the check itself.
+     * <p>
+     * Checks are evaluated per restriction by a private helper, whose frame is
+     * skipped as well. Note that this must not be private, as the synthetic accessor
+     * would add an additional frame of this class.
+     * <p>
+     * For the convenience checks overridden by this class, position 1 refers to
+     * {@link SecurityManager} rather than to the overriding method, as it did before
+     * these checks were overridden.
+     *
+     * @param convenience whether the check was issued by a convenience check
+     * @return
+     */
+    Class[] captureCheckClassContext(boolean convenience) {
+        Class[] stack = getClassContext();
+        for (int i = 1; i < stack.length - 1; i++) {
+            if (stack[i] == SandboxSecurityManager.class) {
+                Class[] checkStack = Arrays.copyOfRange(stack, i + 1, stack.length);
+                if (convenience && checkStack.length > 1) {
+                    checkStack[1] = SecurityManager.class;
                 }
-            } finally {
-                setInCheck(false);
+                return checkStack;
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * Stack of the currently running check that is captured on demand.
+     */
+    private final class CheckClassContext extends LazyClassContext {
+        private final boolean convenience;
+
+        CheckClassContext(boolean convenience) {
+            this.convenience = convenience;
+        }
+
+        @Override
+        protected Class[] capture() {
+            return captureCheckClassContext(convenience);
+        }
+    }
+
+    /*
+     * The following checks are frequently triggered by host code. The default implementations
+     * allocate a permission before calling checkPermission, which is avoided for unrestricted threads.
+     * The permissions are built as by the default implementations.
+     */
+
+    @Override
+    public void checkPropertyAccess(String key) {
+        if (!isUnrestricted()) {
+            checkConveniencePermission(new PropertyPermission(key, "read"));
+        }
+    }
+
+    @Override
+    public void checkRead(String file) {
+        if (!isUnrestricted()) {
+            checkConveniencePermission(new FilePermission(file, "read"));
+        }
+    }
+
+    @Override
+    public void checkWrite(String file) {
+        if (!isUnrestricted()) {
+            checkConveniencePermission(new FilePermission(file, "write"));
+        }
+    }
+
+    @Override
+    public void checkDelete(String file) {
+        if (!isUnrestricted()) {
+            checkConveniencePermission(new FilePermission(file, "delete"));
+        }
+    }
+
+    @Override
+    public void checkConnect(String host, int port) {
+        if (!isUnrestricted()) {
+            if (port == -1) {
+                checkConveniencePermission(new SocketPermission(socketHost(host), "resolve"));
+            } else {
+                checkConveniencePermission(new SocketPermission(socketHost(host) + ":" + port, "connect"));
             }
         }
     }
 
+    @Override
+    public void checkAccept(String host, int port) {
+        if (!isUnrestricted()) {
+            checkConveniencePermission(new SocketPermission(socketHost(host) + ":" + port, "accept"));
+        }
+    }
+
+    private static String socketHost(String host) {
+        if (null == host) {
+            throw new NullPointerException("host can't be null");
+        }
+        if (!host.startsWith("[") && host.indexOf(':') != -1) {
+            return "[" + host + "]";
+        }
+        return host;
+    }
+
     Class[] getCurrentClassContext() {
         if (isRestricted()) {
             throw new AccessControlException("no classContext during sandbox");
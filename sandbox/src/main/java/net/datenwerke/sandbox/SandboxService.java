@@ -24,8 +24,11 @@
 package net.datenwerke.sandbox;
 
 import java.io.Serializable;
+import java.net.URL;
 import java.security.CodeSource;
 import java.security.Permission;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import net.datenwerke.sandbox.handlers.SandboxHandler;
@@ -114,6 +117,10 @@ public interface SandboxService {
 
     /**
      * Enables the sandbox for the current thread.
+     * <p>
+     * If the thread is already restricted, the new restriction is nested within the
+     * active one: a check only passes if it is granted by every active restriction. Nested
+     * restrictions have to be released in reverse order.
      *
      * @param pw      The password needed to disable the sandbox.
      * @param context The {@link SandboxContext} to configure the sandbox.
@@ -162,7 +169,7 @@ public interface SandboxService {
     boolean isRestricted();
 
     /**
-     * Disables the sandbox if the password is correct.
+     * Disables the innermost restriction of the current thread if the password is correct.
      *
      * @param pw The password
      */
@@ -170,12 +177,26 @@ public interface SandboxService {
 
     /**
      * Allows to register predefined {@link SandboxContext}s that can later on be referenced by name.
+     * <p>
+     * A frozen copy of the context is registered, the given context is not modified.
+     * Use {@link SandboxContext#clone()} to derive a modifiable copy of a registered context.
      *
      * @param name
      * @param context
+     * @see SandboxContext#freeze()
      */
     void registerContext(String name, SandboxContext context);
 
+    /**
+     * Registers a jar as stateless library. Contexts that enable {@link SandboxContext#setShareWhitelistedJars(boolean)}
+     * share the classes of whitelisted jars that are registered as stateless between sandboxed calls. A library
+     * is stateless if its classes neither keep mutable static state nor global registries, the groovy runtime
+     * for example is not stateless as it keeps a global meta class registry.
+     *
+     * @param jar
+     */
+    void registerStatelessLibrary(URL jar);
+
     /**
      * Transforms objects from the {@link SandboxClassLoader} to the application class loader.
      *
@@ -260,6 +281,87 @@ public interface SandboxService {
     <V> SandboxedCallResult<V> runInContext(Class<? extends SandboxedEnvironment> call,
                                             SandboxContext context, ClassLoader loader, Object... args);
 
+    /**
+     * Runs a batch of tasks in a sandbox using the context as configuration. All tasks share a single
+     * {@link SandboxClassLoader} and are run under a single restriction, in threaded mode by one thread
+     * that is registered with the monitor once. Each task is given its own runtime budget, a task that is
+     * killed does not affect the remaining tasks.
+     * <p>
+     * If the context is to be run remotely, the whole batch is sent to a single remote agent.
+     *
+     * @param tasks
+     * @param context
+     * @return the outcome per task, in the order of the tasks
+     * @see #runSandboxed(Class, SandboxContext, Object...)
+     */
+    List<SandboxedBatchResult> runSandboxedBatch(List<SandboxedBatchTask> tasks, SandboxContext context);
+
+    /**
+     * Runs the same {@link SandboxedEnvironment} once per argument set as a batch.
+     *
+     * @param call
+     * @param context
+     * @param argumentSets the arguments passed to the constructor, one array per task
+     * @return the outcome per argument set
+     * @see #runSandboxedBatch(List, SandboxContext)
+     */
+    List<SandboxedBatchResult> runSandboxedBatch(Class<? extends SandboxedEnvironment> call,
+                                                 SandboxContext context, List<Object[]> argumentSets);
+
+    /**
+     * Returns the bulkhead limiting the concurrent executions of contexts with the given name.
+     * Bulkheads are created on the first execution of a context that sets a limit.
+     *
+     * @param contextName
+     * @return the bulkhead or null if no execution was limited so far
+     * @see SandboxContext#setMaximumConcurrentExecutions(int)
+     */
+    SandboxBulkhead getBulkhead(String contextName);
+
+    /**
+     * Returns the bulkhead limiting the concurrent executions of the given context. Named contexts
+     * share the bulkhead of their name, unnamed contexts are limited per instance.
+     *
+     * @param context
+     * @return the bulkhead or null if no execution was limited so far
+     * @see #getBulkhead(String)
+     */
+    SandboxBulkhead getBulkhead(SandboxContext context);
+
+    /**
+     * Asynchronous variant of {@link #runSandboxed(Class, SandboxContext, Object...)}. Calls on remote agents
+     * do not occupy a local thread while they are executed, local calls run on the executor set by
+     * {@link #setAsyncExecutor(ExecutorService)}. Errors complete the future exceptionally.
+     *
+     * @param call
+     * @param context
+     * @param args
+     * @return
+     * @see SandboxedFuture#within(long, TimeUnit)
+     */
+    <V> SandboxedFuture<V> runSandboxedAsync(Class<? extends SandboxedEnvironment> call,
+                                             SandboxContext context, Object... args);
+
+    /**
+     * Asynchronous variant of {@link #runInContext(Class, SandboxContext, Object...)}.
+     *
+     * @param call
+     * @param context
+     * @param args
+     * @return
+     * @see #runSandboxedAsync(Class, SandboxContext, Object...)
+     */
+    <V> SandboxedFuture<V> runInContextAsync(Class<? extends SandboxedEnvironment> call,
+                                             SandboxContext context, Object... args);
+
+    /**
+     * Sets the executor running local asynchronous calls. By default a fixed number of daemon
+     * threads is started on the first asynchronous call.
+     *
+     * @param executor
+     */
+    void setAsyncExecutor(ExecutorService executor);
+
 
     /**
      * Provides access to registered predefined {@link SandboxContext}s.
@@ -417,6 +519,35 @@ public interface SandboxService {
      */
     void setMonitorWatchdogCheckInterval(long monitorWatchdogCheckInterval);
 
+    /**
+     * Sets the pool used to reuse {@link SandboxClassLoader}s between calls to
+     * {@link #runSandboxed(Class, SandboxContext, Object...)} and {@link #runInContext(Class, SandboxContext, Object...)}
+     * with frozen contexts. Pass null (the default) to create a new loader for every call.
+     *
+     * @param pool
+     */
+    void setClassLoaderPool(SandboxClassLoaderPool pool);
+
+    /**
+     * @return the current loader pool or null
+     * @see #setClassLoaderPool(SandboxClassLoaderPool)
+     */
+    SandboxClassLoaderPool getClassLoaderPool();
+
+    /**
+     * Sets the pool of threads that run the calls of contexts with {@link SandboxContext#setRunInThread(boolean)}.
+     * Pass null (the default) to start a new thread for every call. A pool that is replaced is not shut down.
+     *
+     * @param pool
+     */
+    void setWorkerPool(SandboxWorkerPool pool);
+
+    /**
+     * @return the current worker pool or null
+     * @see #setWorkerPool(SandboxWorkerPool)
+     */
+    SandboxWorkerPool getWorkerPool();
+
     /**
      * Shuts down the current {@link JvmPool} and initializes a new one with the given
      * configuration.
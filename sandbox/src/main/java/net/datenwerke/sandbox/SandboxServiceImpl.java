@@ -24,34 +24,49 @@
 package net.datenwerke.sandbox;
 
 import java.io.File;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 
+import net.datenwerke.sandbox.SandboxContext.AdmissionPolicy;
 import net.datenwerke.sandbox.annotations.EnableSandboxing;
 import net.datenwerke.sandbox.exception.SandboxConfigurationException;
 import net.datenwerke.sandbox.exception.SandboxException;
+import net.datenwerke.sandbox.exception.SandboxRejectedException;
 import net.datenwerke.sandbox.exception.SandboxedTaskKilledException;
 import net.datenwerke.sandbox.handlers.BadThreadKillHandler;
 import net.datenwerke.sandbox.handlers.ContextRegisteredHandler;
 import net.datenwerke.sandbox.handlers.SandboxHandler;
 import net.datenwerke.sandbox.jvm.JvmFreelancer;
+import net.datenwerke.sandbox.jvm.JvmFuture;
 import net.datenwerke.sandbox.jvm.JvmPool;
 import net.datenwerke.sandbox.jvm.JvmPoolConfigImpl;
 import net.datenwerke.sandbox.jvm.JvmPoolImpl;
+import net.datenwerke.sandbox.jvm.JvmSandboxBatchTask;
 import net.datenwerke.sandbox.jvm.JvmSandboxTask;
 import net.datenwerke.sandbox.jvm.exceptions.JvmKilledThreadRuntimeException;
 import net.datenwerke.sandbox.jvm.exceptions.JvmKilledUnsafeThreadRuntimeException;
@@ -94,6 +109,14 @@ public class SandboxServiceImpl implements SandboxService {
 
     protected JvmPool jvmPool;
 
+    protected volatile SandboxClassLoaderPool classLoaderPool;
+
+    protected volatile SandboxWorkerPool workerPool;
+
+    protected volatile ExecutorService asyncExecutor;
+
+    protected final ConcurrentHashMap<String, SandboxBulkhead> bulkheads = new ConcurrentHashMap<>();
+
     private Set<SandboxHandler> handlers = new HashSet<>();
 
     protected final ConcurrentLinkedQueue<SandboxMonitoredThread> monitorQueue;
@@ -105,6 +128,11 @@ public class SandboxServiceImpl implements SandboxService {
     private long monitorDaemonCheckInterval = 10;
     private long monitorWatchdogCheckInterval = 10000;
 
+    /**
+     * time in milliseconds to wait for a killed thread of a batch to stop
+     */
+    private static final long KILL_GRACE_PERIOD = 1000;
+
     public SandboxServiceImpl() {
         this(true,
                 new SandboxCleanupServiceImpl(),
@@ -345,7 +373,7 @@ public class SandboxServiceImpl implements SandboxService {
         String pw = UUID.randomUUID().toString();
         SandboxContext baseSet = new SandboxContext();
 
-        getManager().restrictAccess(pw, baseSet);
+        getManager().restrictAccess(pw, baseSet.compile());
 
         return pw;
     }
@@ -394,7 +422,7 @@ public class SandboxServiceImpl implements SandboxService {
         if (!isActive()) {
             return null;
         }
-        getManager().restrictAccess(pw, context);
+        getManager().restrictAccess(pw, context.compile());
         return pw;
     }
 
@@ -448,6 +476,40 @@ public class SandboxServiceImpl implements SandboxService {
         jvmPool = pool;
     }
 
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#setClassLoaderPool(net.datenwerke.sandbox.SandboxClassLoaderPool)
+     */
+    @Override
+    public void setClassLoaderPool(SandboxClassLoaderPool pool) {
+        getSecurityManager().checkPermission(new SandboxRuntimePermission("setClassLoaderPool"));
+
+        this.classLoaderPool = pool;
+    }
+
+    @Override
+    public SandboxClassLoaderPool getClassLoaderPool() {
+        return classLoaderPool;
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#setWorkerPool(net.datenwerke.sandbox.SandboxWorkerPool)
+     */
+    @Override
+    public void setWorkerPool(SandboxWorkerPool pool) {
+        getSecurityManager().checkPermission(new SandboxRuntimePermission("setWorkerPool"));
+
+        this.workerPool = pool;
+    }
+
+    @Override
+    public SandboxWorkerPool getWorkerPool() {
+        return workerPool;
+    }
+
     /**
      * (non-Javadoc)
      *
@@ -466,11 +528,25 @@ public class SandboxServiceImpl implements SandboxService {
     public synchronized void registerContext(String name, SandboxContext context) {
         getSecurityManager().checkPermission(new SandboxRuntimePermission("registerSandboxContext"));
 
+        /* register a frozen copy, the caller may continue to modify its context */
+        SandboxContext registered = context.clone();
+
         for (ContextRegisteredHandler handler : getHandlers(ContextRegisteredHandler.class)) {
-            handler.contextRegistered(name, context);
+            handler.contextRegistered(name, registered);
         }
 
-        registeredContexts.put(name, context);
+        registered.freeze();
+        registeredContexts.put(name, registered);
+    }
+
+    @Override
+    public void registerStatelessLibrary(URL jar) {
+        getSecurityManager().checkPermission(new SandboxRuntimePermission("registerStatelessLibrary"));
+
+        if (null == jar) {
+            throw new IllegalArgumentException("jar must not be null");
+        }
+        SandboxLibraryLoader.registerStatelessLibrary(jar);
     }
 
     @Override
@@ -521,6 +597,9 @@ public class SandboxServiceImpl implements SandboxService {
         SandboxClassLoader sandboxLoader = new SandboxClassLoader(loader);
         sandboxLoader.init(context);
 
+        /* load the classes recorded for the context before the loader is used */
+        PreloadManifest.preload(sandboxLoader);
+
         return sandboxLoader;
     }
 
@@ -541,9 +620,7 @@ public class SandboxServiceImpl implements SandboxService {
      */
     @Override
     public <V> SandboxedCallResult<V> runSandboxed(Class<? extends SandboxedEnvironment> call, SandboxContext context, Object... args) {
-        SandboxClassLoader loader = initClassLoader(context);
-
-        return runSandboxed(call, context, loader, args);
+        return runPooled(call, context, false, args);
     }
 
     /**
@@ -556,12 +633,129 @@ public class SandboxServiceImpl implements SandboxService {
         return run(call, context, loader, false, args);
     }
 
+    /**
+     * Runs the call on a loader from the {@link SandboxClassLoaderPool}, if one is set and the
+     * context can be pooled, and on a new loader otherwise.
+     */
+    protected <V> SandboxedCallResult<V> runPooled(Class<? extends SandboxedEnvironment> call,
+                                                   SandboxContext context, boolean runInContext, Object[] args) {
+        if (null == call) {
+            return null;
+        }
+
+        SandboxBulkhead bulkhead = admit(context);
+        try {
+            return runPooledAdmitted(call, context, runInContext, args);
+        } finally {
+            if (null != bulkhead) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    private <V> SandboxedCallResult<V> runPooledAdmitted(Class<? extends SandboxedEnvironment> call,
+                                                         SandboxContext context, boolean runInContext, Object[] args) {
+        SandboxClassLoaderPool pool = classLoaderPool;
+        if (null == pool || !pool.isPoolable(context)) {
+            return runAdmitted(call, context, initClassLoader(context), runInContext, args);
+        }
+
+        SandboxClassLoader loader = pool.acquire(context, this);
+        boolean killed = false;
+        try {
+            return runAdmitted(call, context, loader, runInContext, args);
+        } catch (SandboxedTaskKilledException | JvmKilledThreadRuntimeException | JvmKilledUnsafeThreadRuntimeException e) {
+            killed = true;
+            throw e;
+        } finally {
+            pool.release(context, loader, killed);
+        }
+    }
+
     protected <V> SandboxedCallResult<V> run(Class<? extends SandboxedEnvironment> call,
                                              SandboxContext context, ClassLoader loader, boolean runInContext, Object[] args) {
         if (null == call) {
             return null;
         }
 
+        SandboxBulkhead bulkhead = admit(context);
+        try {
+            return runAdmitted(call, context, loader, runInContext, args);
+        } finally {
+            if (null != bulkhead) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * Admits the execution of the context with respect to the context's limit of concurrent
+     * executions. Remote agents do not limit executions, as calls are admitted before they are
+     * handed to the agents.
+     *
+     * @param context
+     * @return the bulkhead to release once the execution is done, null if executions are not limited
+     * or the execution runs beyond the limit, see {@link AdmissionPolicy#CALLER_RUNS}
+     * @throws SandboxRejectedException if the execution is not admitted
+     */
+    protected SandboxBulkhead admit(SandboxContext context) {
+        SandboxBulkhead bulkhead = getLimitingBulkhead(context);
+        if (null != bulkhead && !bulkhead.acquire(context)) {
+            return null;
+        }
+        return bulkhead;
+    }
+
+    /**
+     * Returns the bulkhead for the context. Contexts share the bulkhead of their name, unnamed contexts
+     * are limited per instance, so that unrelated contexts do not limit each other.
+     *
+     * @return the bulkhead for the context, null if the context's executions are not limited
+     */
+    private SandboxBulkhead getLimitingBulkhead(SandboxContext context) {
+        if (isRemoteService() || 0 > context.getMaximumConcurrentExecutions()) {
+            return null;
+        }
+        if (context.isUnnamed()) {
+            return context.getInstanceBulkhead();
+        }
+        return bulkheads.computeIfAbsent(context.getName(), SandboxBulkhead::new);
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#getBulkhead(java.lang.String)
+     */
+    @Override
+    public SandboxBulkhead getBulkhead(String contextName) {
+        if (null == contextName) {
+            return null;
+        }
+        return bulkheads.get(contextName);
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#getBulkhead(net.datenwerke.sandbox.SandboxContext)
+     */
+    @Override
+    public SandboxBulkhead getBulkhead(SandboxContext context) {
+        if (context.isUnnamed()) {
+            return 0 > context.getMaximumConcurrentExecutions() ? null : context.getInstanceBulkhead();
+        }
+        return getBulkhead(context.getName());
+    }
+
+    /**
+     * Runs a call that has been admitted.
+     *
+     * @see #admit(SandboxContext)
+     */
+    protected <V> SandboxedCallResult<V> runAdmitted(Class<? extends SandboxedEnvironment> call,
+                                                     SandboxContext context, ClassLoader loader, boolean runInContext, Object[] args) {
+
         if (isRemoteService() && context.isDebug()) {
             logger.log(Level.INFO, "run remote");
         }
@@ -571,46 +765,72 @@ public class SandboxServiceImpl implements SandboxService {
             if (!isRemoteService() && context.isRunRemote() && null != jvmPool) {
                 result = jvmPool.addTask(new JvmSandboxTask(call, context, runInContext, args)).get().getRaw();
             } else if (context.isRunInThread()) {
-                Method runMethod = getCalleableMethod(call, loader);
-                Object instance = getCalleableInstance(call, loader, args);
+                EnvironmentInvoker invoker = getInvoker(call, loader);
+                Object instance = invoker.newInstance(this, loader, args);
 
-                SandboxedThread thread = new SandboxedThread(this, runMethod, instance, context, runInContext);
-                thread.setContextClassLoader(loader);
+                SandboxWorkerPool workers = workerPool;
+                SandboxWorkerPool.Worker worker = null == workers ? null : workers.acquire();
 
-                /* put in monitor queue */
-                monitorQueue.add(new SandboxMonitoredThread(Thread.currentThread(), thread, context));
+                SandboxedThread thread;
+                if (null == worker) {
+                    thread = new SandboxedThread(this, invoker, instance, context, runInContext);
+                    thread.setContextClassLoader(loader);
 
-                /* start thread and wait */
-                try {
-                    thread.start();
-                    thread.join();
-                } catch (InterruptedException ignore) {
-                }
+                    /* put in monitor queue */
+                    monitorQueue.add(new SandboxMonitoredThread(Thread.currentThread(), thread, context));
 
-                /* obtain result */
-                if (thread.isSuccess()) {
-                    result = thread.getResult();
+                    /* start thread and wait */
+                    try {
+                        thread.start();
+                        thread.join();
+                    } catch (InterruptedException ignore) {
+                    }
                 } else {
-                    if (isRemoteService() && thread.isKilled() && !thread.isKilledSafely()) {
-                        throw new JvmKilledUnsafeThreadRuntimeException();
+                    thread = worker;
+                    worker.assign(invoker, instance, context, runInContext, loader);
+
+                    /* put in monitor queue */
+                    SandboxMonitoredThread monitor = new SandboxMonitoredThread(Thread.currentThread(), worker, context);
+                    monitorQueue.add(monitor);
+
+                    /* hand over to the pooled thread and wait */
+                    try {
+                        worker.runTask();
+                    } catch (InterruptedException ignore) {
                     }
+                    monitorQueue.remove(monitor);
+                }
 
-                    Exception e = thread.getException();
-                    if (null == e) {
-                        throw new JvmKilledThreadRuntimeException();
+                /* obtain result */
+                try {
+                    if (thread.isSuccess()) {
+                        result = thread.getResult();
+                    } else {
+                        if (isRemoteService() && thread.isKilled() && !thread.isKilledSafely()) {
+                            throw new JvmKilledUnsafeThreadRuntimeException();
+                        }
+
+                        Exception e = thread.getException();
+                        if (null == e) {
+                            throw new JvmKilledThreadRuntimeException();
+                        }
+                        throw e;
+                    }
+                } finally {
+                    if (null != worker) {
+                        workers.release(worker);
                     }
-                    throw e;
                 }
             } else {
-                Method runMethod = getCalleableMethod(call, loader);
-                Object instance = getCalleableInstance(call, loader, args);
+                EnvironmentInvoker invoker = getInvoker(call, loader);
+                Object instance = invoker.newInstance(this, loader, args);
 
                 if (runInContext) {
-                    result = runMethod.invoke(instance);
+                    result = invoker.execute(instance);
                 } else {
                     String pw = restrict(context);
                     try {
-                        result = runMethod.invoke(instance);
+                        result = invoker.execute(instance);
                     } finally {
                         releaseRestriction(pw);
                     }
@@ -622,13 +842,442 @@ public class SandboxServiceImpl implements SandboxService {
             if (e instanceof JvmKilledUnsafeThreadRuntimeException) {
                 throw (JvmKilledUnsafeThreadRuntimeException) e;
             }
-            if (e instanceof SandboxException) {
-                throw (SandboxException) e;
+            throw toSandboxException(e);
+        } finally {
+            if (loader instanceof SandboxClassLoader) {
+                PreloadManifest.record((SandboxClassLoader) loader);
             }
-            if (e instanceof InvocationTargetException && null != e.getCause()) {
-                throw new SandboxException(e.getCause().getClass().getName() + ": " + e.getCause().getMessage(), e);
+        }
+    }
+
+    protected SandboxException toSandboxException(Exception e) {
+        if (e instanceof SandboxException) {
+            return (SandboxException) e;
+        }
+        if (e instanceof InvocationTargetException && null != e.getCause()) {
+            return new SandboxException(e.getCause().getClass().getName() + ": " + e.getCause().getMessage(), e);
+        }
+        return new SandboxException(e);
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#runSandboxedBatch(java.lang.Class, net.datenwerke.sandbox.SandboxContext, java.util.List)
+     */
+    @Override
+    public List<SandboxedBatchResult> runSandboxedBatch(Class<? extends SandboxedEnvironment> call,
+                                                        SandboxContext context, List<Object[]> argumentSets) {
+        List<SandboxedBatchTask> tasks = new ArrayList<>(argumentSets.size());
+        for (Object[] args : argumentSets) {
+            tasks.add(new SandboxedBatchTask(call, args));
+        }
+        return runSandboxedBatch(tasks, context);
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#runSandboxedBatch(java.util.List, net.datenwerke.sandbox.SandboxContext)
+     */
+    @Override
+    public List<SandboxedBatchResult> runSandboxedBatch(List<SandboxedBatchTask> tasks, SandboxContext context) {
+        if (tasks.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        /* a batch counts as a single execution */
+        SandboxBulkhead bulkhead = admit(context);
+        try {
+            return runBatchAdmitted(tasks, context);
+        } finally {
+            if (null != bulkhead) {
+                bulkhead.release();
             }
-            throw new SandboxException(e);
+        }
+    }
+
+    private List<SandboxedBatchResult> runBatchAdmitted(List<SandboxedBatchTask> tasks, SandboxContext context) {
+        if (!isRemoteService() && context.isRunRemote() && null != jvmPool) {
+            try {
+                return (List<SandboxedBatchResult>) jvmPool.addTask(new JvmSandboxBatchTask(tasks, context)).get().getRaw();
+            } catch (Exception e) {
+                throw toSandboxException(e);
+            }
+        }
+
+        SandboxClassLoaderPool pool = classLoaderPool;
+        boolean pooled = null != pool && pool.isPoolable(context);
+        SandboxClassLoader loader = pooled ? pool.acquire(context, this) : initClassLoader(context);
+
+        int size = tasks.size();
+        EnvironmentInvoker[] invokers = new EnvironmentInvoker[size];
+        Object[] instances = new Object[size];
+        Object[] results = new Object[size];
+        Exception[] exceptions = new Exception[size];
+
+        boolean killed = false;
+        try {
+            for (int i = 0; i < size; i++) {
+                SandboxedBatchTask task = tasks.get(i);
+                try {
+                    invokers[i] = getInvoker(task.getCall(), loader);
+                    instances[i] = invokers[i].newInstance(this, loader, task.getArgs());
+                } catch (Exception e) {
+                    invokers[i] = null;
+                    exceptions[i] = e;
+                }
+            }
+
+            if (context.isRunInThread()) {
+                killed = runBatchInThread(context, loader, invokers, instances, results, exceptions);
+            } else {
+                String pw = restrict(context);
+                try {
+                    for (int i = 0; i < size; i++) {
+                        if (null == invokers[i]) {
+                            continue;
+                        }
+                        try {
+                            results[i] = invokers[i].execute(instances[i]);
+                        } catch (Exception e) {
+                            exceptions[i] = e;
+                        }
+                    }
+                } finally {
+                    releaseRestriction(pw);
+                }
+            }
+        } catch (JvmKilledUnsafeThreadRuntimeException e) {
+            killed = true;
+            throw e;
+        } finally {
+            PreloadManifest.record(loader);
+            if (pooled) {
+                pool.release(context, loader, killed);
+            }
+        }
+
+        List<SandboxedBatchResult> batchResults = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (null == exceptions[i]) {
+                batchResults.add(new SandboxedBatchResult(new SandboxedCallResultImpl<>(results[i])));
+            } else {
+                batchResults.add(new SandboxedBatchResult(toSandboxException(exceptions[i])));
+            }
+        }
+        return batchResults;
+    }
+
+    /**
+     * Runs the tasks of a batch on a {@link SandboxedBatchThread}. Once a task is killed, the remaining
+     * tasks are continued on a new thread.
+     *
+     * @return true if any task was killed
+     */
+    private boolean runBatchInThread(SandboxContext context, SandboxClassLoader loader, EnvironmentInvoker[] invokers,
+                                     Object[] instances, Object[] results, Exception[] exceptions) {
+        boolean killed = false;
+
+        int next = 0;
+        while (next < invokers.length) {
+            SandboxedBatchThread thread = new SandboxedBatchThread(this, context, invokers, instances, results, exceptions, next);
+            thread.setContextClassLoader(loader);
+
+            SandboxMonitoredThread monitor = new SandboxMonitoredThread(Thread.currentThread(), thread, context);
+            thread.setMonitor(monitor);
+
+            /* start thread, put in monitor queue and wait */
+            thread.start();
+            monitorQueue.add(monitor);
+            try {
+                thread.join();
+            } catch (InterruptedException ignore) {
+                /* interrupted by a kill, give the thread the chance to stop */
+                try {
+                    thread.join(KILL_GRACE_PERIOD);
+                } catch (InterruptedException ignoreAgain) {
+                }
+            }
+            monitorQueue.remove(monitor);
+
+            if (monitor.isKilling()) {
+                /* the thread may stop before the kill was completed, which ends by interrupting this thread */
+                monitor.awaitKilled();
+                Thread.interrupted();
+            }
+
+            next = thread.getNext();
+            if (next >= invokers.length) {
+                break;
+            }
+
+            if (isRemoteService() && thread.isKilled() && !thread.isKilledSafely()) {
+                throw new JvmKilledUnsafeThreadRuntimeException();
+            }
+
+            if (thread.isAlive() || null != thread.getFailure()) {
+                /* the thread could not be stopped or the batch failed as a whole, give up on the remaining tasks */
+                Exception e = thread.isAlive() ? new JvmKilledThreadRuntimeException() : thread.getFailure();
+                for (int i = next; i < invokers.length; i++) {
+                    if (null == exceptions[i]) {
+                        exceptions[i] = e;
+                    }
+                }
+                return killed || thread.isKilled();
+            }
+
+            killed = true;
+            exceptions[next] = null != thread.getException() ? thread.getException() : new JvmKilledThreadRuntimeException();
+            next++;
+        }
+
+        return killed;
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#runSandboxedAsync(java.lang.Class, net.datenwerke.sandbox.SandboxContext, java.lang.Object[])
+     */
+    @Override
+    public <V> SandboxedFuture<V> runSandboxedAsync(Class<? extends SandboxedEnvironment> call, SandboxContext context, Object... args) {
+        return runAsync(call, context, false, args);
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#runInContextAsync(java.lang.Class, net.datenwerke.sandbox.SandboxContext, java.lang.Object[])
+     */
+    @Override
+    public <V> SandboxedFuture<V> runInContextAsync(Class<? extends SandboxedEnvironment> call, SandboxContext context, Object... args) {
+        return runAsync(call, context, true, args);
+    }
+
+    /**
+     * Hands remote calls to the {@link JvmPool} and completes the future once the pool reports the result.
+     * Local calls are run by {@link #runPooled(Class, SandboxContext, boolean, Object[])} on the async executor.
+     * Calls of limited contexts are admitted by the context's {@link SandboxBulkhead} before they are dispatched.
+     */
+    protected <V> SandboxedFuture<V> runAsync(Class<? extends SandboxedEnvironment> call,
+                                              SandboxContext context, boolean runInContext, Object[] args) {
+        SandboxedFuture<V> future = new SandboxedFuture<>();
+        if (null == call) {
+            future.complete(null);
+            return future;
+        }
+
+        SandboxBulkhead bulkhead = getLimitingBulkhead(context);
+        if (null == bulkhead) {
+            dispatchAsync(call, context, runInContext, args, future, null);
+            return future;
+        }
+
+        if (context.getAdmissionPolicy() == AdmissionPolicy.CALLER_RUNS) {
+            if (bulkhead.tryAcquire(context)) {
+                dispatchAsync(call, context, runInContext, args, future, bulkhead);
+            } else {
+                try {
+                    future.complete(this.<V>runPooled(call, context, runInContext, args));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+            return future;
+        }
+
+        /* calls that cannot be admitted right away are queued by the bulkhead, no executor thread waits for admission */
+        AtomicReference<SandboxBulkhead.Waiter> queued = new AtomicReference<>();
+        future.setCanceller(mayInterruptIfRunning -> {
+            SandboxBulkhead.Waiter waiter = queued.get();
+            if (null != waiter) {
+                bulkhead.cancel(waiter);
+            }
+        });
+        queued.set(bulkhead.acquireAsync(context,
+                () -> dispatchAsync(call, context, runInContext, args, future, bulkhead),
+                future::completeExceptionally));
+
+        return future;
+    }
+
+    /**
+     * Runs an admitted asynchronous call.
+     *
+     * @param bulkhead the bulkhead to release once the call is done, null if the call is not limited
+     */
+    private <V> void dispatchAsync(Class<? extends SandboxedEnvironment> call, SandboxContext context, boolean runInContext,
+                                   Object[] args, SandboxedFuture<V> future, SandboxBulkhead bulkhead) {
+        Runnable release = () -> {
+            if (null != bulkhead) {
+                bulkhead.release();
+            }
+        };
+
+        /* cancelled while queued */
+        if (future.isDone()) {
+            release.run();
+            return;
+        }
+
+        if (!isRemoteService() && context.isRunRemote() && null != jvmPool) {
+            Future<SandboxedCallResult> task = jvmPool.addTask(new JvmSandboxTask(call, context, runInContext, args));
+            if (task instanceof JvmFuture) {
+                future.setCanceller(task::cancel);
+                ((JvmFuture) task).getCompletion().whenComplete((result, e) -> {
+                    release.run();
+                    if (null == e) {
+                        future.complete(new SandboxedCallResultImpl<V>(result.getRaw()));
+                    } else {
+                        future.completeExceptionally(e instanceof SandboxException ? e : new SandboxException(e));
+                    }
+                });
+                return;
+            }
+
+            /* the task is already queued in the pool, wait for it instead of submitting it again */
+            future.setCanceller(task::cancel);
+            try {
+                getAsyncExecutor().execute(() -> {
+                    SandboxedCallResult result = null;
+                    Throwable failure = null;
+                    try {
+                        result = task.get();
+                    } catch (ExecutionException e) {
+                        failure = null == e.getCause() ? e : e.getCause();
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        release.run();
+                    }
+
+                    if (null == failure) {
+                        future.complete(new SandboxedCallResultImpl<V>(result.getRaw()));
+                    } else {
+                        future.completeExceptionally(failure instanceof SandboxException ? failure : new SandboxException(failure));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                task.cancel(true);
+                release.run();
+                future.completeExceptionally(new SandboxException(e));
+            }
+            return;
+        }
+
+        AtomicReference<Thread> runner = new AtomicReference<>();
+        future.setCanceller(mayInterruptIfRunning -> {
+            synchronized (runner) {
+                Thread thread = runner.get();
+                if (null != thread && mayInterruptIfRunning) {
+                    abort(thread);
+                }
+            }
+        });
+
+        try {
+            getAsyncExecutor().execute(() -> {
+                synchronized (runner) {
+                    if (future.isDone()) {
+                        release.run();
+                        return;
+                    }
+                    runner.set(Thread.currentThread());
+                }
+
+                SandboxedCallResult<V> result = null;
+                Throwable failure = null;
+                try {
+                    result = this.<V>runPooledAdmitted(call, context, runInContext, args);
+                } catch (Throwable e) {
+                    failure = e;
+                } finally {
+                    synchronized (runner) {
+                        runner.set(null);
+
+                        /* do not pass an abort on to the next call */
+                        Thread.interrupted();
+                    }
+
+                    /* free the permit before the caller learns about the outcome */
+                    release.run();
+                }
+
+                if (null == failure) {
+                    future.complete(result);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release.run();
+            future.completeExceptionally(new SandboxException(e));
+        }
+    }
+
+    /**
+     * Kills the sandboxed threads the calling thread waits for, or interrupts the calling thread
+     * if the call does not run in a thread of its own.
+     *
+     * @param callingThread
+     */
+    protected void abort(Thread callingThread) {
+        boolean killed = false;
+        for (SandboxMonitoredThread monitor : monitorQueue) {
+            if (monitor.getCallingThread() == callingThread && monitor.isAlive()) {
+                monitorQueue.remove(monitor);
+                kill(monitor, new SandboxedTaskKilledException("killed task as it was cancelled"));
+                killed = true;
+            }
+        }
+
+        if (!killed) {
+            callingThread.interrupt();
+        }
+    }
+
+    /**
+     * (non-Javadoc)
+     *
+     * @see net.datenwerke.sandbox.SandboxService#setAsyncExecutor(java.util.concurrent.ExecutorService)
+     */
+    @Override
+    public void setAsyncExecutor(ExecutorService executor) {
+        getSecurityManager().checkPermission(new SandboxRuntimePermission("setAsyncExecutor"));
+
+        this.asyncExecutor = executor;
+    }
+
+    /**
+     * Returns the executor for local asynchronous calls. The default executor's threads are started
+     * right away, so that they do not inherit anything from later callers.
+     *
+     * @return
+     */
+    protected ExecutorService getAsyncExecutor() {
+        ExecutorService executor = asyncExecutor;
+        if (null != executor) {
+            return executor;
+        }
+
+        synchronized (this) {
+            if (null == asyncExecutor) {
+                getSecurityManager().checkPermission(new SandboxRuntimePermission("setAsyncExecutor"));
+
+                final AtomicInteger threadCnt = new AtomicInteger(1);
+                int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread thread = Executors.defaultThreadFactory().newThread(r);
+                    thread.setDaemon(true);
+                    thread.setName("sandboxAsync-" + threadCnt.getAndIncrement());
+                    return thread;
+                });
+                pool.prestartAllCoreThreads();
+                asyncExecutor = pool;
+            }
+            return asyncExecutor;
         }
     }
 
@@ -655,8 +1304,7 @@ public class SandboxServiceImpl implements SandboxService {
     @Override
     public <V> SandboxedCallResult<V> runInContext(Class<? extends SandboxedEnvironment> call,
                                                    SandboxContext context, Object... args) {
-        SandboxClassLoader loader = initClassLoader(context);
-        return runInContext(call, context, loader, args);
+        return runPooled(call, context, true, args);
     }
 
     /**
@@ -682,58 +1330,19 @@ public class SandboxServiceImpl implements SandboxService {
     }
 
     protected Object getCalleableInstance(Class<?> call, ClassLoader loader, Object... args) throws ClassNotFoundException, InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, NoSuchMethodException, SecurityException {
-        Class<?> clazz = Class.forName(call.getName(), true, loader);
-
-        /* find constructor */
-        Constructor constructor = null;
-        Object[] values = null;
-        if (null == args || args.length == 0) {
-            constructor = clazz.getDeclaredConstructor((Class<?>[]) null);
-        } else {
-            int length = args.length;
-            Class<?>[] typeArray = new Class<?>[length];
-            values = new Object[length];
-            for (int i = 0; i < length; i++) {
-                Object o = args[i];
-                if (o instanceof TypedArgument) {
-                    typeArray[i] = Class.forName(((TypedArgument) o).getType().getName(), true, loader);
-                    if (((TypedArgument) o).isBridge()) {
-                        values[i] = bridge(((TypedArgument) o).getValue(), loader);
-                    } else {
-                        values[i] = ((TypedArgument) o).getValue();
-                    }
-                } else {
-                    typeArray[i] = Class.forName(o.getClass().getName(), true, loader);
-                    values[i] = o;
-                }
-            }
-
-            try {
-                constructor = clazz.getDeclaredConstructor(typeArray);
-            } catch (NoSuchMethodException e) {
-                throw new SandboxConfigurationException(e.getMessage() + ": Could not load constructor for the SandboxedEnvironment object. I tried to find a constructor " +
-                        "with the following types: " + typeArray +
-                        " Is there a classloader problem?", e);
-            }
-        }
+        return getInvoker(call, loader).newInstance(this, loader, args);
+    }
 
-        /* generate instance */
-        constructor.setAccessible(true);
-        if (null == values) {
-            return constructor.newInstance();
-        }
-        try {
-            return constructor.newInstance(values);
-        } catch (IllegalArgumentException e) {
-            StringBuffer buf = new StringBuffer("[");
-            for (Object o : values) {
-                buf.append(o).append(", ");
-            }
-            buf.append("]");
-            throw new SandboxConfigurationException(e.getMessage() + ": Could not instantiate the SandboxedEnvironment object. " +
-                    "Is there a classloader problem? The SandboxedEnvironment's constructor expects " +
-                    constructor + " but I got: " + buf, e);
-        }
+    /**
+     * Returns the invoker for the call's class as loaded by the given loader. Handles to its constructors
+     * and execute method are kept with the loaded class, so that repeated calls skip reflection.
+     *
+     * @param call
+     * @param loader
+     * @return
+     */
+    EnvironmentInvoker getInvoker(Class<?> call, ClassLoader loader) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+        return EnvironmentInvoker.of(Class.forName(call.getName(), true, loader));
     }
 
     /**
@@ -770,6 +1379,8 @@ public class SandboxServiceImpl implements SandboxService {
     }
 
     void kill(SandboxMonitoredThread monitor, SandboxedTaskKilledException exception) {
+        monitor.setKilling();
+
         boolean safe = false;
         try {
             BadKillInfo killInfo = cleanupService.kill(monitor, exception);
@@ -781,6 +1392,8 @@ public class SandboxServiceImpl implements SandboxService {
                 }
             }
         } catch (Exception ignore) {
+        } finally {
+            monitor.setKilled();
         }
 
         if (!safe) {
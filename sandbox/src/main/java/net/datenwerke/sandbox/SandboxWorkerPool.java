@@ -0,0 +1,357 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.datenwerke.sandbox.exception.SandboxConfigurationException;
+
+/**
+ * A bounded pool of started {@link SandboxedThread}s that run the calls of contexts with
+ * {@link SandboxContext#setRunInThread(boolean)}, instead of starting a new thread per call.
+ * <p>
+ * Pooled threads are monitored and killed like any other sandboxed thread. A thread that was killed,
+ * that failed with an error or that could not be cleaned up is discarded and replaced in the background.
+ * Otherwise its restriction, thread locals, interrupt status, name, priority, context class loader and
+ * uncaught exception handler are reset before it runs the next call. If all threads are busy, the call
+ * runs on a new thread as without a pool.
+ * <p>
+ * The pool is disabled by default, see {@link SandboxService#setWorkerPool(SandboxWorkerPool)}.
+ */
+public class SandboxWorkerPool {
+
+    private static final Logger logger = Logger.getLogger(SandboxWorkerPool.class.getName());
+
+    private static final Field THREAD_LOCALS = threadField("threadLocals");
+    private static final Field INHERITABLE_THREAD_LOCALS = threadField("inheritableThreadLocals");
+
+    private static final AtomicInteger poolNumber = new AtomicInteger();
+
+    private final SandboxService service;
+    private final String name;
+    private final ClassLoader contextClassLoader;
+
+    private final BlockingDeque<Worker> idle = new LinkedBlockingDeque<>();
+    private final BlockingQueue<Boolean> replacements = new LinkedBlockingQueue<>();
+    private final Thread replenisher;
+    private final AtomicInteger workerNumber = new AtomicInteger();
+
+    private volatile boolean shutdown;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong replaced = new AtomicLong();
+
+    /**
+     * Starts the given number of threads for the given service.
+     *
+     * @param service
+     * @param size
+     * @throws SandboxConfigurationException if the thread locals of pooled threads cannot be cleared,
+     *                                       e.g., as java.lang is not opened to the sandbox on Java 9 and later
+     */
+    public SandboxWorkerPool(SandboxService service, int size) {
+        if (null == THREAD_LOCALS || null == INHERITABLE_THREAD_LOCALS) {
+            throw new SandboxConfigurationException("The thread locals of pooled threads cannot be cleared, "
+                    + "open java.lang to the sandbox (--add-opens java.base/java.lang=ALL-UNNAMED) or run without a worker pool");
+        }
+
+        this.service = service;
+        this.name = "sandbox-worker-" + poolNumber.incrementAndGet();
+        this.contextClassLoader = SandboxWorkerPool.class.getClassLoader();
+
+        for (int i = 0; i < size; i++) {
+            idle.add(newWorker());
+        }
+
+        /* replacements are started by a thread of their own, so that they inherit nothing from the calling thread */
+        replenisher = new Thread(name + "-replenisher") {
+            @Override
+            public void run() {
+                while (!shutdown) {
+                    try {
+                        replacements.take();
+                        if (!shutdown) {
+                            idle.addFirst(newWorker());
+                        }
+                    } catch (InterruptedException ignore) {
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "could not replace sandbox worker", e);
+                    }
+                }
+            }
+        };
+        replenisher.setDaemon(true);
+        replenisher.start();
+    }
+
+    private Worker newWorker() {
+        Worker worker = new Worker(service, name + "-" + workerNumber.incrementAndGet());
+        worker.setDaemon(true);
+        worker.setContextClassLoader(contextClassLoader);
+        worker.start();
+        return worker;
+    }
+
+    /**
+     * Hands out an idle thread or null if all threads are busy. Threads have to be returned
+     * using {@link #release(Worker)}.
+     *
+     * @return
+     */
+    Worker acquire() {
+        if (!shutdown) {
+            Worker worker;
+            while (null != (worker = idle.pollFirst())) {
+                if (worker.isAlive()) {
+                    hits.incrementAndGet();
+                    return worker;
+                }
+                replace(worker);
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns a thread once the outcome of its call was obtained. Threads that cannot be reused are replaced.
+     *
+     * @param worker
+     */
+    void release(Worker worker) {
+        if (shutdown) {
+            worker.retire();
+        } else if (worker.isKilled() || !worker.isReusable() || !worker.isAlive()) {
+            replace(worker);
+        } else {
+            /* most recently used first */
+            idle.addFirst(worker);
+        }
+    }
+
+    private void replace(Worker worker) {
+        worker.retire();
+        replaced.incrementAndGet();
+        replacements.add(Boolean.TRUE);
+    }
+
+    /**
+     * Stops all idle threads. Busy threads stop once they are released.
+     */
+    public void shutdown() {
+        shutdown = true;
+        replenisher.interrupt();
+
+        Worker worker;
+        while (null != (worker = idle.pollFirst())) {
+            worker.retire();
+        }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of calls that ran on a pooled thread
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of calls that ran on a new thread since all pooled threads were busy
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of threads that were discarded and replaced
+     */
+    public long getReplaced() {
+        return replaced.get();
+    }
+
+    private static Field threadField(String name) {
+        try {
+            Field field = Thread.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "cannot access Thread." + name + ", sandbox workers cannot be pooled", e);
+            return null;
+        }
+    }
+
+    /**
+     * A pooled thread. The thread waits for a call, runs it like a {@link SandboxedThread} and cleans up.
+     */
+    static final class Worker extends SandboxedThread {
+
+        private final Object lock = new Object();
+        private final String workerName;
+
+        private volatile long taskNumber;
+        private ClassLoader loader;
+        private CountDownLatch done;
+
+        private volatile boolean busy;
+        private volatile boolean reusable;
+        private volatile boolean retired;
+
+        Worker(SandboxService service, String name) {
+            super(service, name);
+            this.workerName = name;
+        }
+
+        /**
+         * Assigns the call to be run by the next {@link #runTask()}.
+         */
+        void assign(EnvironmentInvoker invoker, Object instance, SandboxContext context, boolean runInContext, ClassLoader loader) {
+            synchronized (lock) {
+                super.assign(invoker, instance, context, runInContext);
+                this.loader = loader;
+                this.taskNumber++;
+                this.reusable = false;
+                this.busy = true;
+            }
+        }
+
+        /**
+         * Runs the assigned call and waits for it to finish, as {@link Thread#join()} would.
+         *
+         * @throws InterruptedException if the waiting thread was interrupted, e.g., as the call was killed
+         */
+        void runTask() throws InterruptedException {
+            CountDownLatch latch = new CountDownLatch(1);
+            synchronized (lock) {
+                done = latch;
+                lock.notifyAll();
+            }
+            latch.await();
+        }
+
+        void retire() {
+            synchronized (lock) {
+                retired = true;
+                lock.notifyAll();
+            }
+        }
+
+        boolean isReusable() {
+            return reusable && !busy && !retired;
+        }
+
+        @Override
+        long getTaskNumber() {
+            return taskNumber;
+        }
+
+        @Override
+        boolean isRunningTask(long taskNumber) {
+            return busy && this.taskNumber == taskNumber && isAlive();
+        }
+
+        @Override
+        boolean isTaskFinished(long taskNumber) {
+            return !isRunningTask(taskNumber);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                CountDownLatch latch;
+                synchronized (lock) {
+                    while (null == done && !retired) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException ignore) {
+                        }
+                    }
+                    if (null == done) {
+                        return;
+                    }
+                    latch = done;
+                    done = null;
+                }
+
+                boolean completed = false;
+                try {
+                    setContextClassLoader(loader);
+                    super.run();
+                    completed = true;
+                } finally {
+                    reusable = completed && cleanup();
+                    busy = false;
+                    latch.countDown();
+                }
+            }
+        }
+
+        /**
+         * Resets the state sandboxed code may have left behind on this thread.
+         *
+         * @return false if the thread must not be reused
+         */
+        private boolean cleanup() {
+            try {
+                SecurityManager securityManager = System.getSecurityManager();
+                if (securityManager instanceof SandboxSecurityManager && ((SandboxSecurityManager) securityManager).isRestricted()) {
+                    return false;
+                }
+                THREAD_LOCALS.set(this, null);
+                INHERITABLE_THREAD_LOCALS.set(this, null);
+
+                Thread.interrupted();
+                setName(workerName);
+                setPriority(NORM_PRIORITY);
+                setUncaughtExceptionHandler(null);
+                setContextClassLoader(SandboxWorkerPool.class.getClassLoader());
+                loader = null;
+
+                return true;
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "could not clean up sandbox worker", e);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.io.Serializable;
+
+import net.datenwerke.sandbox.exception.SandboxException;
+import net.datenwerke.sandbox.exception.SandboxedTaskKilledException;
+
+/**
+ * The outcome of a single task of a batch, either the task's result or the exception
+ * it failed with.
+ *
+ * @see SandboxService#runSandboxedBatch(java.util.List, SandboxContext)
+ */
+public class SandboxedBatchResult implements Serializable {
+
+    private static final long serialVersionUID = 6016437381364861262L;
+
+    private final SandboxedCallResult<?> result;
+    private final SandboxException exception;
+
+    public SandboxedBatchResult(SandboxedCallResult<?> result) {
+        this.result = result;
+        this.exception = null;
+    }
+
+    public SandboxedBatchResult(SandboxException exception) {
+        this.result = null;
+        this.exception = exception;
+    }
+
+    public boolean isSuccess() {
+        return null == exception;
+    }
+
+    /**
+     * Returns the task's result.
+     *
+     * @return
+     * @throws SandboxException the exception of the task if it failed
+     */
+    public <V> SandboxedCallResult<V> getResult() {
+        if (null != exception) {
+            throw exception;
+        }
+        return (SandboxedCallResult<V>) result;
+    }
+
+    public SandboxException getException() {
+        return exception;
+    }
+
+    /**
+     * @return true if the task was killed, e.g. as it exceeded its runtime
+     */
+    public boolean isKilled() {
+        return exception instanceof SandboxedTaskKilledException;
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.io.Serializable;
+
+/**
+ * A single task of a batch run by {@link SandboxService#runSandboxedBatch(java.util.List, SandboxContext)},
+ * that is the {@link SandboxedEnvironment} class and the arguments passed to its constructor.
+ */
+public class SandboxedBatchTask implements Serializable {
+
+    private static final long serialVersionUID = -2783514436281571104L;
+
+    private final Class<? extends SandboxedEnvironment> call;
+    private final Object[] args;
+
+    public SandboxedBatchTask(Class<? extends SandboxedEnvironment> call, Object... args) {
+        if (null == call) {
+            throw new IllegalArgumentException("call must not be null");
+        }
+        this.call = call;
+        this.args = null == args ? new Object[0] : args;
+    }
+
+    public Class<? extends SandboxedEnvironment> getCall() {
+        return call;
+    }
+
+    public Object[] getArgs() {
+        return args;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.util.UUID;
+
+/**
+ * Thread running the tasks of a batch one after another. The thread is registered with
+ * the monitor once, every task is restricted separately, so that the runtime measurement
+ * can be restarted between tasks outside of the restriction.
+ * <p>
+ * If a task is killed the thread stops, the remaining tasks are left to a new thread.
+ *
+ * @see SandboxService#runSandboxedBatch(java.util.List, SandboxContext)
+ */
+class SandboxedBatchThread extends SandboxedThread {
+
+    private final SandboxService service;
+    private final SandboxContext context;
+
+    private final EnvironmentInvoker[] invokers;
+    private final Object[] instances;
+    private final Object[] results;
+    private final Exception[] exceptions;
+
+    private volatile SandboxMonitoredThread monitor;
+
+    /**
+     * the index of the first task that has not been completed
+     */
+    private volatile int next;
+
+    private volatile Exception failure;
+
+    /**
+     * @param service
+     * @param context
+     * @param invokers   the invokers per task, null for tasks that are to be skipped
+     * @param instances  the environments per task
+     * @param results    receives the results per task
+     * @param exceptions receives the exceptions per task
+     * @param first      the index of the first task to run
+     */
+    SandboxedBatchThread(SandboxService service, SandboxContext context, EnvironmentInvoker[] invokers,
+                         Object[] instances, Object[] results, Exception[] exceptions, int first) {
+        super(service, "sandbox-" + context.getName());
+        this.service = service;
+        this.context = context;
+        this.invokers = invokers;
+        this.instances = instances;
+        this.results = results;
+        this.exceptions = exceptions;
+        this.next = first;
+    }
+
+    void setMonitor(SandboxMonitoredThread monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public void run() {
+        String pw = UUID.randomUUID().toString();
+        try {
+            for (int i = next; i < invokers.length; i = next) {
+                if (null != invokers[i]) {
+                    /* the measurement queries the thread's cpu time, restart it outside of the restriction */
+                    if (null != monitor) {
+                        monitor.restart();
+                    }
+
+                    service.restrict(pw, context);
+                    try {
+                        results[i] = invokers[i].execute(instances[i]);
+                    } catch (Exception e) {
+                        exceptions[i] = e;
+                    } finally {
+                        service.releaseRestriction(pw);
+                    }
+
+                    /* the task was killed, stop and leave the remaining tasks to the caller */
+                    if (null != monitor && monitor.isKilling()) {
+                        return;
+                    }
+                }
+                next = i + 1;
+            }
+        } catch (Exception e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * @return the index of the first task that has not been completed
+     */
+    int getNext() {
+        return next;
+    }
+
+    /**
+     * @return the exception that ended the batch outside of a task, if any
+     */
+    Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    boolean isRunningTask(long taskNumber) {
+        return isAlive();
+    }
+
+}
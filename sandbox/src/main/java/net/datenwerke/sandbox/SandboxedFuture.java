@@ -0,0 +1,112 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous sandboxed call, see {@link SandboxService#runSandboxedAsync(Class, SandboxContext, Object...)}.
+ * <p>
+ * Cancelling the future with mayInterruptIfRunning set kills a running call. Calls run in a thread
+ * (see {@link SandboxContext#setRunInThread(boolean)}) are killed like calls that exceed their maximum runtime,
+ * calls on remote agents by restarting the agent's jvm. Other local calls can only be interrupted.
+ * Calls that have not yet started are not run at all.
+ */
+public class SandboxedFuture<V> extends CompletableFuture<SandboxedCallResult<V>> {
+
+    private static volatile ScheduledExecutorService timer;
+
+    private volatile Canceller canceller;
+
+    /**
+     * Aborts the call behind a {@link SandboxedFuture}.
+     */
+    interface Canceller {
+        void cancel(boolean mayInterruptIfRunning);
+    }
+
+    void setCanceller(Canceller canceller) {
+        this.canceller = canceller;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            abort(mayInterruptIfRunning);
+        }
+        return cancelled;
+    }
+
+    /**
+     * Completes the future with a {@link TimeoutException} and kills the call if it does not complete
+     * within the given time.
+     *
+     * @param timeout
+     * @param unit
+     * @return this future
+     */
+    public SandboxedFuture<V> within(long timeout, TimeUnit unit) {
+        ScheduledFuture<?> timeoutTask = getTimer().schedule(() -> {
+            if (completeExceptionally(new TimeoutException("sandboxed call timed out"))) {
+                abort(true);
+            }
+        }, timeout, unit);
+
+        whenComplete((result, e) -> timeoutTask.cancel(false));
+        return this;
+    }
+
+    private void abort(boolean mayInterruptIfRunning) {
+        Canceller canceller = this.canceller;
+        if (null != canceller) {
+            canceller.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    static ScheduledExecutorService getTimer() {
+        if (null == timer) {
+            synchronized (SandboxedFuture.class) {
+                if (null == timer) {
+                    ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                        Thread thread = Executors.defaultThreadFactory().newThread(r);
+                        thread.setDaemon(true);
+                        thread.setName("sandboxTimeout");
+                        return thread;
+                    });
+                    executor.setRemoveOnCancelPolicy(true);
+                    timer = executor;
+                }
+            }
+        }
+        return timer;
+    }
+}
@@ -36,20 +36,22 @@ import net.datenwerke.sandbox.exception.SandboxedTaskKilledException;
  */
 public class SandboxedThread extends Thread {
 
-    private final Method method;
-    private final Object instance;
-    private final SandboxContext context;
     private final SandboxService service;
-    private final boolean runInContext;
 
-    private boolean success = false;
-    private Object result;
+    private Method method;
+    private EnvironmentInvoker invoker;
+    private Object instance;
+    private SandboxContext context;
+    private boolean runInContext;
 
-    private Exception exception;
+    private volatile boolean success = false;
+    private volatile Object result;
 
-    private boolean killed;
-    private boolean safe;
-    private boolean started = false;
+    private volatile Exception exception;
+
+    private volatile boolean killed;
+    private volatile boolean safe;
+    private volatile boolean started = false;
 
     public SandboxedThread(SandboxService service,
                            Method method,
@@ -57,10 +59,67 @@ public class SandboxedThread extends Thread {
                            SandboxContext context,
                            boolean runInContext) {
         this.service = service;
+        assign(method, instance, context, runInContext);
+    }
+
+    SandboxedThread(SandboxService service,
+                    EnvironmentInvoker invoker,
+                    Object instance,
+                    SandboxContext context,
+                    boolean runInContext) {
+        this.service = service;
+        assign(invoker, instance, context, runInContext);
+    }
+
+    /**
+     * Creates a thread without a task, see {@link SandboxWorkerPool}.
+     *
+     * @param service
+     * @param name
+     */
+    SandboxedThread(SandboxService service, String name) {
+        super(name);
+        this.service = service;
+    }
+
+    /**
+     * Sets the task to be run next and resets the outcome of the previous one.
+     *
+     * @param method
+     * @param instance
+     * @param context
+     * @param runInContext
+     */
+    void assign(Method method, Object instance, SandboxContext context, boolean runInContext) {
+        this.invoker = null;
         this.method = method;
+        prepare(instance, context, runInContext);
+    }
+
+    /**
+     * Sets the task to be run next, the environment is executed using the invoker.
+     *
+     * @param invoker
+     * @param instance
+     * @param context
+     * @param runInContext
+     */
+    void assign(EnvironmentInvoker invoker, Object instance, SandboxContext context, boolean runInContext) {
+        this.invoker = invoker;
+        this.method = null;
+        prepare(instance, context, runInContext);
+    }
+
+    private void prepare(Object instance, SandboxContext context, boolean runInContext) {
         this.instance = instance;
         this.context = context;
         this.runInContext = runInContext;
+
+        this.success = false;
+        this.result = null;
+        this.exception = null;
+        this.killed = false;
+        this.safe = false;
         setName("sandbox-" + context.getName());
     }
 
@@ -70,11 +129,11 @@ public class SandboxedThread extends Thread {
         try {
             //FIXME: 是不是搞反了
             if (runInContext) {
-                result = method.invoke(instance);
+                result = invoke();
             } else {
                 String pw = service.restrict(context);
                 try {
-                    result = method.invoke(instance);
+                    result = invoke();
                 } finally {
                     service.releaseRestriction(pw);
                 }
@@ -85,6 +144,13 @@ public class SandboxedThread extends Thread {
         }
     }
 
+    private Object invoke() throws Exception {
+        if (null != invoker) {
+            return invoker.execute(instance);
+        }
+        return method.invoke(instance);
+    }
+
     public Object getResult() {
         return result;
     }
@@ -116,4 +182,33 @@ public class SandboxedThread extends Thread {
         return started;
     }
 
+    /**
+     * @return the number of the task currently assigned to this thread
+     * @see SandboxMonitoredThread
+     */
+    long getTaskNumber() {
+        return 0;
+    }
+
+    /**
+     * Returns true while the given task is running on this thread.
+     *
+     * @param taskNumber
+     * @return
+     */
+    boolean isRunningTask(long taskNumber) {
+        return started && isAlive();
+    }
+
+    /**
+     * Returns true once the given task has ended. A thread that has not been started yet
+     * has not ended its task.
+     *
+     * @param taskNumber
+     * @return
+     */
+    boolean isTaskFinished(long taskNumber) {
+        return getState() == State.TERMINATED;
+    }
+
 }
@@ -0,0 +1,157 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.datenwerke.sandbox.permissions.StackEntry;
+
+/**
+ * Compiled form of a collection of {@link StackEntry}s that all have to match the
+ * execution stack.
+ * <p>
+ * The match of a single class against an entry's type is computed once per class
+ * and cached with a {@link ClassValue}. Matchers are interned, so entries with the same
+ * type and mode share their cache across rules and policies, and a check becomes
+ * a lookup per frame instead of repeated string comparisons.
+ *
+ * @see SandboxPolicy
+ */
+final class StackRule {
+
+    private static final ConcurrentMap<String, ClassMatcher> MATCHERS = new ConcurrentHashMap<>();
+
+    private static final StackRule EMPTY = new StackRule(new int[0], new ClassMatcher[0]);
+
+    private final int[] positions;
+    private final ClassMatcher[] matchers;
+
+    private StackRule(int[] positions, ClassMatcher[] matchers) {
+        this.positions = positions;
+        this.matchers = matchers;
+    }
+
+    /**
+     * Compiles the entries.
+     *
+     * @param entries
+     * @return
+     */
+    static StackRule of(Collection<StackEntry> entries) {
+        if (null == entries || entries.isEmpty()) {
+            return EMPTY;
+        }
+
+        int[] positions = new int[entries.size()];
+        ClassMatcher[] matchers = new ClassMatcher[entries.size()];
+        int i = 0;
+        for (StackEntry entry : entries) {
+            positions[i] = entry.getPos();
+            matchers[i] = matcher(entry.getType(), entry.isPrefix());
+            i++;
+        }
+
+        return new StackRule(positions, matchers);
+    }
+
+    private static ClassMatcher matcher(String type, boolean prefix) {
+        String key = (prefix ? "P:" : "E:") + type;
+        ClassMatcher matcher = MATCHERS.get(key);
+        if (null == matcher) {
+            ClassMatcher created = new ClassMatcher(type, prefix);
+            matcher = MATCHERS.putIfAbsent(key, created);
+            if (null == matcher) {
+                matcher = created;
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * @return true if the rule has no entries and thus matches without looking at the stack
+     */
+    boolean isEmpty() {
+        return 0 == matchers.length;
+    }
+
+    /**
+     * Returns true if every entry matches the stack. Entries with a position of -1
+     * match if any class on the stack matches.
+     *
+     * @param stack
+     * @return
+     */
+    boolean matches(Class[] stack) {
+        for (int i = 0; i < matchers.length; i++) {
+            int pos = positions[i];
+            ClassMatcher matcher = matchers[i];
+            if (pos >= 0) {
+                if (stack.length <= pos) {
+                    return false;
+                }
+                if (!matcher.matches(stack[pos])) {
+                    return false;
+                }
+            } else {
+                boolean found = false;
+                for (Class c : stack) {
+                    if (matcher.matches(c)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Matches classes by name (or name prefix) and remembers the result per class.
+     */
+    private static final class ClassMatcher extends ClassValue<Boolean> {
+
+        private final String type;
+        private final boolean prefix;
+
+        ClassMatcher(String type, boolean prefix) {
+            this.type = type;
+            this.prefix = prefix;
+        }
+
+        boolean matches(Class<?> c) {
+            return get(c);
+        }
+
+        @Override
+        protected Boolean computeValue(Class<?> c) {
+            return prefix ? c.getName().startsWith(type) : type.equals(c.getName());
+        }
+    }
+}
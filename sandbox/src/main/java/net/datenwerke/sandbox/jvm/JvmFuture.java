@@ -23,6 +23,8 @@
 
 package net.datenwerke.sandbox.jvm;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -31,6 +33,8 @@ import java.util.concurrent.TimeoutException;
 import net.datenwerke.sandbox.SandboxedCallResult;
 
 /**
+ * The future of a task added to a {@link JvmPool}. Tasks can be cancelled while queued, and
+ * while running if the jvm executing them may be restarted.
  * 
  * @author Arno Mittelbach
  *
@@ -45,6 +49,9 @@ public class JvmFuture implements Future<SandboxedCallResult> {
 	private SandboxedCallResult result = null;
 	private Exception exception = null;
 	
+	private final CompletableFuture<SandboxedCallResult> completion = new CompletableFuture<>();
+	private Runnable abort;
+	
 	public JvmFuture(JvmTask task) {
 		super();
 		this.task = task;
@@ -54,34 +61,82 @@ public class JvmFuture implements Future<SandboxedCallResult> {
 		return task;
 	}
 	
-	synchronized void setResult(SandboxedCallResult result) {
+	/**
+	 * Completes along with this future, so that callers can react on the outcome without waiting.
+	 * 
+	 * @return
+	 */
+	public CompletableFuture<SandboxedCallResult> getCompletion() {
+		return completion;
+	}
+	
+	/**
+	 * Marks the task as running. 
+	 * 
+	 * @param abort aborts the running task if the future is cancelled
+	 * @return false if the task was cancelled and is not to be run
+	 */
+	synchronized boolean start(Runnable abort) {
 		if(done)
-			throw new IllegalStateException("result already set");
-		done = true;
-		this.result = result;
-		notifyAll();
+			return false;
+		this.abort = abort;
+		return true;
+	}
+	
+	void setResult(SandboxedCallResult result) {
+		synchronized (this) {
+			if(cancel)
+				return;
+			if(done)
+				throw new IllegalStateException("result already set");
+			done = true;
+			abort = null;
+			this.result = result;
+			notifyAll();
+		}
+		completion.complete(result);
 	}
 
-	synchronized void setException(Exception e) {
-		if(done)
-			throw new IllegalStateException("result already set");
-		done = true;
-		this.exception = e;
-		notifyAll();
+	void setException(Exception e) {
+		synchronized (this) {
+			if(cancel)
+				return;
+			if(done)
+				throw new IllegalStateException("result already set");
+			done = true;
+			abort = null;
+			this.exception = e;
+			notifyAll();
+		}
+		completion.completeExceptionally(e);
 	}
 	
 	@Override
 	public boolean cancel(boolean mayInterruptIfRunning) {
-		return false;
+		Runnable abort;
+		synchronized (this) {
+			if(done)
+				return false;
+			done = true;
+			cancel = true;
+			abort = this.abort;
+			this.abort = null;
+			notifyAll();
+		}
+		completion.cancel(mayInterruptIfRunning);
+		
+		if(mayInterruptIfRunning && null != abort)
+			abort.run();
+		return true;
 	}
 
 	@Override
-	public boolean isCancelled() {
+	public synchronized boolean isCancelled() {
 		return cancel;
 	}
 
 	@Override
-	public boolean isDone() {
+	public synchronized boolean isDone() {
 		return done;
 	}
 
@@ -89,6 +144,8 @@ public class JvmFuture implements Future<SandboxedCallResult> {
 	public SandboxedCallResult get() throws InterruptedException, ExecutionException {
 		synchronized (this) {
 			if(isDone()){
+				if(cancel)
+					throw new CancellationException();
 				if(null != exception)
 					throw new ExecutionException(exception);
 				return result;
@@ -106,14 +163,14 @@ public class JvmFuture implements Future<SandboxedCallResult> {
 	@Override
 	public SandboxedCallResult get(long timeout, TimeUnit unit)
 			throws InterruptedException, ExecutionException, TimeoutException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
 		synchronized (this) {
-			if(isDone()){
-				if(null != exception)
-					throw new ExecutionException(exception);
-				return result;
+			while(!isDone()){
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0)
+					throw new TimeoutException();
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
 			}
-			
-			unit.timedWait(this, timeout);
 		}
 		
 		return get();
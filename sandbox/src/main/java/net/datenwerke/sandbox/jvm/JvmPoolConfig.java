@@ -23,6 +23,12 @@
 
 package net.datenwerke.sandbox.jvm;
 
+import java.util.Collection;
+import java.util.Collections;
+
+import net.datenwerke.sandbox.PreloadManifest;
+import net.datenwerke.sandbox.SandboxContext;
+
 /**
  * Bean to configure a {@link JvmPool}
  *
@@ -51,4 +57,15 @@ public interface JvmPoolConfig {
      * @return
      */
     int getFreelancerSize();
+
+    /**
+     * The contexts whose {@link PreloadManifest}s are loaded by every newly spawned pool jvm
+     * before it accepts tasks.
+     *
+     * @return
+     * @see JvmPreloadTask
+     */
+    default Collection<SandboxContext> getPreloadContexts() {
+        return Collections.emptyList();
+    }
 }
@@ -23,6 +23,11 @@
 
 package net.datenwerke.sandbox.jvm;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+
+import net.datenwerke.sandbox.SandboxContext;
 
 /**
  * Simple implementation of the {@link JvmPoolConfig} Bean.
@@ -34,6 +39,7 @@ public class JvmPoolConfigImpl implements JvmPoolConfig {
     private final int poolSize;
     private final JvmInstantiator jvmInstantiator;
     private int freelancers;
+    private Collection<SandboxContext> preloadContexts = Collections.emptyList();
 
     public JvmPoolConfigImpl(
             int poolSize,
@@ -75,4 +81,13 @@ public class JvmPoolConfigImpl implements JvmPoolConfig {
         return freelancers;
     }
 
+    @Override
+    public Collection<SandboxContext> getPreloadContexts() {
+        return preloadContexts;
+    }
+
+    public void setPreloadContexts(Collection<SandboxContext> preloadContexts) {
+        this.preloadContexts = null == preloadContexts ? Collections.<SandboxContext>emptyList() : new ArrayList<>(preloadContexts);
+    }
+
 }
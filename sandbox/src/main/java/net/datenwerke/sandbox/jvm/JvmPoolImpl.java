@@ -32,6 +32,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.datenwerke.sandbox.SandboxContext;
 import net.datenwerke.sandbox.SandboxedCallResult;
 import net.datenwerke.sandbox.SandboxedCallResultImpl;
 import net.datenwerke.sandbox.jvm.exceptions.JvmKilledUnsafeThreadException;
@@ -183,8 +184,9 @@ public class JvmPoolImpl implements JvmPool {
     private class JvmWorker extends Thread {
 
         private final JvmPoolConfig jvmConfig;
-        private Jvm jvm;
+        private volatile Jvm jvm;
         private boolean shutdown = false;
+        private boolean preloaded = false;
 
         public JvmWorker(JvmPoolConfig jvmConfig) {
             this.jvmConfig = jvmConfig;
@@ -208,15 +210,42 @@ public class JvmPoolImpl implements JvmPool {
 
             /* create new jvm */
             jvm = jvmConfig.getInstantiator().spawnJvm();
+            preloaded = false;
+        }
+
+        /**
+         * Destroys the jvm to abort the task it is running, the jvm is restarted once the task failed.
+         */
+        private void abortJvm() {
+            jvm.destroy();
+        }
+
+        /**
+         * Loads the preload manifests of the configured contexts into the jvm.
+         */
+        private void preload() {
+            preloaded = true;
+            for (SandboxContext context : jvmConfig.getPreloadContexts()) {
+                try {
+                    jvm.execute(new JvmPreloadTask(context));
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "could not preload context " + context.getName(), e);
+                }
+            }
         }
 
         @Override
         public void run() {
             while (!shutdown) {
                 try {
+                    if (!preloaded) {
+                        preload();
+                    }
+
                     JvmFuture future = workQueue.take();
 
-                    if (null != future) {
+                    /* cancelled tasks are skipped, running ones are aborted by restarting the jvm */
+                    if (null != future && future.start(this::abortJvm)) {
                         try {
                             JvmTask task = future.getTask();
                             SandboxedCallResult result;
@@ -232,7 +261,9 @@ public class JvmPoolImpl implements JvmPool {
                             future.setResult(result);
                         } catch (JvmServerDeadException e) {
                             /* reinsert task */
-                            addTaskFirst(future);
+                            if (!future.isCancelled()) {
+                                addTaskFirst(future);
+                            }
 
                             /* restart jvm */
                             restartJvm();
@@ -245,6 +276,10 @@ public class JvmPoolImpl implements JvmPool {
                             restartJvm();
                         } catch (Exception e) {
                             future.setException(e);
+
+                            if (jvm.isDestroyed()) {
+                                restartJvm();
+                            }
                         }
                     }
                 } catch (RuntimeException e) {
@@ -0,0 +1,63 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox.jvm;
+
+import net.datenwerke.sandbox.PreloadManifest;
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxServiceImpl;
+import net.datenwerke.sandbox.SandboxedCallResult;
+import net.datenwerke.sandbox.SandboxedCallResultImpl;
+
+/**
+ * A {@link JvmTask} that warms up a freshly spawned remote agent by loading the classes of the
+ * context's {@link PreloadManifest} into a new loader.
+ * The result holds the number of classes loaded.
+ *
+ * @see JvmPoolConfig#getPreloadContexts()
+ */
+public class JvmPreloadTask implements JvmTask {
+
+    private static final long serialVersionUID = -1871262339360137462L;
+
+    private final SandboxContext context;
+
+    public JvmPreloadTask(SandboxContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public SandboxedCallResult call() throws Exception {
+        /* installs the security manager the loader relies on */
+        SandboxServiceImpl.getInstance();
+
+        SandboxClassLoader loader = new SandboxClassLoader(SandboxServiceImpl.class.getClassLoader());
+        loader.init(context);
+
+        int loaded = PreloadManifest.preload(loader);
+        return new SandboxedCallResultImpl<>(loaded);
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package net.datenwerke.sandbox.jvm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxServiceImpl;
+import net.datenwerke.sandbox.SandboxedBatchResult;
+import net.datenwerke.sandbox.SandboxedBatchTask;
+import net.datenwerke.sandbox.SandboxedCallResult;
+import net.datenwerke.sandbox.SandboxedCallResultImpl;
+
+/**
+ * An implementation of {@link JvmTask} to execute a batch of sandboxed tasks on a remote agent
+ * in a single round trip. The result's raw object is the list of {@link SandboxedBatchResult}s.
+ */
+public class JvmSandboxBatchTask implements JvmTask {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = -4410731985279416937L;
+
+    private final List<SandboxedBatchTask> tasks;
+    private final SandboxContext context;
+
+    public JvmSandboxBatchTask(List<SandboxedBatchTask> tasks, SandboxContext context) {
+        this.tasks = new ArrayList<>(tasks);
+        this.context = context;
+    }
+
+    @Override
+    public SandboxedCallResult call() throws Exception {
+        List<SandboxedBatchResult> results = SandboxServiceImpl.getInstance().runSandboxedBatch(tasks, context);
+        return new SandboxedCallResultImpl<>(new ArrayList<>(results));
+    }
+
+}
@@ -48,6 +48,14 @@ public class FileEqualsPermission implements FilePermission {
 		this.negate = negate;
 	}
 	
+	public String getMask() {
+		return mask;
+	}
+	
+	public boolean isNegate() {
+		return negate;
+	}
+	
 	@Override
 	public boolean testPermission(String file) {
 		return file.equals(mask) ^ negate;
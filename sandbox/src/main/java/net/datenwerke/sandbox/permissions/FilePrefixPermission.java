@@ -48,6 +48,14 @@ public class FilePrefixPermission implements FilePermission {
 		this.negate = negate;
 	}
 	
+	public String getPrefix() {
+		return prefix;
+	}
+	
+	public boolean isNegate() {
+		return negate;
+	}
+	
 	@Override
 	public boolean testPermission(String file) {
 		return file.startsWith(prefix) ^ negate;
@@ -23,6 +23,8 @@
 
 package net.datenwerke.sandbox.permissions;
 
+import java.util.regex.Pattern;
+
 /**
  * A file permission using regular expressions for checking.
  * 
@@ -39,6 +41,8 @@ public class FileRegexPermission implements FilePermission {
 	private final String mask;
 	private boolean negate = false;
 	
+	private transient volatile Pattern pattern;
+	
 	public FileRegexPermission(String mask) {
 		this(mask, false);
 	}
@@ -48,9 +52,31 @@ public class FileRegexPermission implements FilePermission {
 		this.negate = negate;
 	}
 	
+	public String getMask() {
+		return mask;
+	}
+	
+	/**
+	 * Returns the compiled mask. The pattern is compiled once and then reused.
+	 * 
+	 * @return
+	 */
+	public Pattern getPattern() {
+		Pattern p = pattern;
+		if (null == p) {
+			p = Pattern.compile(mask);
+			pattern = p;
+		}
+		return p;
+	}
+	
+	public boolean isNegate() {
+		return negate;
+	}
+	
 	@Override
 	public boolean testPermission(String file) {
-		return file.matches(mask) ^ negate;
+		return getPattern().matcher(file).matches() ^ negate;
 	}
 	
 	@Override
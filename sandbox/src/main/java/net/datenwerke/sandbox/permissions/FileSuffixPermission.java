@@ -48,6 +48,14 @@ public class FileSuffixPermission implements FilePermission {
 		this.negate = negate;
 	}
 	
+	public String getSuffix() {
+		return suffix;
+	}
+	
+	public boolean isNegate() {
+		return negate;
+	}
+	
 	@Override
 	public boolean testPermission(String file) {
 		return file.endsWith(suffix) ^ negate;
@@ -0,0 +1,269 @@
+/*
+ *  java-sandbox
+ *  Copyright (c) 2012 datenwerke Jan Albrecht
+ *  http://www.datenwerke.net
+ *
+ *  This file is part of the java-sandbox: https://sourceforge.net/p/dw-sandbox/
+ *
+ *
+ *  This program is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package net.datenwerke.sandbox.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable trie over string prefixes. Answers the question which of the stored
+ * keys are a prefix of a given name in time linear to the length of the name,
+ * independent of the number of stored keys.
+ * <p>
+ * Instances are created using a {@link Builder} and are safe to be shared between threads.
+ *
+ * @param <V> the type of values attached to keys
+ */
+public final class PrefixTrie<V> {
+
+    private static final PrefixTrie<?> EMPTY = new PrefixTrie<>(new Node(new char[0], new Node[0], null), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PrefixTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns an empty trie.
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> PrefixTrie<V> empty() {
+        return (PrefixTrie<V>) EMPTY;
+    }
+
+    /**
+     * Creates a trie containing the given keys, each of which is mapped to itself.
+     *
+     * @param keys
+     * @return
+     */
+    public static PrefixTrie<String> of(Iterable<String> keys) {
+        Builder<String> builder = new Builder<>();
+        for (String key : keys) {
+            builder.add(key, key);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of distinct keys in this trie
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Returns true if any of the stored keys is a prefix of name.
+     *
+     * @param name
+     * @return
+     */
+    public boolean containsPrefixOf(CharSequence name) {
+        return null != firstNodeForPrefixOf(name);
+    }
+
+    /**
+     * Returns the first value attached to the shortest stored key that is a prefix of name
+     * or null if there is no such key.
+     *
+     * @param name
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V firstValueForPrefixOf(CharSequence name) {
+        Node node = firstNodeForPrefixOf(name);
+        return null == node ? null : (V) node.values[0];
+    }
+
+    /**
+     * Returns the first value attached to the longest stored key that is a prefix of name
+     * or null if there is no such key.
+     *
+     * @param name
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V firstValueForLongestPrefixOf(CharSequence name) {
+        Node match = null;
+
+        Node node = root;
+        int i = 0;
+        while (null != node) {
+            if (null != node.values) {
+                match = node;
+            }
+            if (i == name.length()) {
+                break;
+            }
+            node = node.child(name.charAt(i++));
+        }
+
+        return null == match ? null : (V) match.values[0];
+    }
+
+    /**
+     * Returns all values attached to stored keys that are a prefix of name, ordered
+     * from the shortest to the longest key.
+     *
+     * @param name
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> valuesForPrefixesOf(CharSequence name) {
+        List<V> result = null;
+
+        Node node = root;
+        int i = 0;
+        while (null != node) {
+            if (null != node.values) {
+                if (null == result) {
+                    result = new ArrayList<>();
+                }
+                for (Object value : node.values) {
+                    result.add((V) value);
+                }
+            }
+            if (i == name.length()) {
+                break;
+            }
+            node = node.child(name.charAt(i++));
+        }
+
+        return null == result ? Collections.<V>emptyList() : result;
+    }
+
+    private Node firstNodeForPrefixOf(CharSequence name) {
+        Node node = root;
+        int i = 0;
+        while (null != node) {
+            if (null != node.values) {
+                return node;
+            }
+            if (i == name.length()) {
+                return null;
+            }
+            node = node.child(name.charAt(i++));
+        }
+        return null;
+    }
+
+    /**
+     * Builds {@link PrefixTrie}s. Builders are not thread safe.
+     *
+     * @param <V>
+     */
+    public static final class Builder<V> {
+
+        private final MutableNode root = new MutableNode();
+        private int size;
+
+        /**
+         * Attaches the value to the key. A key can carry multiple values.
+         *
+         * @param key
+         * @param value
+         * @return this builder
+         */
+        public Builder<V> add(String key, V value) {
+            MutableNode node = root;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                MutableNode child = node.children.get(c);
+                if (null == child) {
+                    child = new MutableNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+
+            if (node.values.isEmpty()) {
+                size++;
+            }
+            node.values.add(value);
+
+            return this;
+        }
+
+        public PrefixTrie<V> build() {
+            if (0 == size) {
+                return empty();
+            }
+            return new PrefixTrie<>(root.freeze(), size);
+        }
+    }
+
+    /**
+     * Immutable trie node. Children are kept sorted by character to allow for binary search.
+     */
+    private static final class Node {
+
+        private final char[] keys;
+        private final Node[] children;
+        private final Object[] values;
+
+        Node(char[] keys, Node[] children, Object[] values) {
+            this.keys = keys;
+            this.children = children;
+            this.values = values;
+        }
+
+        Node child(char c) {
+            int idx = Arrays.binarySearch(keys, c);
+            return idx < 0 ? null : children[idx];
+        }
+    }
+
+    private static final class MutableNode {
+
+        private final Map<Character, MutableNode> children = new TreeMap<>();
+        private final List<Object> values = new ArrayList<>(1);
+
+        Node freeze() {
+            char[] keys = new char[children.size()];
+            Node[] frozen = new Node[children.size()];
+
+            int i = 0;
+            for (Map.Entry<Character, MutableNode> e : children.entrySet()) {
+                keys[i] = e.getKey();
+                frozen[i] = e.getValue().freeze();
+                i++;
+            }
+
+            return new Node(keys, frozen, values.isEmpty() ? null : values.toArray());
+        }
+    }
+}
@@ -23,6 +23,7 @@
 
 package net.datenwerke.sandbox.util;
 
+import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collection;
@@ -34,8 +35,10 @@ import java.util.concurrent.TimeUnit;
 
 import net.datenwerke.sandbox.SandboxContext;
 import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.AdmissionPolicy;
 import net.datenwerke.sandbox.SandboxContext.FileAccess;
 import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxContext.PreloadMode;
 import net.datenwerke.sandbox.SandboxContext.RuntimeMode;
 import net.datenwerke.sandbox.SandboxService;
 import net.datenwerke.sandbox.jvm.JvmInstantiatorImpl;
@@ -287,6 +290,11 @@ public class SandboxParser {
         boolean bypassPackageAccesss = contextConf.getBoolean("[@bypassPackageAccess]", false);
         context.setBypassPackageAccessChecks(bypassPackageAccesss);
 
+        Boolean generatedChecks = contextConf.getBoolean("[@generatedChecks]", false);
+        if (generatedChecks) {
+            context.setGeneratedPermissionChecks(generatedChecks);
+        }
+
         Boolean debug = contextConf.getBoolean("[@debug]", false);
         if (debug) {
             context.setDebug(debug);
@@ -313,6 +321,33 @@ public class SandboxParser {
             context.setRemoveFinalizers(removeFinalizers);
         }
 
+        /* shared jars */
+        Boolean shareWhitelistedJars = contextConf.getBoolean("[@shareWhitelistedJars]", false);
+        if (shareWhitelistedJars) {
+            context.setShareWhitelistedJars(shareWhitelistedJars);
+        }
+
+        /* protection domains */
+        Boolean sharePackageProtectionDomains = contextConf.getBoolean("[@sharePackageProtectionDomains]", false);
+        if (sharePackageProtectionDomains) {
+            context.setSharePackageProtectionDomains(sharePackageProtectionDomains);
+        }
+
+        String classArchive = contextConf.getString("[@classArchive]", null);
+        if (null != classArchive && !"".equals(classArchive.trim())) {
+            context.setClassArchive(new File(classArchive.trim()));
+        }
+
+        String preloadManifestDirectory = contextConf.getString("[@preloadManifestDirectory]", null);
+        if (null != preloadManifestDirectory && !"".equals(preloadManifestDirectory.trim())) {
+            context.setPreloadManifestDirectory(new File(preloadManifestDirectory.trim()));
+        }
+
+        String preloadMode = contextConf.getString("[@preloadMode]", null);
+        if (null != preloadMode && !"".equals(preloadMode.trim())) {
+            context.setPreloadMode(PreloadMode.valueOf(preloadMode.trim().toUpperCase()));
+        }
+
         /* thread */
         configureThreadRestrictions(context, contextConf);
 
@@ -355,6 +390,25 @@ public class SandboxParser {
 
         int maxStackDepth = contextConf.getInteger("[@maximumStackDepth]", -1);
         context.setMaximumStackDepth(maxStackDepth);
+
+        int maxConcurrentExecutions = contextConf.getInteger("[@maximumConcurrentExecutions]", -1);
+        context.setMaximumConcurrentExecutions(maxConcurrentExecutions);
+
+        int maxQueuedExecutions = contextConf.getInteger("[@maximumQueuedExecutions]", -1);
+        context.setMaximumQueuedExecutions(maxQueuedExecutions);
+
+        long admissionTimeout = contextConf.getLong("[@admissionTimeout]", -1);
+        String admissionTimeoutUnit = contextConf.getString("[@admissionTimeoutUnit]", null);
+        if (null != admissionTimeoutUnit && !"".equals(admissionTimeoutUnit.trim())) {
+            context.setAdmissionTimeout(admissionTimeout, TimeUnit.valueOf(admissionTimeoutUnit.trim().toUpperCase()));
+        } else {
+            context.setAdmissionTimeout(admissionTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        String admissionPolicy = contextConf.getString("[@admissionPolicy]", null);
+        if (null != admissionPolicy && !"".equals(admissionPolicy.trim())) {
+            context.setAdmissionPolicy(AdmissionPolicy.valueOf(admissionPolicy.trim().toUpperCase()));
+        }
     }
 
     protected void configureFileAccess(SandboxContext context,
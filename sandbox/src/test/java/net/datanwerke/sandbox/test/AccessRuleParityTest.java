@@ -0,0 +1,138 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+
+import org.junit.Test;
+
+/**
+ * The compiled class and package rules decide like a linear scan over all rules.
+ */
+public class AccessRuleParityTest {
+
+    private static final String ALPHABET = "ab.c";
+
+    private static final Class[] NO_STACK = new Class[0];
+
+    @Test
+    public void classAccessMatchesLinearRules() {
+        Random random = new Random(2);
+        for (int i = 0; i < 300; i++) {
+            Rules rules = Rules.random(random);
+            SandboxContext context = new SandboxContext();
+            rules.addClassPermissions(context);
+
+            for (int j = 0; j < 50; j++) {
+                String name = randomName(random, 8);
+                assertEquals(rules + " " + name, rules.isPermitted(name), context.checkClassAccess(name, NO_STACK));
+            }
+        }
+    }
+
+    @Test
+    public void packageAccessMatchesLinearRules() {
+        Random random = new Random(5);
+        for (int i = 0; i < 300; i++) {
+            Rules rules = Rules.random(random);
+            SandboxContext context = new SandboxContext();
+            rules.addPackagePermissions(context);
+
+            for (int j = 0; j < 50; j++) {
+                String name = randomName(random, 8);
+                assertEquals(rules + " " + name, rules.isPermitted(name), context.checkPackageAccess(name, NO_STACK));
+            }
+        }
+    }
+
+    private static String randomName(Random random, int maxLength) {
+        StringBuilder name = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            name.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Random rules together with the linear decision that contexts made before rules were compiled.
+     */
+    private static final class Rules {
+        final List<String> whitelist = new ArrayList<>();
+        final List<String> prefixWhitelist = new ArrayList<>();
+        final List<String> blacklist = new ArrayList<>();
+        final List<String> prefixBlacklist = new ArrayList<>();
+
+        static Rules random(Random random) {
+            Rules rules = new Rules();
+            fill(random, rules.whitelist);
+            fill(random, rules.prefixWhitelist);
+            fill(random, rules.blacklist);
+            fill(random, rules.prefixBlacklist);
+            return rules;
+        }
+
+        private static void fill(Random random, List<String> rules) {
+            int count = random.nextInt(5);
+            for (int i = 0; i < count; i++) {
+                rules.add(randomName(random, 4));
+            }
+        }
+
+        void addClassPermissions(SandboxContext context) {
+            for (String rule : whitelist)
+                context.addClassPermission(AccessType.PERMIT, Mode.NORMAL, rule);
+            for (String rule : prefixWhitelist)
+                context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, rule);
+            for (String rule : blacklist)
+                context.addClassPermission(AccessType.DENY, Mode.NORMAL, rule);
+            for (String rule : prefixBlacklist)
+                context.addClassPermission(AccessType.DENY, Mode.PREFIX, rule);
+        }
+
+        void addPackagePermissions(SandboxContext context) {
+            for (String rule : whitelist)
+                context.addPackagePermission(AccessType.PERMIT, Mode.NORMAL, rule);
+            for (String rule : prefixWhitelist)
+                context.addPackagePermission(AccessType.PERMIT, Mode.PREFIX, rule);
+            for (String rule : blacklist)
+                context.addPackagePermission(AccessType.DENY, Mode.NORMAL, rule);
+            for (String rule : prefixBlacklist)
+                context.addPackagePermission(AccessType.DENY, Mode.PREFIX, rule);
+        }
+
+        boolean isPermitted(String name) {
+            boolean found = false;
+            for (String rule : whitelist)
+                found |= matches(rule, name);
+            for (String prefix : prefixWhitelist)
+                found |= name.startsWith(prefix);
+            if (!found)
+                return false;
+
+            for (String prefix : prefixBlacklist)
+                if (name.startsWith(prefix))
+                    return false;
+            for (String rule : blacklist)
+                if (matches(rule, name))
+                    return false;
+            return true;
+        }
+
+        /* rules ending with a dot are added as prefix rules */
+        private static boolean matches(String rule, String name) {
+            return rule.endsWith(".") ? name.startsWith(rule) : name.equals(rule);
+        }
+
+        @Override
+        public String toString() {
+            return "permit " + whitelist + " prefix " + prefixWhitelist + ", deny " + blacklist + " prefix " + prefixBlacklist;
+        }
+    }
+}
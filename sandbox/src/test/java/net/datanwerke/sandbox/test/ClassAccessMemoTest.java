@@ -0,0 +1,101 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.AccessControlException;
+
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.permissions.ClassPermission;
+import net.datenwerke.sandbox.permissions.StackEntry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * A loader only reuses a granted class access while the thread runs under the same restriction.
+ */
+public class ClassAccessMemoTest {
+
+    private static final String CLASS = "java.util.ArrayList";
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void grantIsNotReusedUnderOtherRestriction() {
+        SandboxClassLoader loader = service.initClassLoader(createContext("java."));
+        SandboxContext outer = createContext("java.");
+        SandboxContext inner = createContext("java.lang.");
+
+        String outerPw = service.restrict(outer);
+        try {
+            assertNull(load(loader));
+
+            String innerPw = service.restrict(inner);
+            Exception denied;
+            try {
+                denied = load(loader);
+            } finally {
+                service.releaseRestriction(innerPw);
+            }
+            assertTrue(denied instanceof AccessControlException);
+
+            assertNull(load(loader));
+        } finally {
+            service.releaseRestriction(outerPw);
+        }
+    }
+
+    @Test
+    public void grantIsNotReusedForStackDependentRules() {
+        SandboxClassLoader loader = service.initClassLoader(createContext("java."));
+
+        SandboxContext context = createContext("java.lang.");
+        context.addClassPermission(new ClassPermission("java.util.", new StackEntry(-1, Loader.class.getName())));
+
+        String pw = service.restrict(context);
+        Exception granted;
+        Exception denied;
+        try {
+            granted = Loader.load(loader);
+            denied = load(loader);
+        } finally {
+            service.releaseRestriction(pw);
+        }
+        assertNull(granted);
+        assertTrue(denied instanceof AccessControlException);
+    }
+
+    private static Exception load(SandboxClassLoader loader) {
+        try {
+            loader.loadClass(CLASS);
+            return null;
+        } catch (AccessControlException e) {
+            return e;
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SandboxContext createContext(String prefix) {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, prefix);
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        return context;
+    }
+
+    private static final class Loader {
+        static Exception load(SandboxClassLoader loader) {
+            return ClassAccessMemoTest.load(loader);
+        }
+    }
+}
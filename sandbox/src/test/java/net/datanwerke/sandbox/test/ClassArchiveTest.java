@@ -0,0 +1,144 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javassist.ClassPool;
+
+import net.datenwerke.sandbox.ClassArchive;
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Class archives serve the classes they were built from and are ignored once the jars change.
+ */
+public class ClassArchiveTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void archiveServesClassesOfItsJars() throws Exception {
+        byte[] cBytes = {1, 2, 3};
+        File jar = createJar("a/B", cBytes);
+        File file = createArchive(jar);
+
+        ClassArchive archive = ClassArchive.open(file);
+        assertTrue(archive.contains("a.B"));
+        assertFalse(archive.contains("a.C"));
+        assertNull(archive.getClassBytes("a.C"));
+
+        ByteBuffer archived = archive.getClassBytes("a.B");
+        byte[] read = new byte[archived.remaining()];
+        archived.get(read);
+        assertTrue(Arrays.equals(cBytes, read));
+        assertTrue(archive.isBuiltFrom(Collections.singleton(jar.toURI().toURL())));
+    }
+
+    @Test
+    public void changedJarsAreDetected() throws Exception {
+        File jar = createJar("a/B", new byte[]{1});
+        File other = createJar("a/C", new byte[]{2});
+        URL url = jar.toURI().toURL();
+        ClassArchive archive = ClassArchive.open(createArchive(jar));
+
+        assertFalse(archive.isBuiltFrom(Collections.<URL>emptyList()));
+        assertFalse(archive.isBuiltFrom(Collections.singleton(other.toURI().toURL())));
+        assertFalse(archive.isBuiltFrom(Arrays.asList(url, other.toURI().toURL())));
+
+        replace(jar, createJar("a/B", new byte[]{1, 2}));
+        assertFalse(archive.isBuiltFrom(Collections.singleton(url)));
+    }
+
+    @Test
+    public void rebuiltArchiveIsMappedAgain() throws Exception {
+        File jar = createJar("a/B", new byte[]{1});
+        File file = createArchive(jar);
+        ClassArchive archive = ClassArchive.open(file);
+
+        ClassArchive.build(Collections.singleton(createJar("a/C", new byte[]{2}).toURI().toURL()), file, false);
+        file.setLastModified(archive.getFile().lastModified() + 2000);
+
+        ClassArchive rebuilt = ClassArchive.open(file);
+        assertNotSame(archive, rebuilt);
+        assertTrue(rebuilt.contains("a.C"));
+        assertFalse(rebuilt.contains("a.B"));
+    }
+
+    @Test
+    public void loaderIgnoresStaleArchive() throws Exception {
+        byte[] cBytes = ClassPool.getDefault().makeClass("archived.Archived").toBytecode();
+        File jar = createJar("archived/Archived", cBytes);
+        File archive = createArchive(jar);
+
+        SandboxContext context = createContext(jar, archive);
+        assertEquals("archived.Archived", service.initClassLoader(context).loadClass("archived.Archived").getName());
+
+        /* the class is only left in the archive */
+        replace(jar, createJar("archived/Other", cBytes));
+        SandboxClassLoader loader = service.initClassLoader(createContext(jar, archive));
+        try {
+            loader.loadClass("archived.Archived");
+            fail("class was loaded from an archive of an outdated jar");
+        } catch (ClassNotFoundException expected) {
+        }
+    }
+
+    private static SandboxContext createContext(File jar, File archive) throws Exception {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "archived.");
+        context.addJarToWhitelist(jar.toURI().toURL());
+        context.setClassArchive(archive);
+        return context;
+    }
+
+    private static File createArchive(File jar) throws Exception {
+        File file = File.createTempFile("classes", ".archive");
+        file.deleteOnExit();
+        ClassArchive.build(Collections.singleton(jar.toURI().toURL()), file, false);
+        return file;
+    }
+
+    private static void replace(File jar, File replacement) {
+        long lastModified = jar.lastModified();
+        if (!replacement.renameTo(jar)) {
+            throw new IllegalStateException("could not replace " + jar);
+        }
+        jar.setLastModified(lastModified + 2000);
+    }
+
+    private static File createJar(String className, byte[] cBytes) throws Exception {
+        File file = File.createTempFile("archived", ".jar");
+        file.deleteOnExit();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            out.putNextEntry(new JarEntry(className + ".class"));
+            out.write(cBytes);
+            out.closeEntry();
+        }
+        return file;
+    }
+}
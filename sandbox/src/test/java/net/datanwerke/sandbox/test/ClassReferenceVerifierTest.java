@@ -0,0 +1,151 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.security.AccessControlException;
+
+import net.datenwerke.sandbox.ClassReferenceVerifier;
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Classes are verified against the policy they were loaded under and only while exactly
+ * that policy restricts the thread.
+ */
+public class ClassReferenceVerifierTest {
+
+    private static final String FILE = File.class.getName();
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void classReferencingDeniedClassIsRejected() {
+        SandboxContext context = createContext();
+        context.addClassPermission(AccessType.DENY, FILE);
+        ClassReferenceVerifier verifier = new ClassReferenceVerifier(context);
+        context.setLoaderEnhancer(verifier);
+
+        SandboxClassLoader loader = service.initClassLoader(context);
+        try {
+            loader.loadClass(FileUser.class.getName());
+            fail("loaded a class referencing a denied class");
+        } catch (ClassNotFoundException expected) {
+            assertTrue(expected.getCause() instanceof AccessControlException);
+        }
+        assertFalse(verifier.isClassAccessVerified(loader, FILE));
+    }
+
+    @Test
+    public void referencesAreVerifiedOnlyUnderTheirPolicy() throws Exception {
+        SandboxContext context = createContext();
+        ClassReferenceVerifier verifier = new ClassReferenceVerifier(context);
+        context.setLoaderEnhancer(verifier);
+
+        SandboxClassLoader loader = service.initClassLoader(context);
+        loader.loadClass(FileUser.class.getName());
+
+        String pw = service.restrict(context);
+        boolean verified;
+        boolean verifiedWhileNested;
+        try {
+            verified = verifier.isClassAccessVerified(loader, FILE);
+
+            String innerPw = service.restrict(context);
+            try {
+                verifiedWhileNested = verifier.isClassAccessVerified(loader, FILE);
+            } finally {
+                service.releaseRestriction(innerPw);
+            }
+        } finally {
+            service.releaseRestriction(pw);
+        }
+        assertTrue(verified);
+        assertFalse(verifiedWhileNested);
+
+        pw = service.restrict(createContext());
+        try {
+            verified = verifier.isClassAccessVerified(loader, FILE);
+        } finally {
+            service.releaseRestriction(pw);
+        }
+        assertFalse(verified);
+
+        assertFalse(verifier.isClassAccessVerified(loader, FILE));
+    }
+
+    @Test
+    public void modifiedContextDiscardsVerification() throws Exception {
+        SandboxContext context = createContext();
+        ClassReferenceVerifier verifier = new ClassReferenceVerifier(context);
+        context.setLoaderEnhancer(verifier);
+
+        SandboxClassLoader loader = service.initClassLoader(context);
+        loader.loadClass(FileUser.class.getName());
+
+        context.addClassPermission(AccessType.DENY, FILE);
+
+        String pw = service.restrict(context);
+        boolean verified;
+        Exception denied = null;
+        try {
+            verified = verifier.isClassAccessVerified(loader, FILE);
+            try {
+                service.getManager().checkClassAccess(FILE);
+            } catch (AccessControlException e) {
+                denied = e;
+            }
+        } finally {
+            service.releaseRestriction(pw);
+        }
+        assertFalse(verified);
+        assertTrue(denied instanceof AccessControlException);
+    }
+
+    @Test
+    public void permittedReferenceIsGranted() throws Exception {
+        SandboxContext context = createContext();
+        context.setLoaderEnhancer(new ClassReferenceVerifier(context));
+
+        SandboxClassLoader loader = service.initClassLoader(context);
+        loader.loadClass(FileUser.class.getName());
+
+        String pw = service.restrict(context);
+        Exception denied = null;
+        try {
+            service.getManager().checkClassAccess(FILE);
+        } catch (AccessControlException e) {
+            denied = e;
+        } finally {
+            service.releaseRestriction(pw);
+        }
+        assertNull(denied);
+    }
+
+    private static SandboxContext createContext() {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        return context;
+    }
+
+    public static class FileUser {
+        public File getFile() {
+            return new File("verifier");
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.datanwerke.sandbox.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxServiceImpl;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Loads the classes of commons-io through a single {@link SandboxClassLoader} from an
+ * increasing number of threads.
+ */
+public class ConcurrentClassLoadingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        SandboxServiceImpl.initLocalSandboxService();
+
+        List<String> classes = new ArrayList<>();
+        File jar = new File(IOUtils.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        try (JarFile jarFile = new JarFile(jar)) {
+            for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
+                String entry = e.nextElement().getName();
+                if (entry.endsWith(".class") && !entry.contains("-")) {
+                    classes.add(entry.substring(0, entry.length() - 6).replace('/', '.'));
+                }
+            }
+        }
+        System.out.println(classes.size() + " classes from " + jar.getName());
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + round);
+            for (int threads = 1; threads <= processors; threads *= 2) {
+                run(threads, classes);
+            }
+        }
+    }
+
+    private static void run(int threads, final List<String> classes) throws Exception {
+        final SandboxClassLoader loader = new SandboxClassLoader();
+        loader.init(new SandboxContext());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final List<String> order = new ArrayList<>(classes);
+            Collections.shuffle(order, new Random(t));
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (String name : order) {
+                        loader.loadClass(name);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long duration = System.nanoTime() - begin;
+
+        System.out.println("  " + threads + " threads: " + (duration / 1000000) + " ms");
+    }
+}
@@ -0,0 +1,93 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Threads loading the same classes through one loader concurrently all see the same classes.
+ */
+public class ConcurrentClassLoadingTest {
+
+    private static final int THREADS = 8;
+
+    @BeforeClass
+    public static void init() {
+        SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void concurrentLoadsDefineEachClassOnce() throws Exception {
+        final List<String> classes = listClasses();
+        final SandboxClassLoader loader = new SandboxClassLoader();
+        loader.init(new SandboxContext());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<List<Class<?>>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(new Callable<List<Class<?>>>() {
+                    @Override
+                    public List<Class<?>> call() throws Exception {
+                        start.await();
+                        List<Class<?>> loaded = new ArrayList<>();
+                        for (String name : classes) {
+                            loaded.add(loader.loadClass(name));
+                        }
+                        return loaded;
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<Class<?>> first = futures.get(0).get();
+            for (Class<?> clazz : first) {
+                assertSame(loader, clazz.getClassLoader());
+            }
+            for (Future<List<Class<?>>> future : futures) {
+                List<Class<?>> loaded = future.get();
+                assertEquals(classes.size(), loaded.size());
+                for (int i = 0; i < loaded.size(); i++) {
+                    assertSame(first.get(i), loaded.get(i));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> listClasses() throws Exception {
+        List<String> classes = new ArrayList<>();
+        File jar = new File(IOUtils.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        try (JarFile jarFile = new JarFile(jar)) {
+            for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
+                String entry = e.nextElement().getName();
+                if (entry.endsWith(".class") && !entry.contains("-")) {
+                    classes.add(entry.substring(0, entry.length() - 6).replace('/', '.'));
+                }
+            }
+        }
+        assertTrue(classes.size() > 0);
+        return classes;
+    }
+}
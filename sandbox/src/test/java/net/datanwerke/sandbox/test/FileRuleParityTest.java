@@ -0,0 +1,108 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.FileAccess;
+import net.datenwerke.sandbox.SandboxPolicy;
+import net.datenwerke.sandbox.permissions.FileEqualsPermission;
+import net.datenwerke.sandbox.permissions.FilePermission;
+import net.datenwerke.sandbox.permissions.FilePrefixPermission;
+import net.datenwerke.sandbox.permissions.FileRegexPermission;
+import net.datenwerke.sandbox.permissions.FileSuffixPermission;
+
+import org.junit.Test;
+
+/**
+ * The compiled file rules decide like testing every denial and then every grant.
+ */
+public class FileRuleParityTest {
+
+    private static final String ALPHABET = "ab/.";
+
+    private static final String[] REGEXES = {"a.*", ".*b", "[ab]+", "/a/.*\\.b", ""};
+
+    @Test
+    public void fileAccessMatchesLinearRules() {
+        Random random = new Random(7);
+        for (int i = 0; i < 300; i++) {
+            SandboxContext context = new SandboxContext();
+            List<FilePermission> permissions = new ArrayList<>();
+            List<FilePermission> denials = new ArrayList<>();
+            for (int j = random.nextInt(6); j > 0; j--) {
+                FilePermission permission = randomPermission(random);
+                permissions.add(permission);
+                context.addFilePermission(FileAccess.WRITE, AccessType.PERMIT, permission);
+            }
+            for (int j = random.nextInt(4); j > 0; j--) {
+                FilePermission denial = randomPermission(random);
+                denials.add(denial);
+                context.addFilePermission(FileAccess.WRITE, AccessType.DENY, denial);
+            }
+
+            SandboxPolicy policy = context.compile();
+            for (int j = 0; j < 50; j++) {
+                String file = randomName(random, 7);
+                assertEquals(permissions + " " + denials + " " + file,
+                        isPermitted(file, permissions, denials), policy.checkFileAction(file, FileAccess.WRITE));
+                assertEquals(false, policy.checkFileAction(file, FileAccess.READ));
+            }
+        }
+    }
+
+    private static boolean isPermitted(String file, List<FilePermission> permissions, List<FilePermission> denials) {
+        for (FilePermission denial : denials)
+            if (denial.testPermission(file))
+                return false;
+        for (FilePermission permission : permissions)
+            if (permission.testPermission(file))
+                return true;
+        return false;
+    }
+
+    private static FilePermission randomPermission(Random random) {
+        boolean negate = 0 == random.nextInt(4);
+        switch (random.nextInt(5)) {
+            case 0:
+                return new FileEqualsPermission(randomName(random, 4), negate);
+            case 1:
+                return new FilePrefixPermission(randomName(random, 3), negate);
+            case 2:
+                return new FileSuffixPermission(randomName(random, 3), negate);
+            case 3:
+                return new FileRegexPermission(REGEXES[random.nextInt(REGEXES.length)], negate);
+            default:
+                String infix = randomName(random, 2);
+                return new FilePermission() {
+                    @Override
+                    public boolean testPermission(String file) {
+                        return file.contains(infix);
+                    }
+
+                    @Override
+                    public FilePermission clone() {
+                        return this;
+                    }
+
+                    @Override
+                    public String toString() {
+                        return "contains " + infix;
+                    }
+                };
+        }
+    }
+
+    private static String randomName(Random random, int maxLength) {
+        StringBuilder name = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            name.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package net.datanwerke.sandbox.test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+
+import net.datenwerke.sandbox.SandboxServiceImpl;
+
+/**
+ * Measures the overhead the sandbox security manager adds to host threads that are
+ * never restricted, by timing typical host operations before and after the manager
+ * is installed.
+ */
+public class HostCheckBenchmark {
+
+    private static final int ITERATIONS = 2000000;
+
+    private static String value = "value";
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("without security manager");
+        runAll();
+
+        SandboxServiceImpl.initLocalSandboxService();
+        System.out.println("with " + System.getSecurityManager().getClass().getSimpleName());
+        runAll();
+    }
+
+    private static void runAll() throws Exception {
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + round);
+            run("  property access", () -> System.getProperty("java.version"));
+            run("  file access    ", () -> new File("sandbox.tmp").exists());
+            run("  reflection     ", () -> {
+                Field field = HostCheckBenchmark.class.getDeclaredField("value");
+                field.setAccessible(true);
+                return field;
+            });
+            run("  class loading  ", () -> Class.forName("java.util.concurrent.ConcurrentHashMap"));
+        }
+    }
+
+    private static void run(String label, Operation operation) throws Exception {
+        long start = System.nanoTime();
+        int nonNull = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (null != operation.run()) {
+                nonNull++;
+            }
+        }
+        long duration = System.nanoTime() - start;
+        System.out.println(label + ": " + (duration / ITERATIONS) + " ns/op (" + nonNull + ")");
+    }
+
+    private interface Operation {
+        Object run() throws Exception;
+    }
+}
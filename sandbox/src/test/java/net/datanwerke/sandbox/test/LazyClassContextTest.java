@@ -0,0 +1,83 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.datenwerke.sandbox.LazyClassContext;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.permissions.ClassPermission;
+import net.datenwerke.sandbox.permissions.StackEntry;
+
+import org.junit.Test;
+
+/**
+ * The stack is only captured by checks that reach a stack dependent rule, and at most once per check.
+ */
+public class LazyClassContextTest {
+
+    @Test
+    public void stackIndependentRulesDoNotCaptureStack() {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.DENY, "java.lang.Runtime");
+        context.addPackagePermission(AccessType.PERMIT, "java.util");
+        context.addClassPermission(new ClassPermission("net.", new StackEntry(-1, Caller.class.getName())));
+
+        CountingContext stack = new CountingContext(Caller.class);
+        assertTrue(context.checkClassAccess("java.lang.String", stack));
+        assertFalse(context.checkClassAccess("java.lang.Runtime", stack));
+        assertFalse(context.checkClassAccess("org.Unknown", stack));
+        assertTrue(context.checkPackageAccess("java.util", stack));
+        assertEquals(0, stack.captures);
+    }
+
+    @Test
+    public void stackDependentRuleCapturesStackOnce() {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(new ClassPermission("net.", new StackEntry(-1, Caller.class.getName())));
+        context.addClassPermission(new ClassPermission("net.", new StackEntry(0, Other.class.getName())));
+
+        CountingContext permitted = new CountingContext(Other.class, Caller.class);
+        assertTrue(context.checkClassAccess("net.Some", permitted));
+        assertTrue(context.checkClassAccess("net.Other", permitted));
+        assertEquals(1, permitted.captures);
+
+        CountingContext denied = new CountingContext(String.class, Other.class);
+        assertFalse(context.checkClassAccess("net.Some", denied));
+        assertEquals(1, denied.captures);
+    }
+
+    @Test
+    public void capturedStackIsWrapped() {
+        Class[] stack = {Caller.class};
+        LazyClassContext context = LazyClassContext.of(stack);
+        assertFalse(context.isCaptured());
+        assertEquals(stack, context.get());
+        assertTrue(context.isCaptured());
+        assertEquals(0, LazyClassContext.of(null).get().length);
+    }
+
+    private static final class CountingContext extends LazyClassContext {
+        private final Class[] stack;
+        private int captures;
+
+        CountingContext(Class... stack) {
+            this.stack = stack;
+        }
+
+        @Override
+        protected Class[] capture() {
+            captures++;
+            return stack;
+        }
+    }
+
+    private static final class Caller {
+    }
+
+    private static final class Other {
+    }
+}
@@ -0,0 +1,128 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.AccessControlException;
+import java.security.Permission;
+import java.util.PropertyPermission;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * A thread can be restricted several times, every restriction applies until it is released.
+ */
+public class NestedRestrictionTest {
+
+    private static final Permission A = new PropertyPermission("nested.a", "read");
+    private static final Permission B = new PropertyPermission("nested.b", "read");
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void innerRestrictionNarrowsOuterRestriction() {
+        SandboxContext outer = context("nested.a", "nested.b");
+        SandboxContext inner = context("nested.a");
+
+        String outerPw = service.restrict(outer);
+        try {
+            assertNull(check(B));
+
+            String innerPw = service.restrict(inner);
+            Exception denied;
+            Exception granted;
+            try {
+                denied = check(B);
+                granted = check(A);
+            } finally {
+                service.releaseRestriction(innerPw);
+            }
+            assertTrue(denied instanceof AccessControlException);
+            assertNull(granted);
+
+            /* the outer restriction applies again */
+            assertNull(check(B));
+            assertTrue(service.isRestricted());
+        } finally {
+            service.releaseRestriction(outerPw);
+        }
+
+        assertFalse(service.isRestricted());
+    }
+
+    @Test
+    public void innerRestrictionCannotWidenOuterRestriction() {
+        SandboxContext outer = context("nested.a");
+        SandboxContext inner = context("nested.a", "nested.b");
+
+        String outerPw = service.restrict(outer);
+        try {
+            String innerPw = service.restrict(inner);
+            Exception denied;
+            try {
+                denied = check(B);
+            } finally {
+                service.releaseRestriction(innerPw);
+            }
+            assertTrue(denied instanceof AccessControlException);
+        } finally {
+            service.releaseRestriction(outerPw);
+        }
+    }
+
+    @Test
+    public void onlyTheInnermostRestrictionCanBeReleased() {
+        SandboxContext outer = context("nested.a");
+        SandboxContext inner = context("nested.a");
+
+        String outerPw = service.restrict(outer);
+        String innerPw = service.restrict(inner);
+        try {
+            try {
+                service.releaseRestriction(outerPw);
+                fail("released the outer restriction while the inner one was active");
+            } catch (AccessControlException expected) {
+            }
+            try {
+                service.releaseRestriction("wrong");
+                fail("released a restriction with a wrong password");
+            } catch (AccessControlException expected) {
+            }
+        } finally {
+            service.releaseRestriction(innerPw);
+            service.releaseRestriction(outerPw);
+        }
+
+        assertFalse(service.isRestricted());
+    }
+
+    private static SandboxContext context(String... properties) {
+        SandboxContext context = new SandboxContext();
+        for (String property : properties) {
+            context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), property, "read"));
+        }
+        return context;
+    }
+
+    private static Exception check(Permission perm) {
+        try {
+            service.getManager().checkPermission(perm);
+            return null;
+        } catch (AccessControlException e) {
+            return e;
+        }
+    }
+}
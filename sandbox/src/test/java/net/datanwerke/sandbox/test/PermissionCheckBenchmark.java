@@ -0,0 +1,77 @@
+package net.datanwerke.sandbox.test;
+
+import java.io.FilePermission;
+import java.lang.reflect.ReflectPermission;
+import java.net.NetPermission;
+import java.security.Permission;
+import java.util.PropertyPermission;
+
+import net.datenwerke.sandbox.LazyClassContext;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxPolicy;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+
+/**
+ * Compares interpreted permission checks with checks answered by a generated checker.
+ */
+public class PermissionCheckBenchmark {
+
+    private static final int RULES = 200;
+    private static final int ITERATIONS = 5000000;
+
+    public static void main(String[] args) {
+        Permission[] permissions = new Permission[]{
+                new RuntimePermission("rule" + (RULES - 1)),
+                new RuntimePermission("notConfigured"),
+                new PropertyPermission("property" + (RULES / 2), "read"),
+                new PropertyPermission("property" + (RULES / 2), "write"),
+                new ReflectPermission("suppressAccessChecks"),
+                new NetPermission("getProxySelector"),
+        };
+
+        SandboxPolicy interpreted = createContext(false).freeze();
+        SandboxPolicy generated = createContext(true).freeze();
+        System.out.println("generated checker available: " + generated.hasGeneratedPermissionChecker());
+
+        for (Permission perm : permissions) {
+            boolean expected = interpreted.checkPermission(perm, LazyClassContext.of(null));
+            boolean actual = generated.checkPermission(perm, LazyClassContext.of(null));
+            if (expected != actual) {
+                throw new IllegalStateException("Decisions differ for " + perm);
+            }
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + round);
+            run("  interpreted", interpreted, permissions);
+            run("  generated  ", generated, permissions);
+        }
+    }
+
+    private static SandboxContext createContext(boolean generatedChecks) {
+        SandboxContext context = new SandboxContext();
+        for (int i = 0; i < RULES; i++) {
+            context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(RuntimePermission.class.getName(), "rule" + i));
+            context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "property" + i, "read"));
+        }
+        context.addSecurityPermission(AccessType.DENY, new SecurityPermission(ReflectPermission.class.getName(), "suppressAccessChecks"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(ReflectPermission.class.getName()));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(NetPermission.class.getName(), "getProxySelector"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(FilePermission.class.getName(), "/tmp", "read"));
+        context.setGeneratedPermissionChecks(generatedChecks);
+        return context;
+    }
+
+    private static void run(String label, SandboxPolicy policy, Permission[] permissions) {
+        long start = System.nanoTime();
+        int granted = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (policy.checkPermission(permissions[i % permissions.length], LazyClassContext.of(null))) {
+                granted++;
+            }
+        }
+        long duration = System.nanoTime() - start;
+        System.out.println(label + ": " + (duration / ITERATIONS) + " ns/check (" + granted + " granted)");
+    }
+}
@@ -0,0 +1,82 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FilePermission;
+import java.lang.reflect.ReflectPermission;
+import java.net.NetPermission;
+import java.security.Permission;
+import java.util.PropertyPermission;
+
+import net.datenwerke.sandbox.LazyClassContext;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxPolicy;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+
+import org.junit.Test;
+
+/**
+ * The generated permission checker decides exactly like the interpreted rules.
+ */
+public class PermissionCheckerTest {
+
+    private static final Permission[] PERMISSIONS = {
+            /* name only rules */
+            new RuntimePermission("rule1"),
+            new RuntimePermission("notConfigured"),
+            /* rules with actions */
+            new PropertyPermission("property1", "read"),
+            new PropertyPermission("property1", "write"),
+            new PropertyPermission("property2", "read"),
+            /* blacklist before a rule without name */
+            new ReflectPermission("suppressAccessChecks"),
+            new ReflectPermission("newProxyInPackage.test"),
+            /* blacklist before a named rule */
+            new NetPermission("getProxySelector"),
+            new NetPermission("setProxySelector"),
+            /* type without rules */
+            new java.security.SecurityPermission("getPolicy"),
+            /* file permissions are interpreted */
+            new FilePermission("/tmp", "read"),
+            new FilePermission("/etc", "read"),
+    };
+
+    @Test
+    public void generatedAndInterpretedDecisionsMatch() {
+        SandboxPolicy interpreted = createContext(false).freeze();
+        SandboxPolicy generated = createContext(true).freeze();
+
+        assertFalse(interpreted.hasGeneratedPermissionChecker());
+        assertTrue(generated.hasGeneratedPermissionChecker());
+
+        for (Permission perm : PERMISSIONS) {
+            assertEquals(perm.toString(), interpreted.checkPermission(perm, LazyClassContext.of(null)),
+                    generated.checkPermission(perm, LazyClassContext.of(null)));
+        }
+
+        /* repeated checks are answered by the cache */
+        for (Permission perm : PERMISSIONS) {
+            assertEquals(perm.toString(), interpreted.checkPermission(perm, LazyClassContext.of(null)),
+                    generated.checkPermission(perm, LazyClassContext.of(null)));
+        }
+    }
+
+    private static SandboxContext createContext(boolean generatedChecks) {
+        SandboxContext context = new SandboxContext(false);
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(RuntimePermission.class.getName(), "rule1"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "property1", "read"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "property2", "read"));
+        context.addSecurityPermission(AccessType.DENY, new SecurityPermission(PropertyPermission.class.getName(), "property2", "read"));
+        context.addSecurityPermission(AccessType.DENY, new SecurityPermission(ReflectPermission.class.getName(), "suppressAccessChecks"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(ReflectPermission.class.getName()));
+        context.addSecurityPermission(AccessType.DENY, new SecurityPermission(NetPermission.class.getName(), "getProxySelector"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(NetPermission.class.getName(), "getProxySelector"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(NetPermission.class.getName(), "setProxySelector"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(FilePermission.class.getName(), "/tmp", "read"));
+        context.setGeneratedPermissionChecks(generatedChecks);
+        return context;
+    }
+}
@@ -0,0 +1,105 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.AccessControlException;
+import java.security.Permission;
+import java.util.PropertyPermission;
+
+import net.datenwerke.sandbox.LazyClassContext;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxPolicy;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Permission decisions are cached per compiled policy and discarded when the context changes.
+ */
+public class PermissionDecisionCacheTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void repeatedChecksAreAnsweredFromTheCache() {
+        SandboxContext context = new SandboxContext();
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "cache.test", "read"));
+
+        Permission perm = new PropertyPermission("cache.test", "read");
+        assertNull(check(context, perm));
+        long misses = context.getPermissionCacheMisses();
+        assertNull(check(context, perm));
+        assertNull(check(context, perm));
+
+        assertEquals(misses, context.getPermissionCacheMisses());
+        assertTrue(context.getPermissionCacheHits() >= 2);
+    }
+
+    @Test
+    public void deniedChecksStayDenied() {
+        SandboxContext context = new SandboxContext();
+
+        Permission perm = new PropertyPermission("cache.test", "read");
+        assertTrue(check(context, perm) instanceof AccessControlException);
+        assertTrue(check(context, perm) instanceof AccessControlException);
+    }
+
+    @Test
+    public void modificationsInvalidateCachedDecisions() {
+        SandboxContext context = new SandboxContext();
+        Permission perm = new PropertyPermission("cache.test", "read");
+
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "cache.test", "read"));
+        assertNull(check(context, perm));
+        assertNull(check(context, perm));
+
+        context.addSecurityPermission(AccessType.DENY, new SecurityPermission(PropertyPermission.class.getName(), "cache.test", "read"));
+        assertTrue(check(context, perm) instanceof AccessControlException);
+    }
+
+    @Test
+    public void policiesHandedOutEarlierAreNotAffected() {
+        SandboxContext context = new SandboxContext();
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "cache.test", "read"));
+        Permission perm = new PropertyPermission("cache.test", "read");
+
+        SandboxPolicy before = context.compile();
+        assertTrue(before.checkPermission(perm, LazyClassContext.of(null)));
+
+        context.addSecurityPermission(AccessType.DENY, new SecurityPermission(PropertyPermission.class.getName(), "cache.test", "read"));
+        SandboxPolicy after = context.compile();
+
+        assertNotSame(before, after);
+        assertTrue(before.checkPermission(perm, LazyClassContext.of(null)));
+        assertFalse(after.checkPermission(perm, LazyClassContext.of(null)));
+    }
+
+    /**
+     * Checks the permission on the current thread restricted by the context.
+     *
+     * @return the exception the check failed with or null
+     */
+    private static Exception check(SandboxContext context, Permission perm) {
+        String pw = service.restrict(context);
+        try {
+            service.getManager().checkPermission(perm);
+            return null;
+        } catch (AccessControlException e) {
+            return e;
+        } finally {
+            service.releaseRestriction(pw);
+        }
+    }
+}
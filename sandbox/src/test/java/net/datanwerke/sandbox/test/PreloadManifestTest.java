@@ -0,0 +1,113 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import net.datenwerke.sandbox.PreloadManifest;
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxContext.PreloadMode;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.SandboxedEnvironment;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Replaying a manifest must not grant access to classes the context denies.
+ */
+public class PreloadManifestTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void permittedClassesArePreloaded() throws Exception {
+        SandboxContext context = createContext();
+        PreloadManifest.write(PreloadManifest.getManifestFile(context),
+                Arrays.asList(Permitted.class.getName(), "does.not.Exist"));
+
+        SandboxClassLoader loader = service.initClassLoader(context);
+        assertEquals(1, PreloadManifest.preload(loader));
+        assertNotNull(service.runSandboxed(UsePermitted.class, context).getRaw());
+    }
+
+    @Test
+    public void deniedSandboxClassInManifestIsStillDenied() throws Exception {
+        SandboxContext context = createContext();
+        context.addClassPermission(AccessType.DENY, Denied.class.getName());
+        PreloadManifest.write(PreloadManifest.getManifestFile(context), Arrays.asList(Denied.class.getName()));
+
+        assertDenied(UseDenied.class, context);
+    }
+
+    @Test
+    public void deniedSystemClassInManifestIsStillDenied() throws Exception {
+        SandboxContext context = createContext();
+        context.addClassPermission(AccessType.DENY, CRC32.class.getName());
+        PreloadManifest.write(PreloadManifest.getManifestFile(context), Arrays.asList(CRC32.class.getName()));
+
+        assertDenied(UseCrc.class, context);
+    }
+
+    private static void assertDenied(Class<? extends SandboxedEnvironment> call, SandboxContext context) {
+        try {
+            service.runSandboxed(call, context);
+            fail("a denied class listed in the manifest was accessible");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    private static SandboxContext createContext() throws Exception {
+        File directory = Files.createTempDirectory("preload").toFile();
+        directory.deleteOnExit();
+
+        SandboxContext context = new SandboxContext();
+        context.setName("preload-" + UUID.randomUUID());
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        context.setPreloadManifestDirectory(directory);
+        context.setPreloadMode(PreloadMode.REPLAY);
+        return context;
+    }
+
+    public static class Permitted {
+    }
+
+    public static class Denied {
+    }
+
+    public static class UsePermitted implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            return new Permitted();
+        }
+    }
+
+    public static class UseDenied implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            return new Denied();
+        }
+    }
+
+    public static class UseCrc implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            return new CRC32().getValue();
+        }
+    }
+}
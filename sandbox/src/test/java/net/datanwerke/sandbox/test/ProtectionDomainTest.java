@@ -0,0 +1,64 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.ProtectionDomain;
+
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Sandboxed classes get a protection domain per class, or per package if domains are shared.
+ */
+public class ProtectionDomainTest {
+
+    @BeforeClass
+    public static void init() {
+        SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void classesHaveOwnDomainsByDefault() throws Exception {
+        SandboxClassLoader loader = createLoader(false);
+        Class<?> ioUtils = loader.loadClass("org.apache.commons.io.IOUtils");
+        Class<?> fileUtils = loader.loadClass("org.apache.commons.io.FileUtils");
+
+        assertNotSame(ioUtils.getProtectionDomain(), fileUtils.getProtectionDomain());
+        assertTrue(location(ioUtils).endsWith("/org/apache/commons/io/IOUtils"));
+        assertNotNull(ioUtils.getPackage());
+        assertSame(ioUtils.getPackage(), fileUtils.getPackage());
+    }
+
+    @Test
+    public void classesOfPackageShareDomain() throws Exception {
+        SandboxClassLoader loader = createLoader(true);
+        Class<?> ioUtils = loader.loadClass("org.apache.commons.io.IOUtils");
+        Class<?> fileUtils = loader.loadClass("org.apache.commons.io.FileUtils");
+        Class<?> filter = loader.loadClass("org.apache.commons.io.filefilter.TrueFileFilter");
+
+        ProtectionDomain domain = ioUtils.getProtectionDomain();
+        assertSame(domain, fileUtils.getProtectionDomain());
+        assertNotSame(domain, filter.getProtectionDomain());
+        assertTrue(location(ioUtils).endsWith("/org/apache/commons/io/"));
+        assertTrue(location(filter).endsWith("/org/apache/commons/io/filefilter/"));
+        assertNotNull(filter.getPackage());
+    }
+
+    private static String location(Class<?> clazz) {
+        return clazz.getProtectionDomain().getCodeSource().getLocation().toString();
+    }
+
+    private static SandboxClassLoader createLoader(boolean share) {
+        SandboxContext context = new SandboxContext();
+        context.setSharePackageProtectionDomains(share);
+        SandboxClassLoader loader = new SandboxClassLoader();
+        loader.init(context);
+        return loader;
+    }
+}
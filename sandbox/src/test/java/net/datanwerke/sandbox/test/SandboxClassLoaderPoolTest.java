@@ -0,0 +1,136 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxClassLoaderPool;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.SandboxedEnvironment;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Loaders are reused per frozen context until they are retired or evicted.
+ */
+public class SandboxClassLoaderPoolTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void releasedLoaderIsReused() {
+        SandboxClassLoaderPool pool = new SandboxClassLoaderPool();
+        SandboxContext context = createContext();
+
+        SandboxClassLoader loader = pool.acquire(context, service);
+        assertNotSame(loader, pool.acquire(context, service));
+        pool.release(context, loader, false);
+        assertEquals(1, pool.getIdleCount());
+
+        assertSame(loader, pool.acquire(context, service));
+        assertNotSame(loader, pool.acquire(createContext(), service));
+        assertEquals(1, pool.getHits());
+        assertEquals(3, pool.getMisses());
+    }
+
+    @Test
+    public void onlyFrozenContextsArePooled() {
+        SandboxClassLoaderPool pool = new SandboxClassLoaderPool();
+        assertFalse(pool.isPoolable(new SandboxContext()));
+        assertTrue(pool.isPoolable(createContext()));
+        assertFalse(new SandboxClassLoaderPool(0, 1, TimeUnit.MINUTES, 0, true).isPoolable(createContext()));
+    }
+
+    @Test
+    public void loadersAreRetiredAfterMaxUses() {
+        SandboxClassLoaderPool pool = new SandboxClassLoaderPool(4, 5, TimeUnit.MINUTES, 2, true);
+        SandboxContext context = createContext();
+
+        SandboxClassLoader loader = pool.acquire(context, service);
+        pool.release(context, loader, false);
+        assertSame(loader, pool.acquire(context, service));
+        pool.release(context, loader, false);
+
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, pool.getRetired());
+        assertNotSame(loader, pool.acquire(context, service));
+    }
+
+    @Test
+    public void loadersOfKilledCallsAreRetired() {
+        SandboxContext context = createContext();
+
+        SandboxClassLoaderPool retiring = new SandboxClassLoaderPool();
+        retiring.release(context, retiring.acquire(context, service), true);
+        assertEquals(0, retiring.getIdleCount());
+        assertEquals(1, retiring.getRetired());
+
+        SandboxClassLoaderPool keeping = new SandboxClassLoaderPool(4, 5, TimeUnit.MINUTES, 0, false);
+        keeping.release(context, keeping.acquire(context, service), true);
+        assertEquals(1, keeping.getIdleCount());
+        assertEquals(0, keeping.getRetired());
+    }
+
+    @Test
+    public void idleLoadersAreLimitedAndEvicted() throws Exception {
+        SandboxClassLoaderPool pool = new SandboxClassLoaderPool(1, 50, TimeUnit.MILLISECONDS, 0, true);
+        SandboxContext context = createContext();
+
+        SandboxClassLoader first = pool.acquire(context, service);
+        SandboxClassLoader second = pool.acquire(context, service);
+        pool.release(context, first, false);
+        pool.release(context, second, false);
+        assertEquals(1, pool.getIdleCount());
+
+        Thread.sleep(200);
+        assertNotSame(first, pool.acquire(context, service));
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getHits());
+    }
+
+    @Test
+    public void serviceRunsCallsOnPooledLoaders() {
+        SandboxClassLoaderPool pool = new SandboxClassLoaderPool();
+        SandboxContext context = createContext();
+
+        SandboxClassLoaderPool previous = service.getClassLoaderPool();
+        service.setClassLoaderPool(pool);
+        try {
+            Object first = service.runSandboxed(GetLoader.class, context).getRaw();
+            Object second = service.runSandboxed(GetLoader.class, context).getRaw();
+            assertSame(first, second);
+            assertEquals(1, pool.getHits());
+        } finally {
+            service.setClassLoaderPool(previous);
+        }
+    }
+
+    private static SandboxContext createContext() {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        context.freeze();
+        return context;
+    }
+
+    public static class GetLoader implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            return getClass().getClassLoader();
+        }
+    }
+}
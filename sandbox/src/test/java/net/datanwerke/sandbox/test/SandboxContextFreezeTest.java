@@ -0,0 +1,129 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilePermission;
+import java.net.URL;
+import java.security.Permission;
+import java.util.PropertyPermission;
+import java.util.UUID;
+
+import net.datenwerke.sandbox.LazyClassContext;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+
+import org.junit.Test;
+
+/**
+ * Frozen contexts cannot be modified, neither through their setters nor through their getters.
+ */
+public class SandboxContextFreezeTest {
+
+    @Test
+    public void settersFailOnFrozenContext() {
+        SandboxContext context = new SandboxContext();
+        context.freeze();
+
+        assertTrue(context.isFrozen());
+        try {
+            context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "freeze.test", "read"));
+            fail("modified a frozen context");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            context.setDebug(true);
+            fail("modified a frozen context");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void gettersOfFrozenContextAreUnmodifiable() throws Exception {
+        SandboxContext context = new SandboxContext();
+        context.freeze();
+
+        try {
+            context.getWhitelistedJars().add(new URL("file:/freeze.jar"));
+            fail("modified a frozen context through a getter");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            context.getSubLoaderContextByClassMap().put("freeze.Test", new SandboxContext());
+            fail("modified a frozen context through a getter");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void cloneOfFrozenContextIsModifiable() throws Exception {
+        SandboxContext context = new SandboxContext();
+        context.freeze();
+
+        SandboxContext clone = context.clone();
+        assertFalse(clone.isFrozen());
+        clone.addJarToWhitelist(new URL("file:/freeze.jar"));
+        assertTrue(context.getWhitelistedJars().isEmpty());
+    }
+
+    @Test
+    public void subloaderContextsAreFrozen() {
+        SandboxContext subcontext = new SandboxContext();
+        SandboxContext context = new SandboxContext();
+        context.addSubloaderContext("freeze.Test", subcontext);
+
+        context.freeze();
+        assertTrue(subcontext.isFrozen());
+    }
+
+    @Test
+    public void freezeReturnsCompiledPolicy() {
+        SandboxContext context = new SandboxContext();
+        assertSame(context.freeze(), context.compile());
+    }
+
+    @Test
+    public void registeredContextIsFrozenCopy() {
+        SandboxService service = SandboxTestSupport.getService();
+        String name = "freeze-" + UUID.randomUUID();
+
+        SandboxContext context = new SandboxContext();
+        service.registerContext(name, context);
+
+        SandboxContext registered = service.getContext(name);
+        assertFalse(context.isFrozen());
+        assertNotSame(context, registered);
+        assertTrue(registered.isFrozen());
+    }
+
+    @Test
+    public void registeredCopyMakesSameDecisions() {
+        SandboxService service = SandboxTestSupport.getService();
+        String name = "freeze-" + UUID.randomUUID();
+
+        SandboxContext context = new SandboxContext(false);
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(PropertyPermission.class.getName(), "freeze.test", "read"));
+        context.addSubloaderContext("freeze.Test", new SandboxContext(false));
+        service.registerContext(name, context);
+
+        SandboxContext registered = service.getContext(name);
+        assertEquals(1, registered.getSubLoaderContextByClassMap().size());
+
+        Permission[] perms = {
+                new PropertyPermission("freeze.test", "read"),
+                new PropertyPermission("freeze.other", "read"),
+                new FilePermission(System.getProperty("java.class.path").split(File.pathSeparator)[0], "read")
+        };
+        for (Permission perm : perms) {
+            assertEquals(perm.toString(), context.compile().checkPermission(perm, LazyClassContext.of(null)),
+                    registered.compile().checkPermission(perm, LazyClassContext.of(null)));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.SandboxedEnvironment;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Classes of stateless libraries are defined once and shared by contexts with the same class access rules.
+ */
+public class SandboxLibraryLoaderTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void libraryClassesAreDefinedByTheLibraryLoader() throws Exception {
+        URL jar = createLibrary();
+        service.registerStatelessLibrary(jar);
+
+        Class<?> first = (Class<?>) service.runSandboxed(GetLibrary.class, createContext(jar)).getRaw();
+        Class<?> second = (Class<?>) service.runSandboxed(GetLibrary.class, createContext(jar)).getRaw();
+
+        assertEquals("net.datenwerke.sandbox.SandboxLibraryLoader", first.getClassLoader().getClass().getName());
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void stricterContextDoesNotReuseResolvedReferences() throws Exception {
+        URL jar = createLibrary();
+        service.registerStatelessLibrary(jar);
+
+        assertNotNull(service.runSandboxed(UseLibrary.class, createContext(jar)).getRaw());
+
+        SandboxContext strict = createContext(jar);
+        strict.addClassPermission(AccessType.DENY, CRC32.class.getName());
+        try {
+            service.runSandboxed(UseLibrary.class, strict);
+            fail("library resolved a class denied by the context");
+        } catch (RuntimeException expected) {
+        }
+    }
+
+    private static SandboxContext createContext(URL jar) {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        context.addJarToWhitelist(jar);
+        context.setShareWhitelistedJars(true);
+        return context;
+    }
+
+    /**
+     * Creates a jar containing {@link Library}.
+     */
+    private static URL createLibrary() throws Exception {
+        File file = File.createTempFile("library", ".jar");
+        file.deleteOnExit();
+
+        String path = Library.class.getName().replace('.', '/') + ".class";
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+             InputStream in = Library.class.getClassLoader().getResourceAsStream(path)) {
+            out.putNextEntry(new JarEntry(path));
+            IOUtils.copy(in, out);
+            out.closeEntry();
+        }
+        return file.toURI().toURL();
+    }
+
+    public static class Library {
+        public static long checksum(byte[] bytes) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return crc.getValue();
+        }
+    }
+
+    public static class GetLibrary implements SandboxedEnvironment<Class<?>> {
+        @Override
+        public Class<?> execute() throws Exception {
+            return Library.class;
+        }
+    }
+
+    public static class UseLibrary implements SandboxedEnvironment<Long> {
+        @Override
+        public Long execute() throws Exception {
+            return Library.checksum(new byte[]{1, 2, 3});
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.datanwerke.sandbox.test;
+
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.SandboxServiceImpl;
+
+/**
+ * Gives the tests of this package access to the one {@link SandboxService} of the JVM.
+ */
+final class SandboxTestSupport {
+
+    private SandboxTestSupport() {
+    }
+
+    /**
+     * Returns the sandbox service, installing the sandbox security manager on first use.
+     *
+     * @return
+     */
+    static synchronized SandboxService getService() {
+        try {
+            return SandboxServiceImpl.initLocalSandboxService();
+        } catch (IllegalStateException e) {
+            return SandboxServiceImpl.getInstance();
+        }
+    }
+}
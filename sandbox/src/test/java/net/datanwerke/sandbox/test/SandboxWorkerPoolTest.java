@@ -0,0 +1,103 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.SandboxWorkerPool;
+import net.datenwerke.sandbox.SandboxedEnvironment;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Pooled threads run consecutive calls and do not pass thread locals from one call to the next.
+ */
+public class SandboxWorkerPoolTest {
+
+    private static SandboxService service;
+
+    private SandboxWorkerPool previous;
+    private SandboxWorkerPool pool;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Before
+    public void installPool() {
+        previous = service.getWorkerPool();
+        pool = new SandboxWorkerPool(service, 1);
+        service.setWorkerPool(pool);
+    }
+
+    @After
+    public void restorePool() {
+        service.setWorkerPool(previous);
+        pool.shutdown();
+    }
+
+    @Test
+    public void callsRunOnPooledThread() {
+        SandboxContext context = createContext();
+
+        Object first = service.runSandboxed(SetThreadLocals.class, context).getRaw();
+        Object second = service.runSandboxed(SetThreadLocals.class, context).getRaw();
+
+        assertEquals(first, second);
+        assertEquals(2, pool.getHits());
+        assertEquals(0, pool.getReplaced());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void threadLocalsAreCleared() throws Exception {
+        long id = (Long) service.runSandboxed(SetThreadLocals.class, createContext()).getRaw();
+
+        Thread worker = findThread(id);
+        assertNotNull(worker);
+        assertNull(getField(worker, "threadLocals"));
+        assertNull(getField(worker, "inheritableThreadLocals"));
+    }
+
+    private static Thread findThread(long id) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (id == thread.getId()) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    private static Object getField(Thread thread, String name) throws Exception {
+        Field field = Thread.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(thread);
+    }
+
+    private static SandboxContext createContext() {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        context.setRunInThread(true);
+        return context;
+    }
+
+    public static class SetThreadLocals implements SandboxedEnvironment<Long> {
+        @Override
+        public Long execute() throws Exception {
+            new ThreadLocal<String>().set("sandboxed");
+            new InheritableThreadLocal<String>().set("sandboxed");
+            return Thread.currentThread().getId();
+        }
+    }
+}
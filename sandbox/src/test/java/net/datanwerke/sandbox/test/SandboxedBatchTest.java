@@ -0,0 +1,114 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.SandboxedBatchResult;
+import net.datenwerke.sandbox.SandboxedBatchTask;
+import net.datenwerke.sandbox.SandboxedEnvironment;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Batches report an outcome per task, a killed task does not affect the remaining tasks.
+ */
+public class SandboxedBatchTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void resultsAreReportedInOrder() {
+        List<SandboxedBatchResult> results = service.runSandboxedBatch(Echo.class, createContext(false),
+                Arrays.asList(new Object[]{1}, new Object[]{2}, new Object[]{3}));
+
+        assertEquals(3, results.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.get(i).isSuccess());
+            assertEquals(i + 1, results.get(i).getResult().getRaw());
+        }
+    }
+
+    @Test
+    public void failingTaskDoesNotAffectOthers() {
+        List<SandboxedBatchResult> results = service.runSandboxedBatch(Arrays.asList(
+                new SandboxedBatchTask(Echo.class, 1),
+                new SandboxedBatchTask(Fail.class),
+                new SandboxedBatchTask(Echo.class, 3)), createContext(false));
+
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertFalse(results.get(1).isKilled());
+        assertTrue(results.get(2).isSuccess());
+        assertEquals(3, results.get(2).getResult().getRaw());
+    }
+
+    @Test
+    public void killedTaskDoesNotAffectOthers() {
+        List<SandboxedBatchResult> results = service.runSandboxedBatch(Arrays.asList(
+                new SandboxedBatchTask(Echo.class, 1),
+                new SandboxedBatchTask(Spin.class),
+                new SandboxedBatchTask(Echo.class, 3)), createContext(true));
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(1, results.get(0).getResult().getRaw());
+        assertTrue(results.get(1).isKilled());
+        assertTrue(results.get(2).isSuccess());
+        assertEquals(3, results.get(2).getResult().getRaw());
+    }
+
+    private static SandboxContext createContext(boolean limitRunTime) {
+        SandboxContext context = new SandboxContext();
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        context.setRunInThread(true);
+        if (limitRunTime) {
+            context.setMaximumRunTime(200);
+            context.setMaximumRunTimeUnit(TimeUnit.MILLISECONDS);
+        }
+        return context;
+    }
+
+    public static class Echo implements SandboxedEnvironment<Integer> {
+        private final Integer value;
+
+        public Echo(Integer value) {
+            this.value = value;
+        }
+
+        @Override
+        public Integer execute() throws Exception {
+            return value;
+        }
+    }
+
+    public static class Fail implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            throw new IllegalStateException("failed");
+        }
+    }
+
+    public static class Spin implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            while (true) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
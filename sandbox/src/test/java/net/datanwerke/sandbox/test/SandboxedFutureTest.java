@@ -0,0 +1,143 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import net.datenwerke.sandbox.SandboxBulkhead;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxContext.AdmissionPolicy;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.SandboxedEnvironment;
+import net.datenwerke.sandbox.SandboxedFuture;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Asynchronous calls complete their future, cancelling the future aborts or dequeues the call.
+ */
+public class SandboxedFutureTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void resultCompletesFuture() throws Exception {
+        SandboxedFuture<Integer> future = service.runSandboxedAsync(Echo.class, createContext(), 5);
+        assertEquals(5, future.get(10, TimeUnit.SECONDS).getRaw());
+    }
+
+    @Test
+    public void cancelKillsRunningCall() throws Exception {
+        SandboxContext context = createContext();
+        SandboxedFuture<Object> future = service.runSandboxedAsync(Spin.class, context);
+        waitFor(context, true);
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        try {
+            future.get();
+            fail("cancelled future returned a result");
+        } catch (CancellationException expected) {
+        }
+        waitFor(context, false);
+    }
+
+    @Test
+    public void cancelledQueuedCallIsNotRun() throws Exception {
+        SandboxContext context = createContext();
+        context.setMaximumConcurrentExecutions(1);
+        context.setAdmissionPolicy(AdmissionPolicy.WAIT);
+
+        SandboxedFuture<Object> running = service.runSandboxedAsync(Spin.class, context);
+        waitFor(context, true);
+        SandboxedFuture<Integer> queued = service.runSandboxedAsync(Echo.class, context, 5);
+        SandboxBulkhead bulkhead = service.getBulkhead(context);
+        assertEquals(1, bulkhead.getQueueDepth());
+
+        assertTrue(queued.cancel(false));
+        assertEquals(0, bulkhead.getQueueDepth());
+        assertEquals(1, bulkhead.getAdmitted());
+
+        assertTrue(running.cancel(true));
+        waitFor(context, false);
+        for (int i = 0; i < 1000 && 0 < bulkhead.getRunning(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, bulkhead.getRunning());
+        assertEquals(1, bulkhead.getAdmitted());
+    }
+
+    /**
+     * Waits until a thread of the context runs {@link Spin}, or until no thread of the context is alive.
+     * Calls are only cancelled once they run sandboxed code, so that the kill does not hit the sandbox itself.
+     */
+    private static void waitFor(SandboxContext context, boolean spinning) throws InterruptedException {
+        String name = "sandbox-" + context.getName();
+        for (int i = 0; i < 1000; i++) {
+            boolean found = false;
+            for (Map.Entry<Thread, StackTraceElement[]> e : Thread.getAllStackTraces().entrySet()) {
+                if (name.equals(e.getKey().getName())) {
+                    found |= !spinning || isSpinning(e.getValue());
+                }
+            }
+            if (found == spinning) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("timed out waiting for " + name);
+    }
+
+    private static boolean isSpinning(StackTraceElement[] stack) {
+        for (StackTraceElement element : stack) {
+            if (Spin.class.getName().equals(element.getClassName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static SandboxContext createContext() {
+        SandboxContext context = new SandboxContext();
+        context.setName("async-" + UUID.randomUUID());
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "java.");
+        context.addClassPermission(AccessType.PERMIT, Mode.PREFIX, "net.datanwerke.sandbox.test.");
+        context.setRunInThread(true);
+        return context;
+    }
+
+    public static class Echo implements SandboxedEnvironment<Integer> {
+        private final Integer value;
+
+        public Echo(Integer value) {
+            this.value = value;
+        }
+
+        @Override
+        public Integer execute() throws Exception {
+            return value;
+        }
+    }
+
+    public static class Spin implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            while (true) {
+                Thread.sleep(10);
+            }
+        }
+    }
+}
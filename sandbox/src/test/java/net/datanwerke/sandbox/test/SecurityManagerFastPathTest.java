@@ -0,0 +1,77 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.AccessType;
+import net.datenwerke.sandbox.SandboxSecurityManager;
+import net.datenwerke.sandbox.SandboxService;
+import net.datenwerke.sandbox.permissions.SecurityPermission;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks skip the thread local lookup only while no thread is restricted. Threads that
+ * inherit a restriction must not disable this for good.
+ */
+public class SecurityManagerFastPathTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void inheritedRestrictionIsReleasedWhenThreadTerminates() throws Exception {
+        int before = getRestrictedFrames();
+
+        SandboxContext context = new SandboxContext();
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(RuntimePermission.class.getName(), "modifyThread"));
+        context.addSecurityPermission(AccessType.PERMIT, new SecurityPermission(RuntimePermission.class.getName(), "modifyThreadGroup"));
+
+        final AtomicBoolean childRestricted = new AtomicBoolean();
+        Thread child = null;
+        Exception failure = null;
+        String pw = service.restrict(context);
+        try {
+            child = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    childRestricted.set(service.isRestricted());
+                }
+            });
+            child.start();
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            service.releaseRestriction(pw);
+        }
+        assertNull(failure);
+
+        child.join();
+        child = null;
+        assertTrue(childRestricted.get());
+
+        for (int i = 0; i < 100 && getRestrictedFrames() != before; i++) {
+            System.gc();
+            Thread.sleep(50);
+            service.isRestricted();
+        }
+        assertEquals(before, getRestrictedFrames());
+    }
+
+    private static int getRestrictedFrames() throws Exception {
+        Field field = SandboxSecurityManager.class.getDeclaredField("restrictedFrames");
+        field.setAccessible(true);
+        return ((AtomicInteger) field.get(service.getManager())).get();
+    }
+}
@@ -0,0 +1,96 @@
+package net.datanwerke.sandbox.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import net.datenwerke.sandbox.SandboxClassLoader;
+import net.datenwerke.sandbox.SandboxContext;
+import net.datenwerke.sandbox.SandboxContext.Mode;
+import net.datenwerke.sandbox.SandboxService;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Classes are routed to sub loaders by jar first, then by class name, then by the longest class prefix.
+ */
+public class SubLoaderRoutingTest {
+
+    private static SandboxService service;
+
+    @BeforeClass
+    public static void init() {
+        service = SandboxTestSupport.getService();
+    }
+
+    @Test
+    public void routingPrecedence() throws Exception {
+        File jar = createJar("x/y/Z.class", "a/B.class");
+
+        SandboxContext context = new SandboxContext();
+        context.addSubloaderContext(jar.toURI().toURL(), createContext("jar"));
+        context.addSubloaderContext("x.y.Z", createContext("class"));
+        context.addSubloaderContext("x.y.V", createContext("class"));
+        context.addSubloaderContext("x.", Mode.PREFIX, createContext("short"));
+        context.addSubloaderContext("x.y.", Mode.PREFIX, createContext("long"));
+
+        SandboxClassLoader loader = service.initClassLoader(context);
+        assertRoutedTo("jar", loader, "x.y.Z");
+        assertRoutedTo("jar", loader, "a.B");
+        assertRoutedTo("class", loader, "x.y.V");
+        assertRoutedTo("long", loader, "x.y.W");
+        assertRoutedTo("short", loader, "x.z.W");
+        assertNull(loader.getSubLoaderByClassContext("y.x.Z"));
+        assertNull(loader.getSubLoaderByClassContext("x"));
+    }
+
+    @Test
+    public void changedJarIsIndexedAgain() throws Exception {
+        File jar = createJar("p/Old.class");
+        URL url = jar.toURI().toURL();
+
+        SandboxContext context = new SandboxContext();
+        context.addSubloaderContext(url, createContext("jar"));
+        assertRoutedTo("jar", service.initClassLoader(context), "p.Old");
+
+        File replacement = createJar("p/Old.class", "p/New.class");
+        long lastModified = jar.lastModified();
+        if (!replacement.renameTo(jar)) {
+            throw new IllegalStateException("could not replace " + jar);
+        }
+        jar.setLastModified(lastModified + 2000);
+
+        SandboxClassLoader loader = service.initClassLoader(context);
+        assertRoutedTo("jar", loader, "p.Old");
+        assertRoutedTo("jar", loader, "p.New");
+    }
+
+    private static void assertRoutedTo(String name, SandboxClassLoader loader, String className) {
+        SandboxClassLoader subLoader = loader.getSubLoaderByClassContext(className);
+        assertEquals(className, name, null == subLoader ? null : subLoader.getContext().getName());
+    }
+
+    private static SandboxContext createContext(String name) {
+        SandboxContext context = new SandboxContext();
+        context.setName(name);
+        return context;
+    }
+
+    private static File createJar(String... entries) throws Exception {
+        File file = File.createTempFile("subloader", ".jar");
+        file.deleteOnExit();
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file))) {
+            for (String entry : entries) {
+                out.putNextEntry(new JarEntry(entry));
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,114 @@
+package net.datenwerke.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.datenwerke.sandbox.jvm.JvmFreelancer;
+import net.datenwerke.sandbox.jvm.JvmPool;
+import net.datenwerke.sandbox.jvm.JvmTask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Remote asynchronous calls are handed to the jvm pool exactly once, and cancelling the call cancels the pooled task.
+ */
+public class AsyncRemoteDispatchTest {
+
+    private SandboxServiceImpl service;
+    private JvmPool previousPool;
+    private RecordingPool pool;
+
+    @Before
+    public void installPool() {
+        try {
+            service = (SandboxServiceImpl) SandboxServiceImpl.initLocalSandboxService();
+        } catch (IllegalStateException e) {
+            service = (SandboxServiceImpl) SandboxServiceImpl.getInstance();
+        }
+        previousPool = service.jvmPool;
+        pool = new RecordingPool();
+        service.jvmPool = pool;
+    }
+
+    @After
+    public void restorePool() {
+        service.jvmPool = previousPool;
+    }
+
+    @Test
+    public void taskIsSubmittedOnce() throws Exception {
+        SandboxedFuture<Object> future = service.runSandboxedAsync(Call.class, createContext());
+        pool.task.complete(new SandboxedCallResultImpl<Object>(42));
+
+        assertEquals(42, future.get(10, TimeUnit.SECONDS).getRaw());
+        assertEquals(1, pool.submissions.get());
+    }
+
+    @Test
+    public void cancelCancelsPooledTask() throws Exception {
+        SandboxedFuture<Object> future = service.runSandboxedAsync(Call.class, createContext());
+        assertTrue(future.cancel(true));
+
+        assertTrue(pool.task.isCancelled());
+        assertEquals(1, pool.submissions.get());
+    }
+
+    private static SandboxContext createContext() {
+        SandboxContext context = new SandboxContext();
+        context.setRunRemote(true);
+        return context;
+    }
+
+    public static class Call implements SandboxedEnvironment<Object> {
+        @Override
+        public Object execute() throws Exception {
+            return null;
+        }
+    }
+
+    private static class RecordingPool implements JvmPool {
+
+        final AtomicInteger submissions = new AtomicInteger();
+        final CompletableFuture<SandboxedCallResult> task = new CompletableFuture<>();
+
+        @Override
+        public Future<SandboxedCallResult> addTask(JvmTask task) {
+            submissions.incrementAndGet();
+            return this.task;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public JvmFreelancer acquireFreelancer() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JvmFreelancer acquireFreelancer(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void releaseFreelancer(JvmFreelancer freelancer) {
+        }
+
+        @Override
+        public void restart() {
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package net.datenwerke.sandbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.NotFoundException;
+
+import org.junit.Test;
+
+/**
+ * {@link ClassFileScanner#declaresFinalizer(byte[])} agrees with the javassist based finalizer removal it guards.
+ */
+public class ClassFileScannerTest {
+
+    @Test
+    public void finalizersOfTestClasses() throws Exception {
+        assertFinalizer(false, NoFinalizer.class);
+        assertFinalizer(false, EmptyFinalizer.class);
+        assertFinalizer(true, Finalizer.class);
+        assertFinalizer(false, AbstractFinalizer.class);
+        assertFinalizer(true, NativeFinalizer.class);
+        assertFinalizer(false, OtherFinalize.class);
+        assertFinalizer(false, InheritedFinalizer.class);
+        assertFinalizer(false, FinalizerInterface.class);
+    }
+
+    @Test
+    public void runtimeClassesMatchJavassist() throws Exception {
+        File rt = new File(System.getProperty("java.home"), "lib/rt.jar");
+        if (!rt.exists()) {
+            return;
+        }
+
+        int finalizers = 0;
+        try (JarFile jar = new JarFile(rt)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            for (int i = 0; i < 5000 && entries.hasMoreElements(); ) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(".class")) {
+                    continue;
+                }
+                i++;
+
+                byte[] b = read(jar.getInputStream(entry));
+                boolean declared = ClassFileScanner.declaresFinalizer(b);
+                assertEquals(entry.getName(), removedByJavassist(b), declared);
+                if (declared) {
+                    finalizers++;
+                }
+            }
+        }
+        assertTrue(0 < finalizers);
+    }
+
+    @Test
+    public void removalMatchesJavassist() throws Exception {
+        for (Class<?> type : new Class<?>[]{NoFinalizer.class, EmptyFinalizer.class, Finalizer.class, NativeFinalizer.class}) {
+            byte[] b = read(type);
+            assertArrayEquals(type.getName(), removeWithJavassist(b), SandboxClassLoader.removeFinalizer(b));
+        }
+    }
+
+    @Test
+    public void unreadableClassesArePassedOn() {
+        assertTrue(ClassFileScanner.declaresFinalizer(new byte[]{1, 2, 3, 4}));
+        assertTrue(ClassFileScanner.declaresFinalizer(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0}));
+    }
+
+    private static void assertFinalizer(boolean expected, Class<?> type) throws Exception {
+        byte[] b = read(type);
+        assertEquals(type.getName(), expected, removedByJavassist(b));
+        assertEquals(type.getName(), expected, ClassFileScanner.declaresFinalizer(b));
+        if (!expected) {
+            assertSame(b, SandboxClassLoader.removeFinalizer(b));
+        }
+    }
+
+    /* the check the sandbox class loader made for every class before the scanner was introduced */
+    private static boolean removedByJavassist(byte[] b) throws IOException {
+        CtClass clazz = new ClassPool().makeClass(new ByteArrayInputStream(b));
+        if (clazz.isInterface()) {
+            return false;
+        }
+        try {
+            CtMethod method = clazz.getMethod("finalize", "()V");
+            return null != method && !method.isEmpty();
+        } catch (NotFoundException e) {
+            return false;
+        }
+    }
+
+    private static byte[] removeWithJavassist(byte[] b) throws Exception {
+        if (!removedByJavassist(b)) {
+            return b;
+        }
+        CtClass clazz = new ClassPool().makeClass(new ByteArrayInputStream(b));
+        clazz.removeMethod(clazz.getMethod("finalize", "()V"));
+        return clazz.toBytecode();
+    }
+
+    private static byte[] read(Class<?> type) throws IOException {
+        return read(type.getResourceAsStream(type.getName().substring(type.getName().lastIndexOf('.') + 1) + ".class"));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; -1 != (n = stream.read(buffer)); ) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    public static class NoFinalizer {
+    }
+
+    public static class EmptyFinalizer {
+        @Override
+        protected void finalize() {
+        }
+    }
+
+    public static class Finalizer {
+        static int finalized;
+
+        @Override
+        protected void finalize() {
+            finalized++;
+        }
+    }
+
+    public abstract static class AbstractFinalizer {
+        @Override
+        protected abstract void finalize();
+    }
+
+    public static class NativeFinalizer {
+        @Override
+        protected native void finalize();
+    }
+
+    public static class OtherFinalize {
+        protected void finalize(int unused) {
+            Finalizer.finalized++;
+        }
+    }
+
+    public static class InheritedFinalizer extends Finalizer {
+    }
+
+    public interface FinalizerInterface {
+        void finalize();
+    }
+}
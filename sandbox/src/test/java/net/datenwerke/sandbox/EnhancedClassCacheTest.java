@@ -0,0 +1,82 @@
+package net.datenwerke.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Enhanced classes are found by name, source and enhancement, and evicted least recently used first.
+ */
+public class EnhancedClassCacheTest {
+
+    private static final Object IDENTITY = "test";
+
+    @Test
+    public void storedClassIsFound() {
+        EnhancedClassCache cache = new EnhancedClassCache(1024);
+        byte[] source = bytes(10, 1);
+        byte[] enhanced = bytes(10, 2);
+
+        EnhancedClassCache.Key key = EnhancedClassCache.key("a.B", source, true, IDENTITY);
+        assertNull(cache.get(key));
+        cache.put(key, source, enhanced);
+
+        assertSame(enhanced, cache.get(EnhancedClassCache.key("a.B", source.clone(), true, IDENTITY)));
+        assertNull(cache.get(EnhancedClassCache.key("a.B", source, false, IDENTITY)));
+        assertNull(cache.get(EnhancedClassCache.key("a.B", source, true, "other")));
+        assertNull(cache.get(EnhancedClassCache.key("a.B", bytes(10, 3), true, IDENTITY)));
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void unchangedClassIsNotStored() {
+        EnhancedClassCache cache = new EnhancedClassCache(1024);
+        byte[] source = bytes(10, 1);
+
+        cache.put(EnhancedClassCache.key("a.B", source, true, IDENTITY), source, source.clone());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void leastRecentlyUsedClassIsEvicted() {
+        EnhancedClassCache cache = new EnhancedClassCache(100);
+        EnhancedClassCache.Key a = put(cache, "A");
+        EnhancedClassCache.Key b = put(cache, "B");
+
+        /* A becomes the most recently used entry */
+        cache.get(a);
+        EnhancedClassCache.Key c = put(cache, "C");
+
+        assertEquals(2, cache.size());
+        assertEquals(80, cache.getBytes());
+        assertNull(cache.get(b));
+        assertEquals(40, cache.get(a).length);
+        assertEquals(40, cache.get(c).length);
+    }
+
+    @Test
+    public void classLargerThanCacheIsNotStored() {
+        EnhancedClassCache cache = new EnhancedClassCache(10);
+        put(cache, "A");
+        assertEquals(0, cache.size());
+    }
+
+    private static EnhancedClassCache.Key put(EnhancedClassCache cache, String name) {
+        byte[] source = bytes(40, 1);
+        EnhancedClassCache.Key key = EnhancedClassCache.key(name, source, true, IDENTITY);
+        cache.put(key, source, bytes(40, 2));
+        return key;
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
@@ -0,0 +1,121 @@
+package net.datenwerke.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+
+import net.datenwerke.sandbox.SandboxService.TypedArgument;
+import net.datenwerke.sandbox.exception.SandboxConfigurationException;
+
+import org.junit.Test;
+
+/**
+ * {@link EnvironmentInvoker} picks constructors per argument signature and reports errors like reflection does.
+ */
+public class EnvironmentInvokerTest {
+
+    private static final ClassLoader LOADER = EnvironmentInvokerTest.class.getClassLoader();
+
+    @Test
+    public void invokersAreKeptPerClass() throws Exception {
+        assertSame(EnvironmentInvoker.of(Describe.class), EnvironmentInvoker.of(Describe.class));
+        assertSame(Describe.class, EnvironmentInvoker.of(Describe.class).getType());
+    }
+
+    @Test
+    public void constructorIsChosenPerSignature() throws Exception {
+        EnvironmentInvoker invoker = EnvironmentInvoker.of(Describe.class);
+        for (int i = 0; i < 2; i++) {
+            assertEquals("none", run(invoker));
+            assertEquals("int 5", run(invoker, 5));
+            assertEquals("string a", run(invoker, "a"));
+            assertEquals("string null", run(invoker, new TypedArgument(String.class, null)));
+            assertEquals("object 5", run(invoker, new TypedArgument(Object.class, 5)));
+            assertEquals("pair a 5", run(invoker, "a", 5));
+        }
+    }
+
+    @Test
+    public void exceptionsAreWrapped() throws Exception {
+        try {
+            EnvironmentInvoker.of(Fail.class).newInstance(null, LOADER, true);
+            fail("constructor did not throw");
+        } catch (InvocationTargetException e) {
+            assertEquals("constructor", e.getCause().getMessage());
+        }
+
+        EnvironmentInvoker invoker = EnvironmentInvoker.of(Fail.class);
+        Object instance = invoker.newInstance(null, LOADER, false);
+        try {
+            invoker.execute(instance);
+            fail("execute did not throw");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("execute", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void argumentMismatchIsReported() throws Exception {
+        EnvironmentInvoker invoker = EnvironmentInvoker.of(Describe.class);
+        try {
+            invoker.newInstance(null, LOADER, 1L);
+            fail("found constructor for long");
+        } catch (SandboxConfigurationException expected) {
+        }
+        try {
+            invoker.newInstance(null, LOADER, new TypedArgument(String.class, 5));
+            fail("passed an integer as string");
+        } catch (SandboxConfigurationException expected) {
+        }
+    }
+
+    private static Object run(EnvironmentInvoker invoker, Object... args) throws Exception {
+        return invoker.execute(invoker.newInstance(null, LOADER, args));
+    }
+
+    public static class Describe implements SandboxedEnvironment<String> {
+        private final String description;
+
+        public Describe() {
+            description = "none";
+        }
+
+        public Describe(Integer value) {
+            description = "int " + value;
+        }
+
+        public Describe(String value) {
+            description = "string " + value;
+        }
+
+        public Describe(Object value) {
+            description = "object " + value;
+        }
+
+        public Describe(String value, Integer other) {
+            description = "pair " + value + " " + other;
+        }
+
+        @Override
+        public String execute() throws Exception {
+            return description;
+        }
+    }
+
+    public static class Fail implements SandboxedEnvironment<Object> {
+        public Fail(Boolean inConstructor) {
+            if (inConstructor) {
+                throw new IllegalStateException("constructor");
+            }
+        }
+
+        @Override
+        public Object execute() throws Exception {
+            throw new IllegalStateException("execute");
+        }
+    }
+}
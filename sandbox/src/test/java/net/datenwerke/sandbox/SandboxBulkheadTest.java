@@ -0,0 +1,182 @@
+package net.datenwerke.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.datenwerke.sandbox.SandboxContext.AdmissionPolicy;
+import net.datenwerke.sandbox.exception.SandboxRejectedException;
+
+import org.junit.Test;
+
+/**
+ * Admission, queueing, timeouts, cancellation and interruption of {@link SandboxBulkhead}.
+ */
+public class SandboxBulkheadTest {
+
+    @Test
+    public void admitsUpToLimitAndRejectsFailFast() {
+        SandboxBulkhead bulkhead = new SandboxBulkhead("test");
+        SandboxContext context = createContext(2, AdmissionPolicy.FAIL_FAST);
+
+        assertTrue(bulkhead.acquire(context));
+        assertTrue(bulkhead.tryAcquire(context));
+        assertFalse(bulkhead.tryAcquire(context));
+        assertRejected(bulkhead, context);
+
+        bulkhead.release();
+        assertTrue(bulkhead.acquire(context));
+        assertEquals(2, bulkhead.getRunning());
+        assertEquals(3, bulkhead.getAdmitted());
+        assertEquals(1, bulkhead.getRejected());
+    }
+
+    @Test
+    public void callerRunsBeyondLimitWithoutPermit() {
+        SandboxBulkhead bulkhead = new SandboxBulkhead("test");
+        SandboxContext context = createContext(1, AdmissionPolicy.CALLER_RUNS);
+
+        assertTrue(bulkhead.acquire(context));
+        assertFalse(bulkhead.acquire(context));
+        assertEquals(1, bulkhead.getRunning());
+        assertEquals(1, bulkhead.getCallerRuns());
+    }
+
+    @Test
+    public void queuedExecutionsAreDispatchedInOrder() {
+        SandboxBulkhead bulkhead = new SandboxBulkhead("test");
+        SandboxContext context = createContext(1, AdmissionPolicy.WAIT);
+        List<String> dispatched = new ArrayList<>();
+
+        assertTrue(bulkhead.acquire(context));
+        assertNotNull(bulkhead.acquireAsync(context, () -> dispatched.add("a"), e -> fail()));
+        assertNotNull(bulkhead.acquireAsync(context, () -> dispatched.add("b"), e -> fail()));
+        assertEquals(2, bulkhead.getQueueDepth());
+
+        bulkhead.release();
+        assertEquals(1, dispatched.size());
+        bulkhead.release();
+        assertEquals(2, dispatched.size());
+        assertEquals("a", dispatched.get(0));
+        assertEquals("b", dispatched.get(1));
+        assertEquals(0, bulkhead.getQueueDepth());
+        assertEquals(1, bulkhead.getRunning());
+    }
+
+    @Test
+    public void fullQueueRejects() {
+        SandboxBulkhead bulkhead = new SandboxBulkhead("test");
+        SandboxContext context = createContext(1, AdmissionPolicy.WAIT);
+        context.setMaximumQueuedExecutions(1);
+        AtomicReference<SandboxRejectedException> rejection = new AtomicReference<>();
+
+        assertTrue(bulkhead.acquire(context));
+        assertNotNull(bulkhead.acquireAsync(context, () -> fail(), e -> fail()));
+        assertNull(bulkhead.acquireAsync(context, () -> fail(), rejection::set));
+        assertNotNull(rejection.get());
+        assertRejected(bulkhead, context);
+    }
+
+    @Test
+    public void waitTimesOut() throws Exception {
+        SandboxBulkhead bulkhead = new SandboxBulkhead("test");
+        SandboxContext context = createContext(1, AdmissionPolicy.WAIT);
+        context.setAdmissionTimeout(50, TimeUnit.MILLISECONDS);
+        CountDownLatch rejected = new CountDownLatch(1);
+
+        assertTrue(bulkhead.acquire(context));
+        assertRejected(bulkhead, context);
+        bulkhead.acquireAsync(context, () -> fail(), e -> rejected.countDown());
+
+        assertTrue(rejected.await(10, TimeUnit.SECONDS));
+        assertEquals(0, bulkhead.getQueueDepth());
+        assertEquals(2, bulkhead.getRejected());
+    }
+
+    @Test
+    public void cancelledExecutionIsNotDispatched() {
+        SandboxBulkhead bulkhead = new SandboxBulkhead("test");
+        SandboxContext context = createContext(1, AdmissionPolicy.WAIT);
+
+        assertTrue(bulkhead.acquire(context));
+        SandboxBulkhead.Waiter waiter = bulkhead.acquireAsync(context, () -> fail(), e -> fail());
+        assertTrue(bulkhead.cancel(waiter));
+        assertFalse(bulkhead.cancel(waiter));
+
+        bulkhead.release();
+        assertEquals(0, bulkhead.getRunning());
+    }
+
+    @Test
+    public void interruptedWaiterHandsPermitOn() throws Exception {
+        SandboxBulkhead bulkhead = new SandboxBulkhead("test");
+        SandboxContext context = createContext(1, AdmissionPolicy.WAIT);
+        AtomicReference<Throwable> outcome = new AtomicReference<>();
+        CountDownLatch dispatched = new CountDownLatch(1);
+
+        assertTrue(bulkhead.acquire(context));
+        Thread waiting = new Thread(() -> {
+            try {
+                bulkhead.acquire(context);
+            } catch (Throwable e) {
+                outcome.set(e);
+            }
+        });
+        waiting.start();
+        while (1 > bulkhead.getQueueDepth()) {
+            Thread.sleep(1);
+        }
+        bulkhead.acquireAsync(context, dispatched::countDown, e -> fail());
+
+        /* admit the waiting thread once it has seen the interrupt, but before it holds the lock again */
+        ReentrantLock lock = getLock(bulkhead);
+        lock.lock();
+        try {
+            waiting.interrupt();
+            while (!lock.hasQueuedThread(waiting)) {
+                Thread.sleep(1);
+            }
+            bulkhead.release();
+        } finally {
+            lock.unlock();
+        }
+        waiting.join(10000);
+
+        assertTrue(outcome.get() instanceof SandboxRejectedException);
+        assertTrue(dispatched.await(10, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.getRunning());
+        assertEquals(0, bulkhead.getQueueDepth());
+    }
+
+    private static void assertRejected(SandboxBulkhead bulkhead, SandboxContext context) {
+        try {
+            bulkhead.acquire(context);
+            fail("execution beyond the limit was admitted");
+        } catch (SandboxRejectedException expected) {
+        }
+    }
+
+    private static ReentrantLock getLock(SandboxBulkhead bulkhead) throws Exception {
+        Field field = SandboxBulkhead.class.getDeclaredField("lock");
+        field.setAccessible(true);
+        return (ReentrantLock) field.get(bulkhead);
+    }
+
+    private static SandboxContext createContext(int limit, AdmissionPolicy policy) {
+        SandboxContext context = new SandboxContext();
+        context.setMaximumConcurrentExecutions(limit);
+        context.setAdmissionPolicy(policy);
+        return context;
+    }
+}
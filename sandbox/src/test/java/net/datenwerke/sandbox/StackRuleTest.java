@@ -0,0 +1,90 @@
+package net.datenwerke.sandbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import net.datenwerke.sandbox.permissions.StackEntry;
+
+import org.junit.Test;
+
+/**
+ * {@link StackRule} agrees with matching every entry against the stack one by one.
+ */
+public class StackRuleTest {
+
+    private static final Class[] CLASSES = {
+        String.class, StringBuilder.class, Integer.class, Object.class, Thread.class,
+        List.class, ArrayList.class, Arrays.class, Collections.class, Random.class,
+        StackRule.class, StackRuleTest.class, SandboxContext.class,
+    };
+
+    private static final String[] TYPES = {
+        "java.", "java.lang.", "java.lang.String", "java.lang.Str", "java.util.",
+        "java.util.List", "net.datenwerke.sandbox.", "net.datenwerke.sandbox.StackRule", "org.", "",
+    };
+
+    @Test
+    public void emptyRuleMatchesAnyStack() {
+        assertTrue(StackRule.of(null).isEmpty());
+        assertTrue(StackRule.of(Collections.<StackEntry>emptyList()).matches(new Class[0]));
+        assertTrue(StackRule.of(null).matches(CLASSES));
+    }
+
+    @Test
+    public void positionBeyondStackDoesNotMatch() {
+        StackRule rule = StackRule.of(Collections.singletonList(new StackEntry(2, "java.lang.String")));
+        assertFalse(rule.isEmpty());
+        assertFalse(rule.matches(new Class[]{String.class}));
+        assertTrue(rule.matches(new Class[]{Object.class, Object.class, String.class}));
+    }
+
+    @Test
+    public void randomRulesMatchLinearCheck() {
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            List<StackEntry> entries = new ArrayList<>();
+            for (int j = random.nextInt(4); j >= 0; j--) {
+                entries.add(new StackEntry(random.nextInt(5) - 1, TYPES[random.nextInt(TYPES.length)], random.nextBoolean()));
+            }
+            StackRule rule = StackRule.of(entries);
+
+            for (int j = 0; j < 20; j++) {
+                Class[] stack = new Class[random.nextInt(5)];
+                for (int k = 0; k < stack.length; k++) {
+                    stack[k] = CLASSES[random.nextInt(CLASSES.length)];
+                }
+                assertEquals(entries + " " + Arrays.toString(stack), matchesLinear(entries, stack), rule.matches(stack));
+            }
+        }
+    }
+
+    private static boolean matchesLinear(List<StackEntry> entries, Class[] stack) {
+        for (StackEntry entry : entries) {
+            if (entry.getPos() >= 0) {
+                if (stack.length <= entry.getPos() || !matches(entry, stack[entry.getPos()])) {
+                    return false;
+                }
+            } else {
+                boolean found = false;
+                for (Class clazz : stack) {
+                    found |= matches(entry, clazz);
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(StackEntry entry, Class clazz) {
+        return entry.isPrefix() ? clazz.getName().startsWith(entry.getType()) : clazz.getName().equals(entry.getType());
+    }
+}